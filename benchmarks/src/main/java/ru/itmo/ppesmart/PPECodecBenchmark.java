@@ -0,0 +1,80 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.Genson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning PPE into world-state values and back: binary codec against the Genson JSON
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PPECodecBenchmark {
+
+    private Genson genson;
+
+    private PPECodec codec;
+
+    private PPE ppe;
+
+    private byte[] binaryValue;
+
+    private byte[] jsonValue;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        genson = new Genson();
+        codec = new PPECodec(genson, true);
+        ppe = PPEFixtures.ppe(42);
+        binaryValue = codec.encode(ppe);
+        json = genson.serialize(ppe);
+        jsonValue = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return codec.encode(ppe);
+    }
+
+    @Benchmark
+    public PPE decodeBinary() {
+        return codec.decode(binaryValue);
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return genson.serialize(ppe);
+    }
+
+    @Benchmark
+    public PPE decodeJson() {
+        return genson.deserialize(json, PPE.class);
+    }
+
+    @Benchmark
+    public PPE decodeLegacyValue() {
+        return codec.decode(jsonValue);
+    }
+
+    @Benchmark
+    public String binaryValueToResponseJson() {
+        return codec.toJSON(binaryValue);
+    }
+}
@@ -0,0 +1,330 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.protos.peer.ChaincodeEventPackage;
+import org.hyperledger.fabric.shim.ChaincodeException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays a mix of contract transactions from many threads against an {@link InMemoryLedger} and reports
+ * throughput, latency percentiles and the share of transactions invalidated by MVCC conflicts.
+ *
+ * <p>Arguments are {@code key=value} pairs:
+ * <ul>
+ *     <li>{@code threads} - number of client threads, 8 by default</li>
+ *     <li>{@code duration} - run time in seconds, 30 by default</li>
+ *     <li>{@code records} - records on the ledger before the run, 10000 by default</li>
+ *     <li>{@code hotKeys} - when positive, transfers and reads pick only the first hotKeys records</li>
+ *     <li>{@code pageSize} - page size of the paginated scan, 100 by default</li>
+ *     <li>{@code mix} - weights of the operations, {@code create:10,transfer:30,apply:20,read:35,page:4,getAll:1}
+ *     by default</li>
+ *     <li>{@code events} - file to record the chaincode events of the run to, one JSON line per event with
+ *     the block number, the transaction id, the event name and the payload</li>
+ * </ul>
+ */
+public final class PPELoadGenerator {
+
+    /**
+     * Операции нагрузки
+     */
+    enum Operation {
+        create(true),
+        transfer(true),
+        apply(true),
+        read(false),
+        page(false),
+        getAll(false);
+
+        private final boolean submit;
+
+        Operation(final boolean submit) {
+            this.submit = submit;
+        }
+    }
+
+    private final Map<String, String> options;
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final Operation[] operations;
+
+    private final int[] cumulativeWeights;
+
+    private final int records;
+
+    private final int hotKeys;
+
+    private final int pageSize;
+
+    private PPELoadGenerator(final Map<String, String> options) {
+        this.options = options;
+        this.records = intOption("records", 10000);
+        this.hotKeys = intOption("hotKeys", 0);
+        this.pageSize = intOption("pageSize", 100);
+
+        String[] weights = options.getOrDefault("mix", "create:10,transfer:30,apply:20,read:35,page:4,getAll:1").split(",");
+        operations = new Operation[weights.length];
+        cumulativeWeights = new int[weights.length];
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            String[] weight = weights[i].split(":");
+            operations[i] = Operation.valueOf(weight[0].trim());
+            total += Integer.parseInt(weight[1].trim());
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public static void main(final String[] args) throws InterruptedException, IOException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg: args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("expected key=value argument, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new PPELoadGenerator(options).run();
+    }
+
+    private void run() throws InterruptedException, IOException {
+        long loadStart = System.nanoTime();
+        PPEFixtures.populate(ledger, records);
+        created.set(records);
+        System.out.printf("loaded %d records (%d keys) in %d ms%n", records, ledger.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart));
+
+        int threads = intOption("threads", 8);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(intOption("duration", 30));
+
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(deadline);
+            workers.add(worker);
+            worker.start();
+        }
+        long runStart = System.nanoTime();
+        for (Worker worker: workers) {
+            worker.join();
+        }
+        report(workers, System.nanoTime() - runStart);
+
+        String eventsFile = options.get("events");
+        if (eventsFile != null) {
+            writeEvents(Paths.get(eventsFile));
+        }
+    }
+
+    /**
+     * Writes the events of the committed transactions, the payloads of the contract events are JSON documents
+     */
+    private void writeEvents(final Path file) throws IOException {
+        List<InMemoryLedger.BlockEvent> events = ledger.getEvents();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (InMemoryLedger.BlockEvent blockEvent: events) {
+                ChaincodeEventPackage.ChaincodeEvent event = blockEvent.getEvent();
+                writer.write("{\"blockNumber\":" + blockEvent.getBlockNumber()
+                        + ",\"txId\":\"" + event.getTxId() + "\""
+                        + ",\"eventName\":\"" + event.getEventName() + "\""
+                        + ",\"payload\":" + event.getPayload().toStringUtf8() + "}");
+                writer.newLine();
+            }
+        }
+        System.out.printf("recorded %d events to %s%n", events.size(), file);
+    }
+
+    private int intOption(final String name, final int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private Operation nextOperation() {
+        int roll = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private String existingInventoryNumber() {
+        int bound = hotKeys > 0 ? Math.min(hotKeys, created.get()) : created.get();
+        return PPEFixtures.inventoryNumber(ThreadLocalRandom.current().nextInt(bound));
+    }
+
+    private InMemoryLedger.Validation execute(final Operation operation) {
+        InMemoryChaincodeStub stub = ledger.newTransaction(operation.name());
+        Context ctx = contract.createContext(stub);
+        contract.beforeTransaction(ctx);
+
+        switch (operation) {
+            case create:
+                PPE ppe = PPEFixtures.ppe(created.getAndIncrement());
+                contract.createPPE(ctx, ppe.getOwnerName(), ppe.getOwnerID(), ppe.getName(), ppe.getStatus(),
+                        ppe.getPrice(), ppe.getInventoryNumber(), ppe.getStartUseDate(), ppe.getLifeTime(),
+                        ppe.getSubsidiary());
+                break;
+            case transfer:
+                contract.transferPPE(ctx, existingInventoryNumber(),
+                        PPEFixtures.subsidiary(ThreadLocalRandom.current().nextInt()), "TRANSFER");
+                break;
+            case apply:
+                contract.applyTransferPPE(ctx, existingInventoryNumber(), "IN_USE");
+                break;
+            case read:
+                contract.readPPE(ctx, existingInventoryNumber());
+                break;
+            case page:
+                contract.getAllPPEsWithPagination(ctx, pageSize,
+                        PPEFixtures.pageBookmark(ThreadLocalRandom.current().nextInt(PPEFixtures.SUBSIDIARIES)));
+                break;
+            case getAll:
+                contract.getAllPPEs(ctx);
+                break;
+            default:
+                throw new IllegalStateException(operation.name());
+        }
+        contract.afterTransaction(ctx, null);
+
+        return operation.submit ? ledger.commit(stub) : InMemoryLedger.Validation.VALID;
+    }
+
+    private void report(final List<Worker> workers, final long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%-9s %9s %9s %9s %9s %10s %9s %9s %9s %9s%n",
+                "operation", "count", "errors", "mvcc", "phantom", "tx/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+
+        Statistics total = new Statistics();
+        for (Operation operation: Operation.values()) {
+            Statistics statistics = new Statistics();
+            for (Worker worker: workers) {
+                statistics.add(worker.statistics.get(operation));
+            }
+            if (statistics.count > 0) {
+                print(operation.name(), statistics, seconds);
+                total.add(statistics);
+            }
+        }
+        print("total", total, seconds);
+
+        long submitted = 0;
+        long conflicts = 0;
+        for (Operation operation: Operation.values()) {
+            if (operation.submit) {
+                for (Worker worker: workers) {
+                    Statistics statistics = worker.statistics.get(operation);
+                    submitted += statistics.count - statistics.errors;
+                    conflicts += statistics.mvccConflicts + statistics.phantomConflicts;
+                }
+            }
+        }
+        System.out.printf("committed blocks %d, conflict rate %.2f%% of %d submitted transactions%n",
+                ledger.getBlockNumber(), submitted == 0 ? 0.0 : 100.0 * conflicts / submitted, submitted);
+    }
+
+    private static void print(final String name, final Statistics statistics, final double seconds) {
+        long[] latencies = statistics.sortedLatencies();
+        System.out.printf("%-9s %9d %9d %9d %9d %10.1f %9.3f %9.3f %9.3f %9.3f%n",
+                name, statistics.count, statistics.errors, statistics.mvccConflicts, statistics.phantomConflicts,
+                statistics.count / seconds, percentile(latencies, 0.50), percentile(latencies, 0.90),
+                percentile(latencies, 0.99), latencies.length == 0 ? 0.0 : latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static double percentile(final long[] sortedLatencies, final double quantile) {
+        if (sortedLatencies.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(quantile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(index, 0)] / 1e6;
+    }
+
+    private final class Worker extends Thread {
+
+        private final long deadline;
+
+        private final Map<Operation, Statistics> statistics = new EnumMap<>(Operation.class);
+
+        Worker(final long deadline) {
+            this.deadline = deadline;
+            for (Operation operation: Operation.values()) {
+                statistics.put(operation, new Statistics());
+            }
+        }
+
+        @Override
+        public void run() {
+            while (System.nanoTime() < deadline) {
+                Operation operation = nextOperation();
+                Statistics operationStatistics = statistics.get(operation);
+                long start = System.nanoTime();
+                try {
+                    InMemoryLedger.Validation validation = execute(operation);
+                    if (validation == InMemoryLedger.Validation.MVCC_READ_CONFLICT) {
+                        operationStatistics.mvccConflicts++;
+                    } else if (validation == InMemoryLedger.Validation.PHANTOM_READ_CONFLICT) {
+                        operationStatistics.phantomConflicts++;
+                    }
+                } catch (ChaincodeException e) {
+                    operationStatistics.errors++;
+                }
+                operationStatistics.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static final class Statistics {
+
+        private long count;
+
+        private long errors;
+
+        private long mvccConflicts;
+
+        private long phantomConflicts;
+
+        private long[] latencies = new long[1024];
+
+        void record(final long latencyNanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[(int) count++] = latencyNanos;
+        }
+
+        void add(final Statistics other) {
+            if (count + other.count > latencies.length) {
+                latencies = Arrays.copyOf(latencies, (int) (count + other.count));
+            }
+            System.arraycopy(other.latencies, 0, latencies, (int) count, (int) other.count);
+            count += other.count;
+            errors += other.errors;
+            mvccConflicts += other.mvccConflicts;
+            phantomConflicts += other.phantomConflicts;
+        }
+
+        long[] sortedLatencies() {
+            long[] sorted = Arrays.copyOf(latencies, (int) count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.Genson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of PPE equals and hashCode on ppes freshly decoded from world-state values, as the contract compares
+ * them, so that no hash is cached yet. The decode benchmark is the share of the decoding in the others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PPEObjectBenchmark {
+
+    private PPECodec codec;
+
+    private byte[] value;
+
+    private byte[] equalValue;
+
+    private byte[] otherValue;
+
+    @Setup
+    public void setUp() {
+        codec = new PPECodec(new Genson(), true);
+        value = codec.encode(PPEFixtures.ppe(42));
+        equalValue = codec.encode(PPEFixtures.ppe(42));
+        otherValue = codec.encode(PPEFixtures.ppe(43));
+    }
+
+    @Benchmark
+    public PPE decode() {
+        return codec.decode(value);
+    }
+
+    @Benchmark
+    public boolean equalsEqual() {
+        return codec.decode(value).equals(codec.decode(equalValue));
+    }
+
+    @Benchmark
+    public boolean equalsDifferent() {
+        return codec.decode(value).equals(codec.decode(otherValue));
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return codec.decode(value).hashCode();
+    }
+}
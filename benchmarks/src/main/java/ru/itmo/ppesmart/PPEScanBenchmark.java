@@ -0,0 +1,62 @@
+package ru.itmo.ppesmart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-ledger and whole-index scans, the cost per record is the score divided by the ledger size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PPEScanBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int records;
+
+    private InMemoryLedger ledger;
+
+    private PPETransfer contract;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ledger = new InMemoryLedger(false);
+        contract = new PPETransfer();
+        PPEFixtures.populate(ledger, records);
+    }
+
+    @Benchmark
+    public String getAllPPEs() {
+        return contract.getAllPPEs(contract.createContext(ledger.newTransaction("evaluate")));
+    }
+
+    @Benchmark
+    public String queryPPEsBySubsidiary() {
+        return contract.queryPPEsBySubsidiary(contract.createContext(ledger.newTransaction("evaluate")), PPEFixtures.subsidiary(0));
+    }
+
+    @Benchmark
+    public String queryPPEsByStatus() {
+        return contract.queryPPEsByStatus(contract.createContext(ledger.newTransaction("evaluate")), PPEFixtures.STATUSES[0]);
+    }
+
+    @Benchmark
+    public String getPPEAggregates() {
+        return contract.getPPEAggregates(contract.createContext(ledger.newTransaction("evaluate")), PPEAggregates.SUBSIDIARY, "");
+    }
+}
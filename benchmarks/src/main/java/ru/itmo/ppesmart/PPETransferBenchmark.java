@@ -0,0 +1,118 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.contract.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Point and page transactions of the contract on ledgers of different size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PPETransferBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000", "100000", "1000000"})
+    private int records;
+
+    private InMemoryLedger ledger;
+
+    private PPETransfer contract;
+
+    private int created;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ledger = new InMemoryLedger(false);
+        contract = new PPETransfer();
+        PPEFixtures.populate(ledger, records);
+        created = records;
+    }
+
+    @Benchmark
+    public PPE createPPE() {
+        PPE ppe = PPEFixtures.ppe(created++);
+        return submit(ctx -> contract.createPPE(ctx, ppe.getOwnerName(), ppe.getOwnerID(), ppe.getName(), ppe.getStatus(),
+                ppe.getPrice(), ppe.getInventoryNumber(), ppe.getStartUseDate(), ppe.getLifeTime(), ppe.getSubsidiary()));
+    }
+
+    @Benchmark
+    public PPE readPPE() {
+        return contract.readPPE(context(), randomInventoryNumber());
+    }
+
+    @Benchmark
+    public boolean isPPEExist() {
+        return contract.isPPEExist(context(), randomInventoryNumber());
+    }
+
+    @Benchmark
+    public PPE updatePPE() {
+        PPE ppe = PPEFixtures.ppe(ThreadLocalRandom.current().nextInt(records));
+        return submit(ctx -> contract.updatePPE(ctx, ppe.getOwnerName(), ppe.getOwnerID(), ppe.getName(), ppe.getStatus(),
+                ppe.getPrice() + 1, ppe.getInventoryNumber(), ppe.getStartUseDate(), ppe.getLifeTime(), ppe.getSubsidiary()));
+    }
+
+    @Benchmark
+    public PPE transferPPE() {
+        int i = ThreadLocalRandom.current().nextInt(records);
+        return submit(ctx -> contract.transferPPE(ctx, PPEFixtures.inventoryNumber(i), PPEFixtures.subsidiary(i + 1), "TRANSFER"));
+    }
+
+    @Benchmark
+    public PPE applyTransferPPE() {
+        String inventoryNumber = randomInventoryNumber();
+        return submit(ctx -> contract.applyTransferPPE(ctx, inventoryNumber, "IN_USE"));
+    }
+
+    @Benchmark
+    public String readPPEHistory() {
+        return contract.readPPEHistory(context(), randomInventoryNumber());
+    }
+
+    @Benchmark
+    public String getAllPPEsWithPagination() {
+        return contract.getAllPPEsWithPagination(context(), PAGE_SIZE,
+                PPEFixtures.pageBookmark(ThreadLocalRandom.current().nextInt(PPEFixtures.SUBSIDIARIES)));
+    }
+
+    @Benchmark
+    public String queryPPEsByOwner() {
+        return contract.queryPPEsByOwner(context(),
+                PPEFixtures.ownerID(ThreadLocalRandom.current().nextInt(records)));
+    }
+
+    private Context context() {
+        return contract.createContext(ledger.newTransaction("evaluate"));
+    }
+
+    private <T> T submit(final Function<Context, T> transaction) {
+        InMemoryChaincodeStub stub = ledger.newTransaction("submit");
+        T result = transaction.apply(contract.createContext(stub));
+        ledger.commit(stub);
+        return result;
+    }
+
+    private String randomInventoryNumber() {
+        return PPEFixtures.inventoryNumber(ThreadLocalRandom.current().nextInt(records));
+    }
+}
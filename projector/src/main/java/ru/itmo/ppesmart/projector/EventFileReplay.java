@@ -0,0 +1,50 @@
+package ru.itmo.ppesmart.projector;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the read model from a recorded event file and reports what it contains.
+ *
+ * <p>Arguments are the event file and, optionally, the checkpoint file. An existing checkpoint is restored
+ * before the replay and the checkpoint is saved after it, so a second run applies only the new events.
+ */
+public final class EventFileReplay {
+
+    private EventFileReplay() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("expected <event file> [<checkpoint file>]");
+        }
+        Path eventFile = Paths.get(args[0]);
+        Path checkpointFile = args.length > 1 ? Paths.get(args[1]) : null;
+
+        PPEProjector projector = new PPEProjector(new PPEReadModel());
+        if (checkpointFile != null && Files.exists(checkpointFile)) {
+            projector.restore(checkpointFile);
+            System.out.printf("restored %d records at block %d%n", projector.getModel().size(), projector.getBlockNumber());
+        }
+
+        long start = System.nanoTime();
+        long applied = projector.replay(eventFile);
+        System.out.printf("applied %d events with %d changes in %d ms, model at block %d has %d records%n",
+                applied, projector.getAppliedChanges(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                projector.getBlockNumber(), projector.getModel().size());
+
+        for (Map.Entry<String, Integer> subsidiary: projector.getModel().countBySubsidiary().entrySet()) {
+            System.out.printf("%-20s %9d%n", subsidiary.getKey(), subsidiary.getValue());
+        }
+
+        if (checkpointFile != null) {
+            projector.checkpoint(checkpointFile);
+            System.out.printf("checkpoint at block %d event %d saved to %s%n", projector.getCheckpointBlockNumber(),
+                    projector.getCheckpointBlockEvents(), checkpointFile);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.itmo.ppesmart.projector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Payload of the PPEChanged chaincode event, the latest change of every ppe record written by one transaction
+ */
+public final class PPEChangeEvent {
+
+    /**
+     * Имя события изменения СИЗ
+     */
+    public static final String NAME = "PPEChanged";
+
+    private String txId;
+
+    private List<Change> changes = new ArrayList<>();
+
+    private List<String> unchanged = new ArrayList<>();
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public void setTxId(final String txId) {
+        this.txId = txId;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(final List<Change> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * @return inventory numbers of the ppes the transaction left as they were, they change nothing in the view
+     */
+    public List<String> getUnchanged() {
+        return unchanged;
+    }
+
+    public void setUnchanged(final List<String> unchanged) {
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * New state of a ppe record, a record removed from the subsidiary has no value
+     */
+    public static final class Change {
+
+        private String inventoryNumber;
+
+        private String subsidiary;
+
+        private PPEView value;
+
+        public String getInventoryNumber() {
+            return inventoryNumber;
+        }
+
+        public void setInventoryNumber(final String inventoryNumber) {
+            this.inventoryNumber = inventoryNumber;
+        }
+
+        public String getSubsidiary() {
+            return subsidiary;
+        }
+
+        public void setSubsidiary(final String subsidiary) {
+            this.subsidiary = subsidiary;
+        }
+
+        public PPEView getValue() {
+            return value;
+        }
+
+        public void setValue(final PPEView value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package ru.itmo.ppesmart.projector;
+
+import com.owlike.genson.Genson;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Applies the PPEChanged chaincode events to a {@link PPEReadModel} in block order.
+ *
+ * <p>The projector remembers its position in the event stream: the number of the last block it has seen
+ * events of and how many PPEChanged events of that block it has seen. A checkpoint saves the read model
+ * together with that position and may be taken in the middle of a block. After a restore the events up to
+ * the position are skipped, so the event stream may be resumed from the start of the checkpoint block:
+ * the peer delivers the events of a block again in the same order.
+ */
+public final class PPEProjector {
+
+    private final Genson genson = new Genson();
+
+    private final PPEReadModel model;
+
+    /**
+     * Последний блок, события которого применены к модели
+     */
+    private long blockNumber;
+
+    /**
+     * Число событий последнего блока, применённых к модели или пропущенных как уже сохранённые
+     */
+    private long blockEvents;
+
+    /**
+     * Последний блок, сохранённый в контрольной точке или восстановленный из неё
+     */
+    private long checkpointBlockNumber;
+
+    /**
+     * Число событий блока контрольной точки, вошедших в неё
+     */
+    private long checkpointBlockEvents;
+
+    private long appliedEvents;
+
+    private long appliedChanges;
+
+    public PPEProjector(final PPEReadModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Applies a chaincode event as it is delivered by the peer
+     *
+     * @param eventBlockNumber number of the block with the transaction of the event
+     * @param eventName name of the chaincode event
+     * @param payload payload of the chaincode event
+     * @return true if the event has changed the read model
+     */
+    public boolean apply(final long eventBlockNumber, final String eventName, final byte[] payload) {
+        if (!PPEChangeEvent.NAME.equals(eventName) || eventBlockNumber < checkpointBlockNumber) {
+            return false;
+        }
+        return apply(eventBlockNumber, genson.deserialize(new String(payload, StandardCharsets.UTF_8), PPEChangeEvent.class));
+    }
+
+    /**
+     * Applies the changes of one transaction
+     *
+     * @param eventBlockNumber number of the block with the transaction
+     * @param event payload of the PPEChanged event
+     * @return true if the event has changed the read model
+     */
+    public boolean apply(final long eventBlockNumber, final PPEChangeEvent event) {
+        if (eventBlockNumber < checkpointBlockNumber) {
+            return false;
+        }
+        if (eventBlockNumber < blockNumber) {
+            throw new IllegalStateException(String.format("event of block %d after block %d", eventBlockNumber, blockNumber));
+        }
+        if (eventBlockNumber > blockNumber) {
+            blockNumber = eventBlockNumber;
+            blockEvents = 0;
+        }
+        blockEvents++;
+        // the checkpoint block is delivered again from its first event, the events saved with it are skipped
+        if (eventBlockNumber == checkpointBlockNumber && blockEvents <= checkpointBlockEvents) {
+            return false;
+        }
+        for (PPEChangeEvent.Change change: event.getChanges()) {
+            model.put(change.getSubsidiary(), change.getInventoryNumber(), change.getValue());
+            appliedChanges++;
+        }
+        appliedEvents++;
+        return true;
+    }
+
+    /**
+     * Applies the events of a recorded event file, one JSON line per event with the block number,
+     * the transaction id, the event name and the payload
+     *
+     * @param eventFile the recorded events
+     * @return number of applied events
+     * @throws IOException if the file cannot be read
+     */
+    public long replay(final Path eventFile) throws IOException {
+        long applied = 0;
+        try (BufferedReader reader = Files.newBufferedReader(eventFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                RecordedEvent event = genson.deserialize(line, RecordedEvent.class);
+                if (PPEChangeEvent.NAME.equals(event.getEventName()) && apply(event.getBlockNumber(), event.getPayload())) {
+                    applied++;
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Saves the read model with the position of the last applied event, the file is replaced atomically
+     *
+     * @param checkpointFile file of the checkpoint
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public void checkpoint(final Path checkpointFile) throws IOException {
+        Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write("{\"blockNumber\":" + blockNumber + ",\"blockEvents\":" + blockEvents + "}");
+            writer.newLine();
+            for (PPEView record: model.all()) {
+                writer.write(genson.serialize(record));
+                writer.newLine();
+            }
+        }
+        Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointBlockNumber = blockNumber;
+        checkpointBlockEvents = blockEvents;
+    }
+
+    /**
+     * Replaces the read model with the saved one
+     *
+     * @param checkpointFile file of the checkpoint
+     * @throws IOException if the checkpoint cannot be read
+     */
+    public void restore(final Path checkpointFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IOException("empty checkpoint " + checkpointFile);
+            }
+            CheckpointHeader saved = genson.deserialize(header, CheckpointHeader.class);
+
+            model.clear();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                PPEView record = genson.deserialize(line, PPEView.class);
+                model.put(record.getSubsidiary(), record.getInventoryNumber(), record);
+            }
+            blockNumber = saved.getBlockNumber();
+            blockEvents = 0;
+            checkpointBlockNumber = saved.getBlockNumber();
+            checkpointBlockEvents = saved.getBlockEvents();
+        }
+    }
+
+    public PPEReadModel getModel() {
+        return model;
+    }
+
+    /**
+     * @return number of the last block the events of which are applied or skipped
+     */
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    /**
+     * @return number of the PPEChanged events of the last block applied or skipped
+     */
+    public long getBlockEvents() {
+        return blockEvents;
+    }
+
+    /**
+     * @return number of the last block saved to or restored from a checkpoint
+     */
+    public long getCheckpointBlockNumber() {
+        return checkpointBlockNumber;
+    }
+
+    /**
+     * @return number of the PPEChanged events of the checkpoint block saved with the checkpoint
+     */
+    public long getCheckpointBlockEvents() {
+        return checkpointBlockEvents;
+    }
+
+    public long getAppliedEvents() {
+        return appliedEvents;
+    }
+
+    public long getAppliedChanges() {
+        return appliedChanges;
+    }
+
+    /**
+     * First line of a checkpoint file, a checkpoint without the events count covers its whole block
+     */
+    public static final class CheckpointHeader {
+
+        private long blockNumber;
+
+        private long blockEvents = Long.MAX_VALUE;
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        public void setBlockNumber(final long blockNumber) {
+            this.blockNumber = blockNumber;
+        }
+
+        public long getBlockEvents() {
+            return blockEvents;
+        }
+
+        public void setBlockEvents(final long blockEvents) {
+            this.blockEvents = blockEvents;
+        }
+    }
+
+    /**
+     * Line of a recorded event file
+     */
+    public static final class RecordedEvent {
+
+        private long blockNumber;
+
+        private String txId;
+
+        private String eventName;
+
+        private PPEChangeEvent payload;
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        public void setBlockNumber(final long blockNumber) {
+            this.blockNumber = blockNumber;
+        }
+
+        public String getTxId() {
+            return txId;
+        }
+
+        public void setTxId(final String txId) {
+            this.txId = txId;
+        }
+
+        public String getEventName() {
+            return eventName;
+        }
+
+        public void setEventName(final String eventName) {
+            this.eventName = eventName;
+        }
+
+        public PPEChangeEvent getPayload() {
+            return payload;
+        }
+
+        public void setPayload(final PPEChangeEvent payload) {
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ru.itmo.ppesmart.projector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * In-memory projection of the ppe records with indexes by inventory number, subsidiary, owner and status.
+ *
+ * <p>A record is identified by its subsidiary and inventory number, the same way the chaincode keys it.
+ * Writes come from one projector thread, reads may come from any thread.
+ */
+public final class PPEReadModel {
+
+    private static final char SEPARATOR = '\u0000';
+
+    private static final Function<String, NavigableSet<String>> NEW_SET = value -> new TreeSet<>();
+
+    private final Map<String, PPEView> records = new HashMap<>();
+
+    private final Map<String, NavigableSet<String>> byInventoryNumber = new HashMap<>();
+
+    private final Map<String, NavigableSet<String>> bySubsidiary = new TreeMap<>();
+
+    private final Map<String, NavigableSet<String>> byOwner = new HashMap<>();
+
+    private final Map<String, NavigableSet<String>> byStatus = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Stores the new state of a record
+     *
+     * @param subsidiary subsidiary of the record, empty for a ppe without subsidiary
+     * @param inventoryNumber PPE inventory number
+     * @param value new state of the record, null to remove it
+     */
+    public void put(final String subsidiary, final String inventoryNumber, final PPEView value) {
+        String partition = Objects.toString(subsidiary, "");
+        String key = partition + SEPARATOR + inventoryNumber;
+        lock.writeLock().lock();
+        try {
+            PPEView old = value == null ? records.remove(key) : records.put(key, value);
+            if (old != null) {
+                unindex(byInventoryNumber, old.getInventoryNumber(), key);
+                unindex(bySubsidiary, partition, key);
+                unindex(byOwner, old.getOwnerID(), key);
+                unindex(byStatus, old.getStatus(), key);
+            }
+            if (value != null) {
+                index(byInventoryNumber, inventoryNumber, key);
+                index(bySubsidiary, partition, key);
+                index(byOwner, value.getOwnerID(), key);
+                index(byStatus, value.getStatus(), key);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every record
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            records.clear();
+            byInventoryNumber.clear();
+            bySubsidiary.clear();
+            byOwner.clear();
+            byStatus.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param subsidiary subsidiary of the record
+     * @param inventoryNumber PPE inventory number
+     * @return the record, null if there is none
+     */
+    public PPEView get(final String subsidiary, final String inventoryNumber) {
+        lock.readLock().lock();
+        try {
+            return records.get(Objects.toString(subsidiary, "") + SEPARATOR + inventoryNumber);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param inventoryNumber PPE inventory number
+     * @return records with the inventory number in every subsidiary
+     */
+    public List<PPEView> findByInventoryNumber(final String inventoryNumber) {
+        return find(byInventoryNumber, inventoryNumber);
+    }
+
+    /**
+     * @param subsidiary a company owned PPE
+     * @return records of the subsidiary ordered by inventory number
+     */
+    public List<PPEView> findBySubsidiary(final String subsidiary) {
+        return find(bySubsidiary, subsidiary);
+    }
+
+    /**
+     * @param ownerID employee's personnel number
+     * @return records held by the employee
+     */
+    public List<PPEView> findByOwner(final String ownerID) {
+        return find(byOwner, ownerID);
+    }
+
+    /**
+     * @param status PPE status
+     * @return records in the status
+     */
+    public List<PPEView> findByStatus(final String status) {
+        return find(byStatus, status);
+    }
+
+    /**
+     * @return number of records in every subsidiary, subsidiaries in ascending order
+     */
+    public Map<String, Integer> countBySubsidiary() {
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> counts = new TreeMap<>();
+            bySubsidiary.forEach((subsidiary, keys) -> counts.put(subsidiary, keys.size()));
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return every record, ordered by subsidiary and inventory number
+     */
+    public List<PPEView> all() {
+        lock.readLock().lock();
+        try {
+            List<PPEView> result = new ArrayList<>(records.size());
+            for (NavigableSet<String> keys: bySubsidiary.values()) {
+                for (String key: keys) {
+                    result.add(records.get(key));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of records
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return records.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<PPEView> find(final Map<String, NavigableSet<String>> index, final String value) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<String> keys = value == null ? null : index.get(value);
+            if (keys == null) {
+                return Collections.emptyList();
+            }
+            List<PPEView> result = new ArrayList<>(keys.size());
+            for (String key: keys) {
+                result.add(records.get(key));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void index(final Map<String, NavigableSet<String>> index, final String value, final String key) {
+        if (value != null) {
+            index.computeIfAbsent(value, NEW_SET).add(key);
+        }
+    }
+
+    private static void unindex(final Map<String, NavigableSet<String>> index, final String value, final String key) {
+        NavigableSet<String> keys = value == null ? null : index.get(value);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            index.remove(value);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package ru.itmo.ppesmart.projector;
+
+import java.util.Objects;
+
+/**
+ * State of a ppe as it is published in the change events of the chaincode
+ */
+public final class PPEView {
+
+    /**
+     * ФИО сотрудника
+     */
+    private String ownerName;
+
+    /**
+     * Табельный номер сотрудника
+     */
+    private String ownerID;
+
+    /**
+     * Наименование СИЗ
+     */
+    private String name;
+
+    /**
+     * Статус СИЗ
+     */
+    private String status;
+
+    /**
+     * Цена СИЗ
+     */
+    private Float price;
+
+    /**
+     * Инвентарный номер СИЗ в организации
+     */
+    private String inventoryNumber;
+
+    /**
+     * Дата ввода в эксплуатацию
+     */
+    private String startUseDate;
+
+    /**
+     * Срок службы в месяцах
+     */
+    private Integer lifeTime;
+
+    /**
+     * Организация, которой принадлежит СИЗ
+     */
+    private String subsidiary;
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public void setOwnerName(final String ownerName) {
+        this.ownerName = ownerName;
+    }
+
+    public String getOwnerID() {
+        return ownerID;
+    }
+
+    public void setOwnerID(final String ownerID) {
+        this.ownerID = ownerID;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(final String status) {
+        this.status = status;
+    }
+
+    public Float getPrice() {
+        return price;
+    }
+
+    public void setPrice(final Float price) {
+        this.price = price;
+    }
+
+    public String getInventoryNumber() {
+        return inventoryNumber;
+    }
+
+    public void setInventoryNumber(final String inventoryNumber) {
+        this.inventoryNumber = inventoryNumber;
+    }
+
+    public String getStartUseDate() {
+        return startUseDate;
+    }
+
+    public void setStartUseDate(final String startUseDate) {
+        this.startUseDate = startUseDate;
+    }
+
+    public Integer getLifeTime() {
+        return lifeTime;
+    }
+
+    public void setLifeTime(final Integer lifeTime) {
+        this.lifeTime = lifeTime;
+    }
+
+    public String getSubsidiary() {
+        return subsidiary;
+    }
+
+    public void setSubsidiary(final String subsidiary) {
+        this.subsidiary = subsidiary;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        PPEView other = (PPEView) obj;
+        return Objects.equals(ownerName, other.ownerName) && Objects.equals(ownerID, other.ownerID)
+                && Objects.equals(name, other.name) && Objects.equals(status, other.status)
+                && Objects.equals(price, other.price) && Objects.equals(inventoryNumber, other.inventoryNumber)
+                && Objects.equals(startUseDate, other.startUseDate) && Objects.equals(lifeTime, other.lifeTime)
+                && Objects.equals(subsidiary, other.subsidiary);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ownerName, ownerID, name, status, price, inventoryNumber, startUseDate, lifeTime, subsidiary);
+    }
+
+    @Override
+    public String toString() {
+        return "PPEView [subsidiary = " + subsidiary + ", inventory number = " + inventoryNumber
+                + ", ownerID = " + ownerID + ", status = " + status + "]";
+    }
+}
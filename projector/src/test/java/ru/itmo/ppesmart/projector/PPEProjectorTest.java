@@ -0,0 +1,194 @@
+package ru.itmo.ppesmart.projector;
+
+import com.owlike.genson.Genson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Replays build the same read model whether or not they are interrupted by a checkpoint and a restart
+ */
+class PPEProjectorTest {
+
+    private static final Genson GENSON = new Genson();
+
+    @TempDir
+    Path directory;
+
+    private final List<PPEProjector.RecordedEvent> events = new ArrayList<>();
+
+    private Path eventFile;
+
+    @BeforeEach
+    void recordEvents() throws IOException {
+        event(1, change("SUB-1", "INV-1", view("SUB-1", "INV-1", "IN_USE")),
+                change("SUB-1", "INV-2", view("SUB-1", "INV-2", "IN_STOCK")));
+        event(2, change("SUB-1", "INV-3", view("SUB-1", "INV-3", "IN_USE")));
+        // three transactions in one block, the second one moves a ppe to another subsidiary
+        event(3, change("SUB-1", "INV-1", view("SUB-1", "INV-1", "TRANSFER")));
+        event(3, change("SUB-1", "INV-2", null), change("SUB-2", "INV-2", view("SUB-2", "INV-2", "TRANSFER")));
+        event(3, change("SUB-2", "INV-2", view("SUB-2", "INV-2", "IN_USE")));
+        event(4, change("SUB-1", "INV-3", null));
+
+        List<String> lines = new ArrayList<>();
+        for (PPEProjector.RecordedEvent event: events) {
+            lines.add(GENSON.serialize(event));
+        }
+        lines.add(3, "{\"blockNumber\":3,\"txId\":\"other\",\"eventName\":\"OtherEvent\",\"payload\":null}");
+        eventFile = directory.resolve("events.jsonl");
+        Files.write(eventFile, lines, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void replayAppliesEventsInBlockOrder() throws IOException {
+        PPEProjector projector = new PPEProjector(new PPEReadModel());
+
+        assertEquals(events.size(), projector.replay(eventFile));
+
+        PPEReadModel model = projector.getModel();
+        assertEquals(2, model.size());
+        assertEquals("TRANSFER", model.get("SUB-1", "INV-1").getStatus());
+        assertEquals("IN_USE", model.get("SUB-2", "INV-2").getStatus());
+        assertNull(model.get("SUB-1", "INV-2"));
+        assertNull(model.get("SUB-1", "INV-3"));
+        assertEquals(4, projector.getBlockNumber());
+        assertEquals(1, projector.getBlockEvents());
+    }
+
+    @Test
+    void restoreSkipsCheckpointedEvents() throws IOException {
+        PPEProjector projector = new PPEProjector(new PPEReadModel());
+        projector.replay(eventFile);
+        Path checkpointFile = directory.resolve("checkpoint.jsonl");
+        projector.checkpoint(checkpointFile);
+
+        PPEProjector restored = new PPEProjector(new PPEReadModel());
+        restored.restore(checkpointFile);
+
+        assertEquals(0, restored.replay(eventFile));
+        assertEquals(snapshot(projector), snapshot(restored));
+        assertEquals(4, restored.getBlockNumber());
+    }
+
+    @Test
+    void restartInTheMiddleOfBlockAppliesTheRestOfIt() throws IOException {
+        PPEProjector replayed = new PPEProjector(new PPEReadModel());
+        replayed.replay(eventFile);
+
+        // the projector stops after the second transaction of block 3
+        PPEProjector stopped = new PPEProjector(new PPEReadModel());
+        for (PPEProjector.RecordedEvent event: events.subList(0, 4)) {
+            stopped.apply(event.getBlockNumber(), event.getPayload());
+        }
+        Path checkpointFile = directory.resolve("checkpoint.jsonl");
+        stopped.checkpoint(checkpointFile);
+        assertEquals(3, stopped.getCheckpointBlockNumber());
+        assertEquals(2, stopped.getCheckpointBlockEvents());
+
+        // the stream is resumed from the start of the checkpoint block
+        PPEProjector restarted = new PPEProjector(new PPEReadModel());
+        restarted.restore(checkpointFile);
+        for (PPEProjector.RecordedEvent event: events.subList(0, 2)) {
+            assertFalse(restarted.apply(event.getBlockNumber(), event.getPayload()));
+        }
+        long applied = 0;
+        for (PPEProjector.RecordedEvent event: events.subList(2, events.size())) {
+            if (restarted.apply(event.getBlockNumber(), event.getPayload())) {
+                applied++;
+            }
+        }
+
+        assertEquals(2, applied);
+        assertEquals(snapshot(replayed), snapshot(restarted));
+    }
+
+    @Test
+    void checkpointInTheMiddleOfBlockKeepsApplyingIt() throws IOException {
+        PPEProjector projector = new PPEProjector(new PPEReadModel());
+        for (PPEProjector.RecordedEvent event: events.subList(0, 3)) {
+            projector.apply(event.getBlockNumber(), event.getPayload());
+        }
+        projector.checkpoint(directory.resolve("checkpoint.jsonl"));
+
+        long applied = 0;
+        for (PPEProjector.RecordedEvent event: events.subList(3, events.size())) {
+            if (projector.apply(event.getBlockNumber(), event.getPayload())) {
+                applied++;
+            }
+        }
+
+        assertEquals(events.size() - 3, applied);
+        PPEProjector replayed = new PPEProjector(new PPEReadModel());
+        replayed.replay(eventFile);
+        assertEquals(snapshot(replayed), snapshot(projector));
+    }
+
+    @Test
+    void checkpointWithoutEventsCountCoversItsBlock() throws IOException {
+        Path checkpointFile = directory.resolve("checkpoint.jsonl");
+        Files.write(checkpointFile, Arrays.asList("{\"blockNumber\":3}",
+                GENSON.serialize(view("SUB-1", "INV-1", "TRANSFER"))), StandardCharsets.UTF_8);
+
+        PPEProjector projector = new PPEProjector(new PPEReadModel());
+        projector.restore(checkpointFile);
+
+        assertEquals(1, projector.replay(eventFile));
+        assertEquals(1, projector.getModel().size());
+    }
+
+    @Test
+    void rejectsEventOfEarlierBlock() {
+        PPEProjector projector = new PPEProjector(new PPEReadModel());
+        projector.apply(2, events.get(2).getPayload());
+
+        assertThrows(IllegalStateException.class, () -> projector.apply(1, events.get(0).getPayload()));
+    }
+
+    private void event(final long blockNumber, final PPEChangeEvent.Change... changes) {
+        PPEChangeEvent payload = new PPEChangeEvent();
+        payload.setTxId("tx" + (events.size() + 1));
+        payload.setChanges(new ArrayList<>(Arrays.asList(changes)));
+
+        PPEProjector.RecordedEvent event = new PPEProjector.RecordedEvent();
+        event.setBlockNumber(blockNumber);
+        event.setTxId(payload.getTxId());
+        event.setEventName(PPEChangeEvent.NAME);
+        event.setPayload(payload);
+        events.add(event);
+    }
+
+    private static PPEChangeEvent.Change change(final String subsidiary, final String inventoryNumber,
+                                                final PPEView value) {
+        PPEChangeEvent.Change change = new PPEChangeEvent.Change();
+        change.setSubsidiary(subsidiary);
+        change.setInventoryNumber(inventoryNumber);
+        change.setValue(value);
+        return change;
+    }
+
+    private static PPEView view(final String subsidiary, final String inventoryNumber, final String status) {
+        PPEView view = new PPEView();
+        view.setSubsidiary(subsidiary);
+        view.setInventoryNumber(inventoryNumber);
+        view.setStatus(status);
+        view.setOwnerID("EMP-" + inventoryNumber);
+        return view;
+    }
+
+    private static String snapshot(final PPEProjector projector) {
+        return GENSON.serialize(projector.getModel().all());
+    }
+}
@@ -0,0 +1,388 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.protos.peer.ChaincodeEventPackage;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim;
+import org.hyperledger.fabric.protos.peer.ProposalPackage;
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transaction-scoped read-through / write-through cache of the world state.
+ *
+ * <p>Repeated {@link #getState(String)} calls of the same key and reads of keys written by the
+ * transaction itself are served locally without a round trip to the peer. Writes and deletes are
+ * passed to the peer immediately. Range, composite-key and history queries always go to the peer
+ * and do not see the writes of the running transaction.
+ *
+ * <p>The stub also counts state rows and bytes read and written by the transaction.
+ */
+final class CachingChaincodeStub implements ChaincodeStub {
+
+    private static final byte[] ABSENT = new byte[0];
+
+    private final ChaincodeStub stub;
+
+    private final Map<String, byte[]> state = new HashMap<>();
+
+    private int hits;
+
+    private int misses;
+
+    private int rowsRead;
+
+    private long bytesRead;
+
+    private int writes;
+
+    private long bytesWritten;
+
+    CachingChaincodeStub(final ChaincodeStub stub) {
+        this.stub = stub;
+    }
+
+    /**
+     * @return number of state reads served from the cache
+     */
+    int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of state reads sent to the peer
+     */
+    int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of rows returned by range and composite-key queries
+     */
+    int getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * @return bytes of values received from the peer
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return number of puts and deletes
+     */
+    int getWrites() {
+        return writes;
+    }
+
+    /**
+     * @return bytes of values sent to the peer
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public byte[] getState(final String key) {
+        byte[] value = state.get(key);
+        if (value != null) {
+            hits++;
+            return value;
+        }
+
+        misses++;
+        value = stub.getState(key);
+        bytesRead += value == null ? 0 : value.length;
+        state.put(key, value == null ? ABSENT : value);
+        return value;
+    }
+
+    @Override
+    public void putState(final String key, final byte[] value) {
+        stub.putState(key, value);
+        writes++;
+        bytesWritten += value == null ? 0 : value.length;
+        state.put(key, value == null ? ABSENT : value);
+    }
+
+    @Override
+    public void delState(final String key) {
+        stub.delState(key);
+        writes++;
+        state.put(key, ABSENT);
+    }
+
+    @Override
+    public List<byte[]> getArgs() {
+        return stub.getArgs();
+    }
+
+    @Override
+    public List<String> getStringArgs() {
+        return stub.getStringArgs();
+    }
+
+    @Override
+    public String getFunction() {
+        return stub.getFunction();
+    }
+
+    @Override
+    public List<String> getParameters() {
+        return stub.getParameters();
+    }
+
+    @Override
+    public String getTxId() {
+        return stub.getTxId();
+    }
+
+    @Override
+    public String getChannelId() {
+        return stub.getChannelId();
+    }
+
+    @Override
+    public Chaincode.Response invokeChaincode(final String chaincodeName, final List<byte[]> args, final String channel) {
+        return stub.invokeChaincode(chaincodeName, args, channel);
+    }
+
+    @Override
+    public byte[] getStateValidationParameter(final String key) {
+        return stub.getStateValidationParameter(key);
+    }
+
+    @Override
+    public void setStateValidationParameter(final String key, final byte[] value) {
+        stub.setStateValidationParameter(key, value);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByRange(final String startKey, final String endKey) {
+        return new CountingResults(stub.getStateByRange(startKey, endKey));
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByRangeWithPagination(final String startKey, final String endKey,
+                                                                                    final int pageSize, final String bookmark) {
+        return new CountingPage(stub.getStateByRangeWithPagination(startKey, endKey, pageSize, bookmark));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final String compositeKey) {
+        return new CountingResults(stub.getStateByPartialCompositeKey(compositeKey));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final String objectType, final String... attributes) {
+        return new CountingResults(stub.getStateByPartialCompositeKey(objectType, attributes));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final CompositeKey compositeKey) {
+        return new CountingResults(stub.getStateByPartialCompositeKey(compositeKey));
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByPartialCompositeKeyWithPagination(final CompositeKey compositeKey,
+                                                                                                  final int pageSize,
+                                                                                                  final String bookmark) {
+        return new CountingPage(stub.getStateByPartialCompositeKeyWithPagination(compositeKey, pageSize, bookmark));
+    }
+
+    @Override
+    public CompositeKey createCompositeKey(final String objectType, final String... attributes) {
+        return stub.createCompositeKey(objectType, attributes);
+    }
+
+    @Override
+    public CompositeKey splitCompositeKey(final String compositeKey) {
+        return stub.splitCompositeKey(compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getQueryResult(final String query) {
+        return stub.getQueryResult(query);
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getQueryResultWithPagination(final String query, final int pageSize,
+                                                                                   final String bookmark) {
+        return stub.getQueryResultWithPagination(query, pageSize, bookmark);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyModification> getHistoryForKey(final String key) {
+        return stub.getHistoryForKey(key);
+    }
+
+    @Override
+    public byte[] getPrivateData(final String collection, final String key) {
+        return stub.getPrivateData(collection, key);
+    }
+
+    @Override
+    public byte[] getPrivateDataHash(final String collection, final String key) {
+        return stub.getPrivateDataHash(collection, key);
+    }
+
+    @Override
+    public byte[] getPrivateDataValidationParameter(final String collection, final String key) {
+        return stub.getPrivateDataValidationParameter(collection, key);
+    }
+
+    @Override
+    public void putPrivateData(final String collection, final String key, final byte[] value) {
+        stub.putPrivateData(collection, key, value);
+    }
+
+    @Override
+    public void setPrivateDataValidationParameter(final String collection, final String key, final byte[] value) {
+        stub.setPrivateDataValidationParameter(collection, key, value);
+    }
+
+    @Override
+    public void delPrivateData(final String collection, final String key) {
+        stub.delPrivateData(collection, key);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByRange(final String collection, final String startKey, final String endKey) {
+        return stub.getPrivateDataByRange(collection, startKey, endKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection, final String compositeKey) {
+        return stub.getPrivateDataByPartialCompositeKey(collection, compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection, final CompositeKey compositeKey) {
+        return stub.getPrivateDataByPartialCompositeKey(collection, compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection, final String objectType,
+                                                                              final String... attributes) {
+        return stub.getPrivateDataByPartialCompositeKey(collection, objectType, attributes);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataQueryResult(final String collection, final String query) {
+        return stub.getPrivateDataQueryResult(collection, query);
+    }
+
+    @Override
+    public void setEvent(final String name, final byte[] payload) {
+        stub.setEvent(name, payload);
+    }
+
+    @Override
+    public ChaincodeEventPackage.ChaincodeEvent getEvent() {
+        return stub.getEvent();
+    }
+
+    @Override
+    public ProposalPackage.SignedProposal getSignedProposal() {
+        return stub.getSignedProposal();
+    }
+
+    @Override
+    public Instant getTxTimestamp() {
+        return stub.getTxTimestamp();
+    }
+
+    @Override
+    public byte[] getCreator() {
+        return stub.getCreator();
+    }
+
+    @Override
+    public Map<String, byte[]> getTransient() {
+        return stub.getTransient();
+    }
+
+    @Override
+    public byte[] getBinding() {
+        return stub.getBinding();
+    }
+
+    @Override
+    public String getMspId() {
+        return stub.getMspId();
+    }
+
+    private KeyValue count(final KeyValue keyValue) {
+        rowsRead++;
+        bytesRead += keyValue.getValue() == null ? 0 : keyValue.getValue().length;
+        return keyValue;
+    }
+
+    private Iterator<KeyValue> counting(final Iterator<KeyValue> iterator) {
+        return new Iterator<KeyValue>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public KeyValue next() {
+                return count(iterator.next());
+            }
+        };
+    }
+
+    private final class CountingResults implements QueryResultsIterator<KeyValue> {
+
+        private final QueryResultsIterator<KeyValue> results;
+
+        CountingResults(final QueryResultsIterator<KeyValue> results) {
+            this.results = results;
+        }
+
+        @Override
+        public Iterator<KeyValue> iterator() {
+            return counting(results.iterator());
+        }
+
+        @Override
+        public void close() {
+            PPETransfer.closeIterator(results);
+        }
+    }
+
+    private final class CountingPage implements QueryResultsIteratorWithMetadata<KeyValue> {
+
+        private final QueryResultsIteratorWithMetadata<KeyValue> results;
+
+        CountingPage(final QueryResultsIteratorWithMetadata<KeyValue> results) {
+            this.results = results;
+        }
+
+        @Override
+        public ChaincodeShim.QueryResponseMetadata getMetadata() {
+            return results.getMetadata();
+        }
+
+        @Override
+        public Iterator<KeyValue> iterator() {
+            return counting(results.iterator());
+        }
+
+        @Override
+        public void close() {
+            PPETransfer.closeIterator(results);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package ru.itmo.ppesmart;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Per-function metrics of the transactions executed by this chaincode process.
+ *
+ * <p>A transaction is counted when it starts. Latency and state access are recorded when it completes,
+ * a failed transaction only adds its error code: the contract API has no hook after a failure, so the
+ * code is taken from {@link PPETransfer#error} and the function from the context of the transaction running
+ * on the thread. The context is dropped when the transaction completes or turns out to be unknown, and
+ * replaced when the next transaction of the thread starts. An item failed in a PER_ITEM batch does not fail
+ * the transaction, the batch counts it as an item error of the function instead.
+ * The first completed transaction of the process is logged with its latency and the process uptime.
+ */
+final class ContractMetrics {
+
+    private static final Logger LOGGER = PPELogging.getLogger(ContractMetrics.class);
+
+    /**
+     * Upper bounds of the latency buckets are powers of two microseconds, the last bucket is unbounded
+     */
+    private static final int LATENCY_BUCKETS = 24;
+
+    private static final ConcurrentMap<String, FunctionMetrics> FUNCTIONS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<PPEContext> CURRENT = new ThreadLocal<>();
+
+    private static final AtomicBoolean FIRST_COMPLETED = new AtomicBoolean();
+
+    private ContractMetrics() {
+    }
+
+    /**
+     * Drops the context of the transaction running on the thread
+     */
+    static void reset() {
+        CURRENT.remove();
+    }
+
+    static void begin(final PPEContext ctx) {
+        ctx.startTimer();
+        CURRENT.set(ctx);
+        metrics(ctx.getFunction()).calls.increment();
+    }
+
+    static void end(final PPEContext ctx) {
+        CURRENT.remove();
+        FunctionMetrics metrics = metrics(ctx.getFunction());
+        long latencyMicros = TimeUnit.NANOSECONDS.toMicros(ctx.getElapsedNanos());
+        metrics.completed.increment();
+        metrics.latencyMicros.add(latencyMicros);
+        metrics.latencyBuckets[bucket(latencyMicros)].increment();
+        metrics.stateReads.add(ctx.getStateReads());
+        metrics.stateCacheHits.add(ctx.getStateCacheHits());
+        metrics.stateWrites.add(ctx.getStateWrites());
+        metrics.suppressedWrites.add(ctx.getSuppressedWrites());
+        metrics.bytesRead.add(ctx.getBytesRead());
+        metrics.bytesWritten.add(ctx.getBytesWritten());
+
+        if (FIRST_COMPLETED.compareAndSet(false, true)) {
+            long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+            LOGGER.info(() -> String.format("first transaction %s completed in %d us, %d ms after JVM start",
+                    ctx.getFunction(), latencyMicros, uptimeMillis));
+        }
+    }
+
+    static void error(final String errorCode) {
+        PPEContext ctx = CURRENT.get();
+        // the error of a PER_ITEM batch item is reported by the batch through itemError
+        if (ctx != null && ctx.isPerItem()) {
+            return;
+        }
+        FunctionMetrics metrics = metrics(ctx == null ? "unknown" : ctx.getFunction());
+        metrics.errors.increment();
+        metrics.errorsByCode.computeIfAbsent(errorCode, code -> new LongAdder()).increment();
+    }
+
+    /**
+     * Counts an item failed in a PER_ITEM batch, the transaction goes on
+     *
+     * @param ctx the transaction context
+     * @param errorCode code of the item error, null if the error has no code
+     */
+    static void itemError(final PPEContext ctx, final String errorCode) {
+        FunctionMetrics metrics = metrics(ctx.getFunction());
+        metrics.itemErrors.increment();
+        if (errorCode != null) {
+            metrics.itemErrorsByCode.computeIfAbsent(errorCode, code -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * @return metrics by function name, ready for JSON serialization
+     */
+    static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        for (Map.Entry<String, FunctionMetrics> function: FUNCTIONS.entrySet()) {
+            snapshot.put(function.getKey(), function.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    private static FunctionMetrics metrics(final String function) {
+        return FUNCTIONS.computeIfAbsent(function == null ? "unknown" : function, name -> new FunctionMetrics());
+    }
+
+    private static int bucket(final long latencyMicros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(latencyMicros);
+        return Math.min(bucket, LATENCY_BUCKETS - 1);
+    }
+
+    private static final class FunctionMetrics {
+
+        private final LongAdder calls = new LongAdder();
+
+        private final LongAdder completed = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder itemErrors = new LongAdder();
+
+        private final ConcurrentMap<String, LongAdder> errorsByCode = new ConcurrentHashMap<>();
+
+        private final ConcurrentMap<String, LongAdder> itemErrorsByCode = new ConcurrentHashMap<>();
+
+        private final LongAdder latencyMicros = new LongAdder();
+
+        private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS];
+
+        private final LongAdder stateReads = new LongAdder();
+
+        private final LongAdder stateCacheHits = new LongAdder();
+
+        private final LongAdder stateWrites = new LongAdder();
+
+        private final LongAdder suppressedWrites = new LongAdder();
+
+        private final LongAdder bytesRead = new LongAdder();
+
+        private final LongAdder bytesWritten = new LongAdder();
+
+        FunctionMetrics() {
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                latencyBuckets[i] = new LongAdder();
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            long completedCount = completed.sum();
+            snapshot.put("calls", calls.sum());
+            snapshot.put("completed", completedCount);
+            snapshot.put("errors", errors.sum());
+
+            snapshot.put("errorsByCode", counts(errorsByCode));
+            snapshot.put("itemErrors", itemErrors.sum());
+            snapshot.put("itemErrorsByCode", counts(itemErrorsByCode));
+
+            long[] buckets = new long[LATENCY_BUCKETS];
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                buckets[i] = latencyBuckets[i].sum();
+                if (buckets[i] > 0) {
+                    histogram.put(i == LATENCY_BUCKETS - 1 ? "inf" : "le" + ((1L << i) - 1) + "us", buckets[i]);
+                }
+            }
+            snapshot.put("meanLatencyMicros", completedCount == 0 ? 0 : latencyMicros.sum() / completedCount);
+            snapshot.put("p50LatencyMicros", quantile(buckets, completedCount, 0.50));
+            snapshot.put("p99LatencyMicros", quantile(buckets, completedCount, 0.99));
+            snapshot.put("latencyHistogram", histogram);
+
+            snapshot.put("stateReads", stateReads.sum());
+            snapshot.put("stateCacheHits", stateCacheHits.sum());
+            snapshot.put("stateWrites", stateWrites.sum());
+            snapshot.put("suppressedWrites", suppressedWrites.sum());
+            snapshot.put("bytesRead", bytesRead.sum());
+            snapshot.put("bytesWritten", bytesWritten.sum());
+            return snapshot;
+        }
+
+        private static Map<String, Long> counts(final ConcurrentMap<String, LongAdder> byCode) {
+            Map<String, Long> counts = new TreeMap<>();
+            byCode.forEach((code, count) -> counts.put(code, count.sum()));
+            return counts;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the quantile, -1 for the unbounded bucket
+         */
+        private static long quantile(final long[] buckets, final long count, final double quantile) {
+            long target = (long) Math.ceil(count * quantile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target && seen > 0) {
+                    return i == buckets.length - 1 ? -1 : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * History of a ppe stored under several keys, from the newest modification to the oldest one.
+ *
+ * <p>A ppe changes its record key when it moves to another subsidiary or out of the bare inventory number key.
+ * The move deletes the old key and writes the new one in the same transaction, so the delete marker of a move
+ * is dropped and the history reads as one sequence of values.
+ *
+ * <p>Modifications of different keys are ordered by the transaction timestamps, which are set by the clients
+ * and not by the ordering service, so a client with a skewed clock may put a modification before one committed
+ * earlier. The history of each key keeps its commit order. Modifications of the same time are ordered by
+ * transaction id, the same for every peer and every call, after the other modifications of the transaction
+ * last returned.
+ */
+final class MergedHistory implements Iterable<KeyModification>, AutoCloseable {
+
+    private final List<QueryResultsIterator<KeyModification>> histories;
+
+    MergedHistory(final List<QueryResultsIterator<KeyModification>> histories) {
+        this.histories = histories;
+    }
+
+    @Override
+    public Iterator<KeyModification> iterator() {
+        List<Iterator<KeyModification>> iterators = new ArrayList<>(histories.size());
+        for (QueryResultsIterator<KeyModification> history: histories) {
+            iterators.add(history.iterator());
+        }
+        return new Merge(iterators);
+    }
+
+    @Override
+    public void close() {
+        ChaincodeException failure = null;
+        for (QueryResultsIterator<KeyModification> history: histories) {
+            try {
+                PPETransfer.closeIterator(history);
+            } catch (ChaincodeException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static final class Merge implements Iterator<KeyModification> {
+
+        private final List<Iterator<KeyModification>> iterators;
+
+        private final KeyModification[] heads;
+
+        private KeyModification next;
+
+        private String lastTxId;
+
+        Merge(final List<Iterator<KeyModification>> iterators) {
+            this.iterators = iterators;
+            this.heads = new KeyModification[iterators.size()];
+            for (int i = 0; i < heads.length; i++) {
+                advance(i);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                int newest = newest();
+                if (newest < 0) {
+                    return false;
+                }
+                KeyModification head = heads[newest];
+                advance(newest);
+                if (head.isDeleted() && head.getTxId().equals(lastTxId)) {
+                    continue;
+                }
+                next = head;
+                lastTxId = head.getTxId();
+            }
+            return true;
+        }
+
+        @Override
+        public KeyModification next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            KeyModification result = next;
+            next = null;
+            return result;
+        }
+
+        /**
+         * Picks the newest head. Of the heads with the same time the transaction last returned goes first and
+         * its write goes before its delete, so that moves are recognised, then the greater transaction id
+         */
+        private int newest() {
+            int newest = -1;
+            for (int i = 0; i < heads.length; i++) {
+                if (heads[i] == null) {
+                    continue;
+                }
+                if (newest < 0) {
+                    newest = i;
+                    continue;
+                }
+                if (compare(heads[i], heads[newest]) > 0) {
+                    newest = i;
+                }
+            }
+            return newest;
+        }
+
+        private void advance(final int i) {
+            Iterator<KeyModification> iterator = iterators.get(i);
+            heads[i] = iterator.hasNext() ? iterator.next() : null;
+        }
+
+        private int compare(final KeyModification a, final KeyModification b) {
+            int order = compare(a.getTimestamp(), b.getTimestamp());
+            if (order != 0) {
+                return order;
+            }
+            order = Boolean.compare(a.getTxId().equals(lastTxId), b.getTxId().equals(lastTxId));
+            if (order != 0) {
+                return order;
+            }
+            order = a.getTxId().compareTo(b.getTxId());
+            if (order != 0) {
+                return order;
+            }
+            return Boolean.compare(b.isDeleted(), a.isDeleted());
+        }
+
+        private static int compare(final Instant a, final Instant b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+            return a.compareTo(b);
+        }
+    }
+}
@@ -8,6 +8,11 @@ import java.util.Objects;
 @DataType()
 public final class PPE {
 
+    /**
+     * Словарь названий организаций, общий для всех СИЗ процесса
+     */
+    static final StringDictionary SUBSIDIARIES = new StringDictionary(4096);
+
     /**
      * Инвентарный номер СИЗа
      */
@@ -36,11 +41,21 @@ public final class PPE {
      * Цена СИЗа
      */
     @Property()
-    private final Float price;
+    private final float price;
 
+    private final boolean hasPrice;
+
+    /**
+     * Статус СИЗа, для известного статуса это общий экземпляр его названия
+     */
     @Property()
     private final String status;
 
+    /**
+     * Известный статус, null для статуса в свободной форме
+     */
+    private final PPEStatus statusCode;
+
     /**
      * Дата поступления СИЗа в эксплуатацию
      */
@@ -52,14 +67,21 @@ public final class PPE {
      * Срок службы
      */
     @Property()
-    private final Integer lifeTime;
+    private final int lifeTime;
+
+    private final boolean hasLifeTime;
 
     /**
-     * Организация
+     * Организация, общий экземпляр названия из словаря организаций
      */
     @Property()
     private final String subsidiary;
 
+    /**
+     * Кэшированный хэш-код, 0 пока не вычислен
+     */
+    private int hash;
+
     public String getOwnerName() {
         return ownerName;
     }
@@ -77,7 +99,7 @@ public final class PPE {
     }
 
     public Float getPrice() {
-        return price;
+        return hasPrice ? price : null;
     }
 
     public String getInventoryNumber() {
@@ -89,29 +111,82 @@ public final class PPE {
     }
 
     public Integer getLifeTime() {
-        return lifeTime;
+        return hasLifeTime ? lifeTime : null;
     }
 
     public String getSubsidiary() {
         return subsidiary;
     }
 
+    boolean hasPrice() {
+        return hasPrice;
+    }
+
+    /**
+     * @return the price without boxing, 0 when the price is absent
+     */
+    float priceValue() {
+        return price;
+    }
+
+    boolean hasLifeTime() {
+        return hasLifeTime;
+    }
+
+    /**
+     * @return the life time without boxing, 0 when the life time is absent
+     */
+    int lifeTimeValue() {
+        return lifeTime;
+    }
+
+    /**
+     * @return the known status or null for a free-text status
+     */
+    PPEStatus statusCode() {
+        return statusCode;
+    }
+
     public PPE(@JsonProperty("ownerName") final String ownerName,
                @JsonProperty("ownerID") final String ownerID, @JsonProperty("name") final String name, @JsonProperty("status") final String status,
                @JsonProperty("price") final Float price, @JsonProperty("inventoryNumber") final String inventoryNumber,
                @JsonProperty("startUseDate") final String startUseDate, @JsonProperty("lifeTime") final Integer lifeTime,
                @JsonProperty("subsidiary") final String subsidiary) {
+        this(ownerName, ownerID, name, PPEStatus.of(status), status, price != null, price == null ? 0 : price,
+                inventoryNumber, startUseDate, lifeTime != null, lifeTime == null ? 0 : lifeTime,
+                SUBSIDIARIES.intern(subsidiary));
+    }
+
+    /**
+     * Creates ppe from decoded values without boxing
+     */
+    PPE(final String ownerName, final String ownerID, final String name, final PPEStatus statusCode,
+        final String status, final boolean hasPrice, final float price, final String inventoryNumber,
+        final String startUseDate, final boolean hasLifeTime, final int lifeTime, final String subsidiary) {
         this.ownerName = ownerName;
         this.ownerID = ownerID;
         this.name = name;
-        this.status = status;
+        this.statusCode = statusCode;
+        this.status = statusCode == null ? status : statusCode.name();
+        this.hasPrice = hasPrice;
         this.price = price;
         this.inventoryNumber = inventoryNumber;
         this.startUseDate = startUseDate;
+        this.hasLifeTime = hasLifeTime;
         this.lifeTime = lifeTime;
         this.subsidiary = subsidiary;
     }
 
+    /**
+     * @param newStatus status of the copy
+     * @param newSubsidiary subsidiary of the copy
+     * @return copy of the ppe with another status and subsidiary
+     */
+    PPE withStatus(final String newStatus, final String newSubsidiary) {
+        return new PPE(ownerName, ownerID, name, PPEStatus.of(newStatus), newStatus, hasPrice, price, inventoryNumber,
+                startUseDate, hasLifeTime, lifeTime, SUBSIDIARIES.intern(newSubsidiary));
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (this == obj) {
@@ -124,28 +199,43 @@ public final class PPE {
 
         PPE other = (PPE) obj;
 
-        return Objects.deepEquals(
-                new String[] {getOwnerName(), getOwnerID(), getName(), getStartUseDate(), getInventoryNumber()},
-                new String[] {other.getOwnerName(), other.getOwnerID(), other.getName(), other.getStartUseDate(), other.getInventoryNumber()})
-                &&
-                Objects.deepEquals(
-                new int[] {getLifeTime()},
-                new int[] {other.getLifeTime()});
+        return hashCode() == other.hashCode()
+                && hasPrice == other.hasPrice && Float.floatToIntBits(price) == Float.floatToIntBits(other.price)
+                && hasLifeTime == other.hasLifeTime && lifeTime == other.lifeTime
+                && Objects.equals(inventoryNumber, other.inventoryNumber)
+                && Objects.equals(ownerName, other.ownerName)
+                && Objects.equals(ownerID, other.ownerID)
+                && Objects.equals(name, other.name)
+                && Objects.equals(status, other.status)
+                && Objects.equals(startUseDate, other.startUseDate)
+                && Objects.equals(subsidiary, other.subsidiary);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getOwnerName(), getOwnerID(),
-                getName(), getStatus(), getPrice(), getInventoryNumber(),
-                getStartUseDate(), getLifeTime(), getSubsidiary());
+        int result = hash;
+        if (result == 0) {
+            // the same value as Objects.hash over the getters, without the varargs array and the boxing
+            result = 31 + Objects.hashCode(ownerName);
+            result = 31 * result + Objects.hashCode(ownerID);
+            result = 31 * result + Objects.hashCode(name);
+            result = 31 * result + Objects.hashCode(status);
+            result = 31 * result + (hasPrice ? Float.hashCode(price) : 0);
+            result = 31 * result + Objects.hashCode(inventoryNumber);
+            result = 31 * result + Objects.hashCode(startUseDate);
+            result = 31 * result + (hasLifeTime ? lifeTime : 0);
+            result = 31 * result + Objects.hashCode(subsidiary);
+            hash = result;
+        }
+        return result;
     }
 
     @Override
     public String toString() {
         return this.getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " [" +
                 ", ownerName = " + ownerName + ", ownerID = " + ownerID + ", subsidiary = " + subsidiary +
-                ", PPE name = " + name + ", price = " + price + ", inventory number = " + inventoryNumber +
+                ", PPE name = " + name + ", price = " + getPrice() + ", inventory number = " + inventoryNumber +
                 ", status = " + status + ", date of entry into service = " + startUseDate + ", lifeTime = "
-                + lifeTime + " month" +"]";
+                + getLifeTime() + " month" +"]";
     }
 }
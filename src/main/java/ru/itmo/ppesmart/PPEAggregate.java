@@ -0,0 +1,71 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import java.math.BigDecimal;
+
+@DataType()
+public final class PPEAggregate {
+
+    /**
+     * Измерение агрегата: организация или статус
+     */
+    @Property()
+    private final String dimension;
+
+    /**
+     * Значение измерения
+     */
+    @Property()
+    private final String value;
+
+    /**
+     * Количество СИЗ
+     */
+    @Property()
+    private long count;
+
+    /**
+     * Суммарная цена СИЗ
+     */
+    @Property()
+    private BigDecimal totalPrice = BigDecimal.ZERO;
+
+    /**
+     * Количество ещё не свёрнутых в контрольную точку изменений
+     */
+    @Property()
+    private long pendingDeltas;
+
+    PPEAggregate(final String dimension, final String value) {
+        this.dimension = dimension;
+        this.value = value;
+    }
+
+    void add(final long countDelta, final BigDecimal priceDelta, final long pending) {
+        count += countDelta;
+        totalPrice = totalPrice.add(priceDelta);
+        pendingDeltas += pending;
+    }
+
+    public String getDimension() {
+        return dimension;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigDecimal getTotalPrice() {
+        return totalPrice;
+    }
+
+    public long getPendingDeltas() {
+        return pendingDeltas;
+    }
+}
@@ -0,0 +1,284 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Conflict-free aggregates of PPE count and total price per subsidiary and per status.
+ *
+ * <p>Writers never read an aggregate: every write of a ppe adds a delta under a key unique to the
+ * transaction and the ppe, so concurrent transactions do not collide on a shared counter. Readers sum
+ * the checkpoint and the pending deltas; {@link #compact} folds deltas into the checkpoint.
+ *
+ * <p>A delta key starts with the UTC hour of the transaction timestamp. New deltas go to the current hour,
+ * so the compaction scans only the hours settled an hour ago, one hour per range query: the deltas of those
+ * hours come from transactions committed in earlier blocks, and writers do not add phantoms to its ranges.
+ */
+final class PPEAggregates {
+
+    /**
+     * Агрегаты по организации
+     */
+    static final String SUBSIDIARY = "subsidiary";
+
+    /**
+     * Агрегаты по статусу СИЗ
+     */
+    static final String STATUS = "status";
+
+    private static final String DELTA = "aggregate~delta";
+
+    private static final String CHECKPOINT = "aggregate~checkpoint";
+
+    /**
+     * Последний полностью свёрнутый час изменений по измерению
+     */
+    private static final String COMPACTED = "aggregate~compacted";
+
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("uuuuMMddHH").withZone(ZoneOffset.UTC);
+
+    /**
+     * Hours after the end of an hour before its deltas are compacted, a transaction endorsed within the hour
+     * is expected to be committed by then
+     */
+    private static final long SETTLE_HOURS = 1;
+
+    /**
+     * Hours, empty ones included, scanned by one compaction
+     */
+    private static final int MAX_COMPACTED_HOURS = 168;
+
+    private static final char SEPARATOR = ';';
+
+    private PPEAggregates() {
+    }
+
+    /**
+     * Checks the name of the aggregate dimension
+     *
+     * @param dimension name of the dimension
+     * @return true for a known dimension
+     */
+    static boolean isDimension(final String dimension) {
+        return SUBSIDIARY.equals(dimension) || STATUS.equals(dimension);
+    }
+
+    /**
+     * Writes the deltas caused by a write of ppe
+     *
+     * @param stub the chaincode stub
+     * @param oldPPE ppe stored on the ledger before the write, null for a new ppe
+     * @param newPPE ppe stored on the ledger after the write, null for a removed ppe
+     */
+    static void record(final ChaincodeStub stub, final PPE oldPPE, final PPE newPPE) {
+        String inventoryNumber = newPPE == null ? oldPPE.getInventoryNumber() : newPPE.getInventoryNumber();
+
+        recordDimension(stub, SUBSIDIARY, inventoryNumber,
+                oldPPE, oldPPE == null ? null : oldPPE.getSubsidiary(),
+                newPPE, newPPE == null ? null : newPPE.getSubsidiary());
+        recordDimension(stub, STATUS, inventoryNumber,
+                oldPPE, oldPPE == null ? null : oldPPE.getStatus(),
+                newPPE, newPPE == null ? null : newPPE.getStatus());
+    }
+
+    /**
+     * Sums the checkpoints and the pending deltas of a dimension
+     *
+     * @param stub the chaincode stub
+     * @param dimension name of the dimension
+     * @param value value of the dimension, empty for all values
+     * @return aggregates by the value of the dimension
+     */
+    static Map<String, PPEAggregate> read(final ChaincodeStub stub, final String dimension, final String value) {
+        Map<String, PPEAggregate> aggregates = new TreeMap<>();
+        boolean allValues = value == null || value.isEmpty();
+        String[] attributes = allValues ? new String[] {dimension} : new String[] {dimension, value};
+
+        QueryResultsIterator<KeyValue> checkpoints = stub.getStateByPartialCompositeKey(CHECKPOINT, attributes);
+        try {
+            for (KeyValue checkpoint: checkpoints) {
+                add(aggregates, dimension, stub.splitCompositeKey(checkpoint.getKey()).getAttributes().get(1),
+                        checkpoint.getValue(), false);
+            }
+        } finally {
+            PPETransfer.closeIterator(checkpoints);
+        }
+
+        // deltas are keyed by hour first, so the deltas of one value are picked out of the whole dimension
+        QueryResultsIterator<KeyValue> deltas = stub.getStateByPartialCompositeKey(DELTA, dimension);
+        try {
+            for (KeyValue delta: deltas) {
+                String deltaValue = stub.splitCompositeKey(delta.getKey()).getAttributes().get(2);
+                if (allValues || value.equals(deltaValue)) {
+                    add(aggregates, dimension, deltaValue, delta.getValue(), true);
+                }
+            }
+        } finally {
+            PPETransfer.closeIterator(deltas);
+        }
+
+        return aggregates;
+    }
+
+    /**
+     * Folds up to maxDeltas pending deltas of the settled hours of a dimension into the checkpoints, starting
+     * from the hour after the last fully compacted one. A concurrent compaction or a delta written by a client
+     * whose clock is behind by more than the settle time invalidates the transaction, which changes nothing
+     * then and is repeated; a delta landing in an hour already compacted stays pending and is still read.
+     * The first compaction of a dimension looks for its oldest hour over all its deltas,
+     * so a concurrent writer may invalidate it as well.
+     *
+     * @param stub the chaincode stub
+     * @param dimension name of the dimension
+     * @param maxDeltas maximum number of deltas folded by the call
+     * @return number of folded deltas
+     */
+    static int compact(final ChaincodeStub stub, final String dimension, final int maxDeltas) {
+        Instant settled = stub.getTxTimestamp().truncatedTo(ChronoUnit.HOURS).minus(SETTLE_HOURS, ChronoUnit.HOURS);
+        String cursorKey = stub.createCompositeKey(COMPACTED, dimension).toString();
+        byte[] cursor = stub.getState(cursorKey);
+        Instant hour = cursor == null || cursor.length == 0 ? oldestHour(stub, dimension)
+                : parseHour(new String(cursor, StandardCharsets.UTF_8)).plus(1, ChronoUnit.HOURS);
+
+        Map<String, PPEAggregate> folded = new TreeMap<>();
+        int count = 0;
+        Instant compacted = null;
+        for (int hours = 0; hour != null && hour.isBefore(settled) && hours < MAX_COMPACTED_HOURS; hours++) {
+            boolean drained = true;
+            QueryResultsIterator<KeyValue> deltas = stub.getStateByPartialCompositeKey(DELTA, dimension,
+                    HOUR_FORMAT.format(hour));
+            try {
+                for (KeyValue delta: deltas) {
+                    if (count == maxDeltas) {
+                        drained = false;
+                        break;
+                    }
+                    add(folded, dimension, stub.splitCompositeKey(delta.getKey()).getAttributes().get(2),
+                            delta.getValue(), false);
+                    stub.delState(delta.getKey());
+                    count++;
+                }
+            } finally {
+                PPETransfer.closeIterator(deltas);
+            }
+            if (!drained) {
+                break;
+            }
+            compacted = hour;
+            hour = hour.plus(1, ChronoUnit.HOURS);
+        }
+        if (compacted != null) {
+            stub.putState(cursorKey, HOUR_FORMAT.format(compacted).getBytes(StandardCharsets.UTF_8));
+        }
+
+        for (PPEAggregate aggregate: folded.values()) {
+            String checkpointKey = stub.createCompositeKey(CHECKPOINT, dimension, aggregate.getValue()).toString();
+            long total = aggregate.getCount();
+            BigDecimal totalPrice = aggregate.getTotalPrice();
+
+            byte[] checkpoint = stub.getState(checkpointKey);
+            if (checkpoint != null && checkpoint.length > 0) {
+                String[] parts = decode(checkpoint);
+                total += Long.parseLong(parts[0]);
+                totalPrice = totalPrice.add(new BigDecimal(parts[1]));
+            }
+
+            if (total == 0 && totalPrice.signum() == 0) {
+                stub.delState(checkpointKey);
+            } else {
+                stub.putState(checkpointKey, encode(total, totalPrice));
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Finds the hour of the oldest delta of the dimension before its first compaction
+     *
+     * @return the hour, null if the dimension has no deltas
+     */
+    private static Instant oldestHour(final ChaincodeStub stub, final String dimension) {
+        QueryResultsIterator<KeyValue> deltas = stub.getStateByPartialCompositeKey(DELTA, dimension);
+        try {
+            for (KeyValue delta: deltas) {
+                return parseHour(stub.splitCompositeKey(delta.getKey()).getAttributes().get(1));
+            }
+            return null;
+        } finally {
+            PPETransfer.closeIterator(deltas);
+        }
+    }
+
+    private static Instant parseHour(final String hour) {
+        return LocalDateTime.parse(hour, HOUR_FORMAT).toInstant(ZoneOffset.UTC);
+    }
+
+    private static void recordDimension(final ChaincodeStub stub, final String dimension, final String inventoryNumber,
+                                        final PPE oldPPE, final String oldValue,
+                                        final PPE newPPE, final String newValue) {
+        BigDecimal oldPrice = price(oldPPE);
+        BigDecimal newPrice = price(newPPE);
+
+        if (Objects.equals(oldValue, newValue)) {
+            if (isAggregated(newValue) && oldPrice.compareTo(newPrice) != 0) {
+                putDelta(stub, dimension, newValue, inventoryNumber, 0, newPrice.subtract(oldPrice));
+            }
+            return;
+        }
+        if (oldPPE != null && isAggregated(oldValue)) {
+            putDelta(stub, dimension, oldValue, inventoryNumber, -1, oldPrice.negate());
+        }
+        if (newPPE != null && isAggregated(newValue)) {
+            putDelta(stub, dimension, newValue, inventoryNumber, 1, newPrice);
+        }
+    }
+
+    private static void putDelta(final ChaincodeStub stub, final String dimension, final String value,
+                                 final String inventoryNumber, final long count, final BigDecimal price) {
+        CompositeKey key = stub.createCompositeKey(DELTA, dimension, HOUR_FORMAT.format(stub.getTxTimestamp()), value,
+                stub.getTxId(), inventoryNumber);
+        stub.putState(key.toString(), encode(count, price));
+    }
+
+    private static void add(final Map<String, PPEAggregate> aggregates, final String dimension, final String value,
+                            final byte[] encoded, final boolean pending) {
+        String[] parts = decode(encoded);
+        PPEAggregate aggregate = aggregates.computeIfAbsent(value, v -> new PPEAggregate(dimension, v));
+        aggregate.add(Long.parseLong(parts[0]), new BigDecimal(parts[1]), pending ? 1 : 0);
+    }
+
+    private static boolean isAggregated(final String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    private static BigDecimal price(final PPE ppe) {
+        if (ppe == null || !ppe.hasPrice()) {
+            return BigDecimal.ZERO;
+        }
+        return new BigDecimal(Float.toString(ppe.priceValue()));
+    }
+
+    private static byte[] encode(final long count, final BigDecimal price) {
+        return (count + String.valueOf(SEPARATOR) + price.toPlainString()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String[] decode(final byte[] value) {
+        String text = new String(value, StandardCharsets.UTF_8);
+        int separator = text.indexOf(SEPARATOR);
+        return new String[] {text.substring(0, separator), text.substring(separator + 1)};
+    }
+}
@@ -0,0 +1,215 @@
+package ru.itmo.ppesmart;
+
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorOutputStream;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Archive of retired PPE, the final state of a ppe kept after its record leaves the live key range.
+ *
+ * <p>The ppes retired by one transaction are compressed together into one chunk keyed by the month of the
+ * transaction and its ID, so concurrent retirements never write the same key and the chunks of a month form
+ * a single key range. A pointer per subsidiary and inventory number names the chunk and the position of the
+ * ppe in it. A chunk is the version byte followed by the LZ4 block of the count of ppes and their length-prefixed
+ * world-state values. The block is compressed by the pinned commons-compress in java rather than by the zlib of
+ * the JDK, so every endorsing peer writes the same bytes.
+ */
+final class PPEArchive {
+
+    /**
+     * Архивные записи списанных СИЗ по месяцу и транзакции
+     */
+    static final String CHUNK = "archive~yyyyMM~txId";
+
+    /**
+     * Положение последнего состояния СИЗ в архиве по инвентарному номеру и организации
+     */
+    static final String POINTER = "archived~inventoryNumber~subsidiary";
+
+    private static final byte VERSION_1 = 0x01;
+
+    private static final int INDEX_BYTES = Integer.BYTES;
+
+    private PPEArchive() {
+    }
+
+    /**
+     * Builds the key of the chunk of the transaction
+     *
+     * @param stub the chaincode stub
+     * @return composite key of the chunk
+     */
+    static String chunkKey(final ChaincodeStub stub) {
+        String month = stub.getTxTimestamp().atZone(ZoneOffset.UTC).format(PPEDates.MONTH_FORMAT);
+        return stub.createCompositeKey(CHUNK, month, stub.getTxId()).toString();
+    }
+
+    /**
+     * Points the inventory number of the subsidiary to the ppe in the chunk of the transaction
+     *
+     * @param stub the chaincode stub
+     * @param ppe the retired ppe
+     * @param index position of the ppe in the chunk
+     */
+    static void putPointer(final ChaincodeStub stub, final PPE ppe, final int index) {
+        byte[] chunkKey = chunkKey(stub).getBytes(StandardCharsets.UTF_8);
+        byte[] value = ByteBuffer.allocate(INDEX_BYTES + chunkKey.length).putInt(index).put(chunkKey).array();
+        stub.putState(pointerKey(stub, ppe.getInventoryNumber(), PPEKeys.partitionOf(ppe)), value);
+    }
+
+    /**
+     * Reads the pointers of the inventory number
+     *
+     * @param stub the chaincode stub
+     * @param inventoryNumber PPE inventory number
+     * @return pointers of the subsidiaries that retired a ppe with the inventory number
+     */
+    static List<KeyValue> pointers(final ChaincodeStub stub, final String inventoryNumber) {
+        List<KeyValue> pointers = new ArrayList<>();
+        QueryResultsIterator<KeyValue> results = stub.getStateByPartialCompositeKey(POINTER, inventoryNumber);
+        try {
+            for (KeyValue result: results) {
+                pointers.add(result);
+            }
+        } finally {
+            PPETransfer.closeIterator(results);
+        }
+        return pointers;
+    }
+
+    /**
+     * Reads the pointer of the inventory number of the subsidiary
+     *
+     * @param stub the chaincode stub
+     * @param subsidiary subsidiary that retired the ppe
+     * @param inventoryNumber PPE inventory number
+     * @return value of the pointer, null if the subsidiary retired no such ppe
+     */
+    static byte[] pointer(final ChaincodeStub stub, final String subsidiary, final String inventoryNumber) {
+        byte[] pointer = stub.getState(pointerKey(stub, inventoryNumber, subsidiary == null ? "" : subsidiary));
+        return pointer == null || pointer.length == 0 ? null : pointer;
+    }
+
+    /**
+     * @param stub the chaincode stub
+     * @param pointerKey key of a pointer
+     * @return subsidiary of the pointer
+     */
+    static String subsidiaryOf(final ChaincodeStub stub, final String pointerKey) {
+        CompositeKey key = stub.splitCompositeKey(pointerKey);
+        return key.getAttributes().get(1);
+    }
+
+    /**
+     * Reads the ppe the pointer names from its chunk
+     *
+     * @param stub the chaincode stub
+     * @param pointer value of the pointer
+     * @param codec codec of the world-state values
+     * @return the archived ppe
+     * @throws ChaincodeException PPE_NOT_FOUND if the chunk or the ppe in it is missing, ARCHIVE_CORRUPTED
+     * if the pointer or the chunk cannot be decoded
+     */
+    static PPE read(final ChaincodeStub stub, final byte[] pointer, final PPECodec codec) {
+        if (pointer.length < INDEX_BYTES) {
+            throw corrupted("archive pointer is truncated", null);
+        }
+        int index = ByteBuffer.wrap(pointer).getInt();
+        String chunkKey = new String(pointer, INDEX_BYTES, pointer.length - INDEX_BYTES, StandardCharsets.UTF_8);
+
+        byte[] chunk = stub.getState(chunkKey);
+        if (chunk == null || chunk.length == 0) {
+            String errorMessage = String.format("archive chunk %s does not exist", chunkKey);
+            throw PPETransfer.error(errorMessage, PPETransfer.PPETransferErrors.PPE_NOT_FOUND);
+        }
+        if (chunk[0] != VERSION_1) {
+            throw corrupted(String.format("archive chunk %s has unsupported version %d", chunkKey, chunk[0]), null);
+        }
+        try {
+            ByteBuffer values = ByteBuffer.wrap(decompress(chunk));
+            int count = values.getInt();
+            if (index < 0 || index >= count) {
+                String errorMessage = String.format("archive chunk %s holds %d ppes, no ppe %d", chunkKey, count, index);
+                throw PPETransfer.error(errorMessage, PPETransfer.PPETransferErrors.PPE_NOT_FOUND);
+            }
+            for (int i = 0; i < index; i++) {
+                values.position(values.position() + INDEX_BYTES + values.getInt(values.position()));
+            }
+            byte[] value = new byte[values.getInt()];
+            values.get(value);
+            return codec.decode(value);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                 | NegativeArraySizeException e) {
+            throw corrupted(String.format("archive chunk %s is corrupted", chunkKey), e);
+        }
+    }
+
+    /**
+     * Writes the chunk of the ppes retired by the transaction
+     *
+     * @param stub the chaincode stub
+     * @param retired the ppes in the order of their pointers
+     * @param codec codec of the world-state values
+     */
+    static void writeChunk(final ChaincodeStub stub, final List<PPE> retired, final PPECodec codec) {
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        writeInt(values, retired.size());
+        for (PPE ppe: retired) {
+            byte[] value = codec.encode(ppe);
+            writeInt(values, value.length);
+            values.write(value, 0, value.length);
+        }
+        stub.putState(chunkKey(stub), compress(values.toByteArray()));
+    }
+
+    private static String pointerKey(final ChaincodeStub stub, final String inventoryNumber, final String subsidiary) {
+        return stub.createCompositeKey(POINTER, inventoryNumber, subsidiary).toString();
+    }
+
+    private static void writeInt(final ByteArrayOutputStream out, final int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static byte[] compress(final byte[] values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(values.length / 2 + 16);
+        out.write(VERSION_1);
+        try (BlockLZ4CompressorOutputStream lz4 = new BlockLZ4CompressorOutputStream(out,
+                BlockLZ4CompressorOutputStream.createParameterBuilder().tunedForCompressionRatio().build())) {
+            lz4.write(values);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(final byte[] chunk) {
+        try (BlockLZ4CompressorInputStream lz4 = new BlockLZ4CompressorInputStream(
+                new ByteArrayInputStream(chunk, 1, chunk.length - 1))) {
+            return lz4.readAllBytes();
+        } catch (IOException e) {
+            throw corrupted("archive chunk is not an lz4 block", e);
+        }
+    }
+
+    private static ChaincodeException corrupted(final String errorMessage, final Throwable cause) {
+        return PPETransfer.error(errorMessage, PPETransfer.PPETransferErrors.ARCHIVE_CORRUPTED, cause);
+    }
+}
@@ -0,0 +1,157 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Items and results of the batch transactions
+ */
+public final class PPEBatch {
+
+    private PPEBatch() {
+    }
+
+    /**
+     * Обработка ошибок пакета
+     */
+    public enum Mode {
+        /**
+         * Первая ошибка отклоняет всю транзакцию
+         */
+        ATOMIC,
+        /**
+         * Ошибочные элементы пропускаются, результат каждого элемента возвращается клиенту
+         */
+        PER_ITEM
+    }
+
+    public static final class TransferItem {
+
+        private final String inventoryNumber;
+
+        private final String transferToSubsidiary;
+
+        private final String transferStatus;
+
+        public TransferItem(@JsonProperty("inventoryNumber") final String inventoryNumber,
+                            @JsonProperty("transferToSubsidiary") final String transferToSubsidiary,
+                            @JsonProperty("transferStatus") final String transferStatus) {
+            this.inventoryNumber = inventoryNumber;
+            this.transferToSubsidiary = transferToSubsidiary;
+            this.transferStatus = transferStatus;
+        }
+
+        public String getInventoryNumber() {
+            return inventoryNumber;
+        }
+
+        public String getTransferToSubsidiary() {
+            return transferToSubsidiary;
+        }
+
+        public String getTransferStatus() {
+            return transferStatus;
+        }
+    }
+
+    public static final class ApplyTransferItem {
+
+        private final String inventoryNumber;
+
+        private final String status;
+
+        public ApplyTransferItem(@JsonProperty("inventoryNumber") final String inventoryNumber,
+                                 @JsonProperty("status") final String status) {
+            this.inventoryNumber = inventoryNumber;
+            this.status = status;
+        }
+
+        public String getInventoryNumber() {
+            return inventoryNumber;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+    }
+
+    public static final class ItemResult {
+
+        private final String inventoryNumber;
+
+        private final String error;
+
+        private final String message;
+
+        /**
+         * Элемент записал состояние в реестр, false если запись СИЗ и входящие перемещения остались как были, null для ошибочного элемента
+         */
+        private final Boolean written;
+
+        ItemResult(final String inventoryNumber, final String error, final String message, final Boolean written) {
+            this.inventoryNumber = inventoryNumber;
+            this.error = error;
+            this.message = message;
+            this.written = written;
+        }
+
+        public String getInventoryNumber() {
+            return inventoryNumber;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public Boolean getWritten() {
+            return written;
+        }
+    }
+
+    public static final class Result {
+
+        private final Mode mode;
+
+        private int succeeded;
+
+        private int failed;
+
+        private final List<ItemResult> results = new ArrayList<>();
+
+        Result(final Mode mode) {
+            this.mode = mode;
+        }
+
+        void succeeded(final String inventoryNumber, final boolean written) {
+            succeeded++;
+            results.add(new ItemResult(inventoryNumber, null, null, written));
+        }
+
+        void failed(final String inventoryNumber, final String error, final String message) {
+            failed++;
+            results.add(new ItemResult(inventoryNumber, error, message, null));
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public List<ItemResult> getResults() {
+            return results;
+        }
+    }
+}
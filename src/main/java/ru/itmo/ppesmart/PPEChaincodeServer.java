@@ -0,0 +1,221 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.contract.ContractRouter;
+import org.hyperledger.fabric.shim.ChaincodeServer;
+import org.hyperledger.fabric.shim.ChaincodeServerProperties;
+import org.hyperledger.fabric.shim.NettyChaincodeServer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs the contract as an external chaincode service: the peer connects to this process instead of building
+ * and launching the chaincode container, so an upgrade only restarts the process.
+ *
+ * <p>The shim reads CORE_CHAINCODE_ID_NAME, CHAINCODE_SERVER_ADDRESS and the CHAINCODE_TLS_* variables itself.
+ * The optional variables below tune the server, an unset variable keeps the shim default:
+ * <ul>
+ *     <li>PPESMART_EXECUTOR_CORE_POOL_SIZE, PPESMART_EXECUTOR_MAX_POOL_SIZE - threads executing transactions</li>
+ *     <li>PPESMART_EXECUTOR_QUEUE_SIZE - transactions waiting for a thread, further ones are rejected</li>
+ *     <li>PPESMART_EXECUTOR_KEEP_ALIVE_MS - idle time before a thread above the core size stops</li>
+ *     <li>PPESMART_GRPC_MAX_INBOUND_MESSAGE_SIZE, PPESMART_GRPC_MAX_INBOUND_METADATA_SIZE - bytes</li>
+ *     <li>PPESMART_GRPC_MAX_CONNECTION_AGE_SECONDS - age after which the peer connection is renewed</li>
+ *     <li>PPESMART_WARMUP_ITERATIONS - rounds of the warm-up, 0 to skip it</li>
+ * </ul>
+ * The executor settings are also read by the shim from a config.props file on the class path,
+ * the environment takes precedence.
+ */
+public final class PPEChaincodeServer {
+
+    private static final Logger LOGGER = PPELogging.getLogger(PPEChaincodeServer.class);
+
+    private static final String CORE_POOL_SIZE_VARIABLE = "PPESMART_EXECUTOR_CORE_POOL_SIZE";
+
+    private static final String MAX_POOL_SIZE_VARIABLE = "PPESMART_EXECUTOR_MAX_POOL_SIZE";
+
+    private static final String QUEUE_SIZE_VARIABLE = "PPESMART_EXECUTOR_QUEUE_SIZE";
+
+    private static final String KEEP_ALIVE_VARIABLE = "PPESMART_EXECUTOR_KEEP_ALIVE_MS";
+
+    private static final String MAX_MESSAGE_SIZE_VARIABLE = "PPESMART_GRPC_MAX_INBOUND_MESSAGE_SIZE";
+
+    private static final String MAX_METADATA_SIZE_VARIABLE = "PPESMART_GRPC_MAX_INBOUND_METADATA_SIZE";
+
+    private static final String MAX_CONNECTION_AGE_VARIABLE = "PPESMART_GRPC_MAX_CONNECTION_AGE_SECONDS";
+
+    private static final String WARMUP_ITERATIONS_VARIABLE = "PPESMART_WARMUP_ITERATIONS";
+
+    /**
+     * Executor settings of the shim configuration
+     */
+    private static final String CORE_POOL_SIZE = "TP_CORE_POOL_SIZE";
+
+    private static final String MAX_POOL_SIZE = "TP_MAX_POOL_SIZE";
+
+    private static final String QUEUE_SIZE = "TP_QUEUE_SIZE";
+
+    private static final String KEEP_ALIVE = "TP_KEEP_ALIVE_MS";
+
+    /**
+     * Rounds of the warm-up by default, enough for the hot codec paths to be compiled
+     */
+    private static final int DEFAULT_WARMUP_ITERATIONS = 2000;
+
+    private PPEChaincodeServer() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        long startNanos = System.nanoTime();
+
+        ContractRouter router = new ContractRouter(args);
+        if (!router.isServer()) {
+            throw new IllegalStateException("CHAINCODE_SERVER_ADDRESS must be set to run the chaincode server");
+        }
+
+        // the shim builds the transaction executor of every peer connection from this configuration
+        Properties config = router.getChaincodeConfig();
+        configure(config, CORE_POOL_SIZE_VARIABLE, CORE_POOL_SIZE);
+        configure(config, MAX_POOL_SIZE_VARIABLE, MAX_POOL_SIZE);
+        configure(config, QUEUE_SIZE_VARIABLE, QUEUE_SIZE);
+        configure(config, KEEP_ALIVE_VARIABLE, KEEP_ALIVE);
+        if (config.containsKey(CORE_POOL_SIZE) && config.containsKey(MAX_POOL_SIZE)
+                && Integer.parseInt(config.getProperty(CORE_POOL_SIZE))
+                > Integer.parseInt(config.getProperty(MAX_POOL_SIZE))) {
+            throw new IllegalArgumentException(String.format("%s must not exceed %s",
+                    CORE_POOL_SIZE_VARIABLE, MAX_POOL_SIZE_VARIABLE));
+        }
+
+        ChaincodeServerProperties serverProperties = router.getChaincodeServerConfig();
+        Integer maxMessageSize = readPositive(MAX_MESSAGE_SIZE_VARIABLE);
+        if (maxMessageSize != null) {
+            serverProperties.setMaxInboundMessageSize(maxMessageSize);
+        }
+        Integer maxMetadataSize = readPositive(MAX_METADATA_SIZE_VARIABLE);
+        if (maxMetadataSize != null) {
+            serverProperties.setMaxInboundMetadataSize(maxMetadataSize);
+        }
+        Integer maxConnectionAge = readPositive(MAX_CONNECTION_AGE_VARIABLE);
+        if (maxConnectionAge != null) {
+            serverProperties.setMaxConnectionAgeSeconds(maxConnectionAge);
+        }
+        serverProperties.validate();
+
+        Integer warmUpIterations = readNonNegative(WARMUP_ITERATIONS_VARIABLE);
+        ChaincodeServer server = new WarmedUpServer(new NettyChaincodeServer(router, serverProperties),
+                warmUpIterations == null ? DEFAULT_WARMUP_ITERATIONS : warmUpIterations, startNanos);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "ppesmart-shutdown"));
+
+        LOGGER.info(() -> String.format("executor core %s, max %s, queue %s, keep alive %s ms; "
+                        + "max inbound message %d bytes, metadata %d bytes, connection age %d s",
+                config.getProperty(CORE_POOL_SIZE, "default"), config.getProperty(MAX_POOL_SIZE, "default"),
+                config.getProperty(QUEUE_SIZE, "default"), config.getProperty(KEEP_ALIVE, "default"),
+                serverProperties.getMaxInboundMessageSize(), serverProperties.getMaxInboundMetadataSize(),
+                serverProperties.getMaxConnectionAgeSeconds()));
+
+        // the router discovers the contracts and then starts the server, which blocks until shutdown
+        router.startRouterWithChaincodeServer(server);
+    }
+
+    /**
+     * Primes the converters of the contract's Genson instance and compiles the codec paths of the transactions
+     *
+     * @param iterations rounds of the warm-up
+     */
+    static void warmUp(final int iterations) {
+        PPE ppe = new PPE("Warm Up", "000000", "warm-up", "IN_USE", 1.0f, "WARM-UP", "2021-01-01", 12, "warm-up");
+        PPEFilter filter = new PPEFilter("warm-up", "IN_USE", null, 0.0f, null);
+        String[] fields = {"inventoryNumber", "status"};
+        String transferJSON = "[{\"inventoryNumber\":\"WARM-UP\",\"transferToSubsidiary\":\"warm-up\","
+                + "\"transferStatus\":\"TRANSFER\"}]";
+        String applyJSON = "[{\"inventoryNumber\":\"WARM-UP\",\"status\":\"IN_USE\"}]";
+        StringBuilder out = new StringBuilder();
+
+        for (int i = 0; i < iterations; i++) {
+            String ppeJSON = PPETransfer.GENSON.serialize(ppe);
+            PPETransfer.GENSON.deserialize("[" + ppeJSON + "]", PPE[].class);
+            PPETransfer.GENSON.deserialize(transferJSON, PPEBatch.TransferItem[].class);
+            PPETransfer.GENSON.deserialize(applyJSON, PPEBatch.ApplyTransferItem[].class);
+            PPETransfer.GENSON.serialize(new PPEChangeEvent("warm-up",
+                    Collections.singletonList(new PPEChangeEvent.Change("WARM-UP", "warm-up", ppe)),
+                    Collections.emptyList()));
+
+            byte[] value = PPETransfer.CODEC.encode(PPETransfer.GENSON.deserialize(ppeJSON, PPE.class));
+            PPETransfer.CODEC.decode(value);
+            out.setLength(0);
+            out.append(PPETransfer.CODEC.toJSON(value));
+            new PPEProjection(PPETransfer.CODEC, fields, filter).append("WARM-UP", value, out);
+        }
+    }
+
+    private static void configure(final Properties config, final String variable, final String property) {
+        Integer value = readPositive(variable);
+        if (value != null) {
+            config.setProperty(property, value.toString());
+        }
+    }
+
+    private static Integer readPositive(final String variable) {
+        Integer value = readNonNegative(variable);
+        if (value != null && value == 0) {
+            throw new IllegalArgumentException(String.format("%s must be positive", variable));
+        }
+        return value;
+    }
+
+    private static Integer readNonNegative(final String variable) {
+        String value = System.getenv(variable);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(String.format("%s must be a non-negative integer, got %s", variable, value));
+    }
+
+    /**
+     * Runs the warm-up after the contracts are discovered and before the server accepts connections
+     */
+    private static final class WarmedUpServer implements ChaincodeServer {
+
+        private final ChaincodeServer server;
+
+        private final int warmUpIterations;
+
+        private final long startNanos;
+
+        WarmedUpServer(final ChaincodeServer server, final int warmUpIterations, final long startNanos) {
+            this.server = server;
+            this.warmUpIterations = warmUpIterations;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void start() throws IOException, InterruptedException {
+            long discoveredNanos = System.nanoTime();
+            warmUp(warmUpIterations);
+            long warmedUpNanos = System.nanoTime();
+
+            long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+            LOGGER.info(() -> String.format("chaincode server starts %d ms after JVM start: "
+                            + "router and contract discovery %d ms, warm-up of %d iterations %d ms",
+                    uptimeMillis, TimeUnit.NANOSECONDS.toMillis(discoveredNanos - startNanos),
+                    warmUpIterations, TimeUnit.NANOSECONDS.toMillis(warmedUpNanos - discoveredNanos)));
+            server.start();
+        }
+
+        @Override
+        public void stop() {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ru.itmo.ppesmart;
+
+import java.util.List;
+
+/**
+ * Payload of the chaincode event emitted once by every submit transaction that has changed or tried to change
+ * ppe records.
+ *
+ * <p>A change names the record by subsidiary and inventory number and carries its new state, a record removed
+ * from a subsidiary, by a delete or by a move to another subsidiary, has no value. A write that would leave
+ * the record as it is writes nothing, its inventory number is listed as unchanged instead.
+ */
+public final class PPEChangeEvent {
+
+    /**
+     * Имя события изменения СИЗ
+     */
+    public static final String NAME = "PPEChanged";
+
+    private final String txId;
+
+    private final List<Change> changes;
+
+    private final List<String> unchanged;
+
+    PPEChangeEvent(final String txId, final List<Change> changes, final List<String> unchanged) {
+        this.txId = txId;
+        this.changes = changes;
+        this.unchanged = unchanged;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public List<String> getUnchanged() {
+        return unchanged;
+    }
+
+    public static final class Change {
+
+        private final String inventoryNumber;
+
+        private final String subsidiary;
+
+        private final PPE value;
+
+        Change(final String inventoryNumber, final String subsidiary, final PPE value) {
+            this.inventoryNumber = inventoryNumber;
+            this.subsidiary = subsidiary;
+            this.value = value;
+        }
+
+        public String getInventoryNumber() {
+            return inventoryNumber;
+        }
+
+        public String getSubsidiary() {
+            return subsidiary;
+        }
+
+        public PPE getValue() {
+            return value;
+        }
+    }
+}
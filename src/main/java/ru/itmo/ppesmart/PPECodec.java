@@ -0,0 +1,338 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.Genson;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Compact versioned binary encoding of PPE world-state values.
+ *
+ * <p>Layout: the version byte, then the fields in a fixed order. A string is a varint of its UTF-8 length
+ * plus one followed by the bytes, zero stands for null. The price is a presence byte and four bytes of the
+ * float bits, the life time is a presence byte and a zigzag varint. A known status is its {@link PPEStatus}
+ * code byte, the code 0 is followed by the status as a string. The start date is a tag byte followed by
+ * a zigzag varint epoch day for an ISO date or by a string for any other value.
+ *
+ * <p>Values written before the codec are Genson JSON objects, they are recognized by the leading
+ * {@code '{'} and stay readable. Which format is written is set by the {@code PPESMART_STATE_FORMAT}
+ * environment variable: {@code binary} (default) rewrites each legacy record on its next write,
+ * {@code json} keeps writing JSON and leaves the ledger unmigrated.
+ */
+final class PPECodec {
+
+    static final byte VERSION = 0x01;
+
+    static final int STATUS_TEXT = 0;
+
+    static final int DATE_ABSENT = 0;
+
+    static final int DATE_EPOCH_DAY = 1;
+
+    static final int DATE_STRING = 2;
+
+    static final byte JSON_OBJECT_START = '{';
+
+    private static final String STATE_FORMAT_VARIABLE = "PPESMART_STATE_FORMAT";
+
+    private final Genson genson;
+
+    private final boolean writeBinary;
+
+    PPECodec(final Genson genson) {
+        this(genson, !"json".equalsIgnoreCase(System.getenv(STATE_FORMAT_VARIABLE)));
+    }
+
+    PPECodec(final Genson genson, final boolean writeBinary) {
+        this.genson = genson;
+        this.writeBinary = writeBinary;
+    }
+
+    /**
+     * Encodes ppe into the world-state value in the configured format
+     *
+     * @param ppe the ppe to store
+     * @return the world-state value
+     */
+    byte[] encode(final PPE ppe) {
+        if (!writeBinary) {
+            return genson.serialize(ppe).getBytes(StandardCharsets.UTF_8);
+        }
+        return encodeBinary(ppe);
+    }
+
+    /**
+     * Brings the world-state value to the binary layout, legacy JSON values are converted
+     *
+     * @param value the world-state value
+     * @return the value as stored for a binary value, the legacy JSON re-encoded
+     */
+    byte[] toBinary(final byte[] value) {
+        if (value[0] == JSON_OBJECT_START) {
+            // no streaming JSON reader on purpose: legacy values only wait for the migration, so they take
+            // the full decode and re-encode instead of a second projection path
+            return encodeBinary(decode(value));
+        }
+        checkVersion(value[0]);
+        return value;
+    }
+
+    private byte[] encodeBinary(final PPE ppe) {
+        Writer writer = new Writer();
+        writer.writeByte(VERSION);
+        writer.writeString(ppe.getInventoryNumber());
+        writer.writeString(ppe.getOwnerName());
+        writer.writeString(ppe.getOwnerID());
+        writer.writeString(ppe.getName());
+        writer.writeFloat(ppe.hasPrice(), ppe.priceValue());
+        writer.writeStatus(ppe.statusCode(), ppe.getStatus());
+        writer.writeDate(ppe.getStartUseDate());
+        writer.writeInteger(ppe.hasLifeTime(), ppe.lifeTimeValue());
+        writer.writeString(ppe.getSubsidiary());
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decodes the world-state value of any supported format
+     *
+     * @param value the world-state value
+     * @return the stored ppe or null for an absent value
+     */
+    PPE decode(final byte[] value) {
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        if (value[0] == JSON_OBJECT_START) {
+            return genson.deserialize(new String(value, StandardCharsets.UTF_8), PPE.class);
+        }
+        checkVersion(value[0]);
+
+        Reader reader = new Reader(value, 1);
+        String inventoryNumber = reader.readString();
+        String ownerName = reader.readString();
+        String ownerID = reader.readString();
+        String name = reader.readString();
+        boolean hasPrice = reader.readByte() != 0;
+        float price = hasPrice ? Float.intBitsToFloat(reader.readFloatBits()) : 0;
+        int code = reader.readByte();
+        PPEStatus statusCode = code == STATUS_TEXT ? null : PPEStatus.ofCode(code);
+        String status = statusCode == null ? reader.readString() : null;
+        String startUseDate = reader.readDate();
+        boolean hasLifeTime = reader.readByte() != 0;
+        int lifeTime = hasLifeTime ? reader.readZigZag() : 0;
+        String subsidiary = reader.readString(PPE.SUBSIDIARIES);
+
+        return new PPE(ownerName, ownerID, name, statusCode, status, hasPrice, price, inventoryNumber, startUseDate,
+                hasLifeTime, lifeTime, subsidiary);
+    }
+
+    /**
+     * Converts the world-state value into the client-facing JSON, legacy JSON values are returned as is
+     *
+     * @param value the world-state value
+     * @return JSON of the stored ppe or null for an absent value
+     */
+    String toJSON(final byte[] value) {
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        if (value[0] == JSON_OBJECT_START) {
+            return new String(value, StandardCharsets.UTF_8);
+        }
+        return genson.serialize(decode(value));
+    }
+
+    private static void checkVersion(final byte version) {
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported PPE encoding version " + version);
+        }
+    }
+
+    private static final class Writer {
+
+        private byte[] buffer = new byte[128];
+
+        private int size;
+
+        void writeByte(final int b) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void writeVarInt(final int value) {
+            ensureCapacity(5);
+            int remaining = value;
+            while ((remaining & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            buffer[size++] = (byte) remaining;
+        }
+
+        void writeString(final String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeFloat(final boolean present, final float value) {
+            if (!present) {
+                writeByte(0);
+                return;
+            }
+            writeByte(1);
+            int bits = Float.floatToIntBits(value);
+            ensureCapacity(4);
+            buffer[size++] = (byte) (bits >>> 24);
+            buffer[size++] = (byte) (bits >>> 16);
+            buffer[size++] = (byte) (bits >>> 8);
+            buffer[size++] = (byte) bits;
+        }
+
+        void writeDate(final String value) {
+            if (value == null) {
+                writeByte(DATE_ABSENT);
+                return;
+            }
+            Long epochDay = PPEDates.toEpochDay(value);
+            if (epochDay == null) {
+                writeByte(DATE_STRING);
+                writeString(value);
+                return;
+            }
+            int day = Math.toIntExact(epochDay);
+            writeByte(DATE_EPOCH_DAY);
+            writeVarInt((day << 1) ^ (day >> 31));
+        }
+
+        void writeStatus(final PPEStatus statusCode, final String status) {
+            if (statusCode == null) {
+                writeByte(STATUS_TEXT);
+                writeString(status);
+                return;
+            }
+            writeByte(statusCode.code());
+        }
+
+        void writeInteger(final boolean present, final int value) {
+            if (!present) {
+                writeByte(0);
+                return;
+            }
+            writeByte(1);
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(final int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * Sequential reader of the binary layout
+     */
+    static final class Reader {
+
+        private final byte[] buffer;
+
+        private int position;
+
+        Reader(final byte[] buffer, final int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        int readByte() {
+            if (position >= buffer.length) {
+                throw new IllegalArgumentException("truncated PPE value");
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("malformed varint in PPE value");
+        }
+
+        int position() {
+            return position;
+        }
+
+        void skip(final int length) {
+            if (length < 0 || position + length > buffer.length) {
+                throw new IllegalArgumentException("truncated PPE value");
+            }
+            position += length;
+        }
+
+        String readString() {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (position + length > buffer.length) {
+                throw new IllegalArgumentException("truncated PPE value");
+            }
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        /**
+         * Reads a string repeated across ppes, a value known to the dictionary is returned without decoding
+         */
+        String readString(final StringDictionary dictionary) {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (position + length > buffer.length) {
+                throw new IllegalArgumentException("truncated PPE value");
+            }
+            String value = dictionary.lookup(buffer, position, length);
+            position += length;
+            return value;
+        }
+
+        int readFloatBits() {
+            return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        }
+
+        String readDate() {
+            int tag = readByte();
+            if (tag == DATE_ABSENT) {
+                return null;
+            }
+            if (tag == DATE_STRING) {
+                return readString();
+            }
+            return LocalDate.ofEpochDay(readZigZag()).toString();
+        }
+
+        int readZigZag() {
+            int zigzag = readVarInt();
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+}
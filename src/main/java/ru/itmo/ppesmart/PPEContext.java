@@ -0,0 +1,180 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transaction context of the ppe contract with the transaction-scoped state cache and the ppe changes
+ * of the transaction
+ */
+public class PPEContext extends Context {
+
+    private final CachingChaincodeStub cachingStub;
+
+    private final Map<String, PPEChangeEvent.Change> changes = new LinkedHashMap<>();
+
+    private final Map<String, String> unchanged = new LinkedHashMap<>();
+
+    private final List<PPE> retired = new ArrayList<>();
+
+    private long startNanos;
+
+    private int suppressedWrites;
+
+    private boolean perItem;
+
+    public PPEContext(final ChaincodeStub stub) {
+        this(new CachingChaincodeStub(stub));
+    }
+
+    private PPEContext(final CachingChaincodeStub cachingStub) {
+        super(cachingStub);
+        this.cachingStub = cachingStub;
+    }
+
+    /**
+     * @return name of the invoked transaction function
+     */
+    public String getFunction() {
+        return cachingStub.getFunction();
+    }
+
+    /**
+     * Records the latest state of a ppe record written by the transaction
+     *
+     * @param recordKey key of the record
+     * @param inventoryNumber PPE inventory number
+     * @param subsidiary subsidiary of the record
+     * @param value state of the record after the write, null when the record is removed
+     */
+    void recordChange(final String recordKey, final String inventoryNumber, final String subsidiary, final PPE value) {
+        changes.put(recordKey, new PPEChangeEvent.Change(inventoryNumber, subsidiary, value));
+    }
+
+    /**
+     * @return the latest change of every ppe record written by the transaction, in the order of the first write
+     */
+    List<PPEChangeEvent.Change> getChanges() {
+        return new ArrayList<>(changes.values());
+    }
+
+    /**
+     * Adds the final state of a retired ppe to the archive chunk of the transaction
+     *
+     * @param ppe the retired ppe
+     * @return position of the ppe in the chunk
+     */
+    int retire(final PPE ppe) {
+        retired.add(ppe);
+        return retired.size() - 1;
+    }
+
+    /**
+     * @return ppes retired by the transaction, in the order of their positions in the archive chunk
+     */
+    List<PPE> getRetired() {
+        return retired;
+    }
+
+    /**
+     * Counts a ppe write skipped because the record already holds the same bytes
+     *
+     * @param recordKey key of the record
+     * @param inventoryNumber PPE inventory number
+     */
+    void suppressWrite(final String recordKey, final String inventoryNumber) {
+        suppressedWrites++;
+        unchanged.put(recordKey, inventoryNumber);
+    }
+
+    /**
+     * @return inventory numbers of the ppes whose writes were all skipped, the record left as it was
+     */
+    List<String> getUnchanged() {
+        List<String> inventoryNumbers = new ArrayList<>();
+        for (Map.Entry<String, String> entry: unchanged.entrySet()) {
+            if (!changes.containsKey(entry.getKey())) {
+                inventoryNumbers.add(entry.getValue());
+            }
+        }
+        return inventoryNumbers;
+    }
+
+    /**
+     * @return number of ppe writes of the transaction skipped as no-ops
+     */
+    public int getSuppressedWrites() {
+        return suppressedWrites;
+    }
+
+    /**
+     * Marks the items of a PER_ITEM batch, an error raised by such an item fails only the item
+     *
+     * @param perItem true while the items of a PER_ITEM batch run
+     */
+    void setPerItem(final boolean perItem) {
+        this.perItem = perItem;
+    }
+
+    boolean isPerItem() {
+        return perItem;
+    }
+
+    void startTimer() {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return nanoseconds since the start of the transaction
+     */
+    long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return number of state reads of the transaction served from the cache
+     */
+    public int getStateCacheHits() {
+        return cachingStub.getHits();
+    }
+
+    /**
+     * @return number of state reads of the transaction sent to the peer
+     */
+    public int getStateCacheMisses() {
+        return cachingStub.getMisses();
+    }
+
+    /**
+     * @return number of state reads of the transaction sent to the peer, including rows of range queries
+     */
+    public int getStateReads() {
+        return cachingStub.getMisses() + cachingStub.getRowsRead();
+    }
+
+    /**
+     * @return number of state writes and deletes of the transaction
+     */
+    public int getStateWrites() {
+        return cachingStub.getWrites();
+    }
+
+    /**
+     * @return bytes of state values received from the peer
+     */
+    public long getBytesRead() {
+        return cachingStub.getBytesRead();
+    }
+
+    /**
+     * @return bytes of state values sent to the peer
+     */
+    public long getBytesWritten() {
+        return cachingStub.getBytesWritten();
+    }
+}
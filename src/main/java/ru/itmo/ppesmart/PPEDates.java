@@ -0,0 +1,121 @@
+package ru.itmo.ppesmart;
+
+import java.text.ParsePosition;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
+/**
+ * Normalization of the PPE start date and the end-of-life month derived from it
+ */
+final class PPEDates {
+
+    private static final DateTimeFormatter[] DATE_FORMATS = {
+            DateTimeFormatter.ISO_LOCAL_DATE.withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("dd.MM.uuuu").withResolverStyle(ResolverStyle.STRICT)
+    };
+
+    static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private PPEDates() {
+    }
+
+    /**
+     * Parses the start date in ISO (2021-03-01), russian (01.03.2021) or ISO date-time form
+     *
+     * @param date the start date as sent by the client
+     * @return the date or null if the value is not a recognized date
+     */
+    static LocalDate parse(final String date) {
+        if (date == null || date.isEmpty()) {
+            return null;
+        }
+        for (DateTimeFormatter format: DATE_FORMATS) {
+            try {
+                return LocalDate.parse(date, format);
+            } catch (DateTimeParseException e) {
+                // try the next format
+            }
+        }
+        try {
+            return OffsetDateTime.parse(date).toLocalDate();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Brings a recognized start date to the ISO form, unrecognized values are kept as is
+     *
+     * @param date the start date as sent by the client
+     * @return the normalized start date
+     * @throws IllegalArgumentException if the value has the form of a date but names no such day, like 31.02.2021
+     */
+    static String normalize(final String date) {
+        LocalDate parsed = parse(date);
+        if (parsed == null && hasDateForm(date)) {
+            throw new IllegalArgumentException(String.format("start date %s is not a valid date", date));
+        }
+        return parsed == null ? date : parsed.toString();
+    }
+
+    private static boolean hasDateForm(final String date) {
+        if (date == null || date.isEmpty()) {
+            return false;
+        }
+        for (DateTimeFormatter format: DATE_FORMATS) {
+            ParsePosition position = new ParsePosition(0);
+            if (format.parseUnresolved(date, position) != null && position.getIndex() == date.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the start date is already in the ISO form, which the codec stores as an epoch day
+     *
+     * @param date the stored start date
+     * @return the epoch day or null for any other value
+     */
+    static Long toEpochDay(final String date) {
+        if (date == null || date.length() != 10) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(date, DateTimeFormatter.ISO_LOCAL_DATE).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param ppe the ppe
+     * @return month when the life time of ppe ends as yyyyMM or null if the start date or life time is unknown
+     */
+    static String expiryMonth(final PPE ppe) {
+        LocalDate start = parse(ppe.getStartUseDate());
+        if (start == null || !ppe.hasLifeTime()) {
+            return null;
+        }
+        return YearMonth.from(start).plusMonths(ppe.lifeTimeValue()).format(MONTH_FORMAT);
+    }
+
+    /**
+     * @param month month as yyyyMM
+     * @return the month or null if the value is malformed
+     */
+    static YearMonth parseMonth(final String month) {
+        if (month == null) {
+            return null;
+        }
+        try {
+            return YearMonth.parse(month, MONTH_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.Genson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * One size-bounded chunk of the bulk export of ppes.
+ *
+ * <p>The {@code ndjson} layout writes every ppe as its JSON object on a line of its own. The {@code columns}
+ * layout writes one JSON object with an array of values per field, so the field names are written once and
+ * similar values stand together for the compression. The {@code +gzip} suffix gzips the data and wraps it
+ * in base64. The size limit applies to the data as the response writes it, in a JSON string with its escapes,
+ * or to the data before the compression with {@code +gzip}. The SHA-256 checksum applies to the data before
+ * the compression.
+ */
+final class PPEExport {
+
+    static final String NDJSON = "ndjson";
+
+    static final String COLUMNS = "columns";
+
+    static final String GZIP_SUFFIX = "+gzip";
+
+    /**
+     * Fields of the columns layout in the order Genson writes the properties of ppe
+     */
+    private static final String[] FIELDS = {
+        "inventoryNumber", "lifeTime", "name", "ownerID", "ownerName", "price", "startUseDate", "status", "subsidiary"
+    };
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final PPECodec codec;
+
+    private final Genson genson;
+
+    private final String format;
+
+    private final boolean columns;
+
+    private final boolean gzip;
+
+    private final int maxBytes;
+
+    private final StringBuilder data = new StringBuilder();
+
+    private final StringBuilder[] columnValues;
+
+    private final String[] row;
+
+    private int size;
+
+    private int count;
+
+    /**
+     * @param codec codec of the world-state values
+     * @param genson Genson writing the values of the columns layout
+     * @param format layout, ndjson or columns, optionally followed by +gzip; empty for ndjson
+     * @param maxBytes upper bound for the UTF-8 bytes of the escaped data, of the data before the compression for gzip
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    PPEExport(final PPECodec codec, final Genson genson, final String format, final int maxBytes) {
+        String layout = format == null || format.isEmpty() ? NDJSON : format;
+        this.gzip = layout.endsWith(GZIP_SUFFIX);
+        if (gzip) {
+            layout = layout.substring(0, layout.length() - GZIP_SUFFIX.length());
+        }
+        if (!NDJSON.equals(layout) && !COLUMNS.equals(layout)) {
+            throw new IllegalArgumentException(String.format("export format must be %s or %s, optionally with %s",
+                    NDJSON, COLUMNS, GZIP_SUFFIX));
+        }
+        this.codec = codec;
+        this.genson = genson;
+        this.format = layout + (gzip ? GZIP_SUFFIX : "");
+        this.columns = COLUMNS.equals(layout);
+        this.maxBytes = maxBytes;
+
+        if (columns) {
+            columnValues = new StringBuilder[FIELDS.length];
+            row = new String[FIELDS.length];
+            // {"field":[],...} around the values
+            StringBuilder frame = new StringBuilder("{");
+            for (int i = 0; i < FIELDS.length; i++) {
+                columnValues[i] = new StringBuilder();
+                frame.append(i > 0 ? "," : "").append('"').append(FIELDS[i]).append("\":[]");
+            }
+            size = length(frame.append('}').toString());
+        } else {
+            columnValues = null;
+            row = null;
+        }
+    }
+
+    /**
+     * Adds the ppe to the chunk unless the chunk would outgrow the limit. The first ppe is always added,
+     * so that every chunk makes progress.
+     *
+     * @param storedValue the world-state value
+     * @return false if the chunk is full and the ppe is left for the next chunk
+     */
+    boolean add(final byte[] storedValue) {
+        if (columns) {
+            return addRow(storedValue);
+        }
+        String ppeJSON = codec.toJSON(storedValue);
+        if (ppeJSON == null) {
+            return true;
+        }
+        int length = length(ppeJSON) + length("\n");
+        if (count > 0 && size + length > maxBytes) {
+            return false;
+        }
+        data.append(ppeJSON).append('\n');
+        size += length;
+        count++;
+        return true;
+    }
+
+    private boolean addRow(final byte[] storedValue) {
+        PPE ppe = codec.decode(storedValue);
+        if (ppe == null) {
+            return true;
+        }
+        row[0] = genson.serialize(ppe.getInventoryNumber());
+        row[1] = ppe.hasLifeTime() ? Integer.toString(ppe.lifeTimeValue()) : "null";
+        row[2] = genson.serialize(ppe.getName());
+        row[3] = genson.serialize(ppe.getOwnerID());
+        row[4] = genson.serialize(ppe.getOwnerName());
+        row[5] = ppe.hasPrice() ? Float.toString(ppe.priceValue()) : "null";
+        row[6] = genson.serialize(ppe.getStartUseDate());
+        row[7] = genson.serialize(ppe.getStatus());
+        row[8] = genson.serialize(ppe.getSubsidiary());
+
+        int length = count > 0 ? FIELDS.length : 0;
+        for (String value: row) {
+            length += length(value);
+        }
+        if (count > 0 && size + length > maxBytes) {
+            return false;
+        }
+        for (int i = 0; i < FIELDS.length; i++) {
+            columnValues[i].append(count > 0 ? "," : "").append(row[i]);
+        }
+        size += length;
+        count++;
+        return true;
+    }
+
+    /**
+     * @return number of ppes in the chunk
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Completes the chunk
+     *
+     * @param resumeKey start key of the next chunk, empty after the last chunk
+     * @return JSON with the format, the data, the count of ppes, the checksum of the data and the resume key
+     */
+    String finish(final String resumeKey) {
+        if (columns) {
+            data.append('{');
+            for (int i = 0; i < FIELDS.length; i++) {
+                data.append(i > 0 ? "," : "").append('"').append(FIELDS[i]).append("\":[")
+                        .append(columnValues[i]).append(']');
+            }
+            data.append('}');
+        }
+        byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+
+        return "{\"format\":" + genson.serialize(format)
+                + ",\"data\":" + genson.serialize(gzip ? Base64.getEncoder().encodeToString(gzip(bytes)) : data.toString())
+                + ",\"count\":" + count
+                + ",\"checksum\":\"" + sha256(bytes) + '"'
+                + ",\"resumeKey\":" + genson.serialize(resumeKey)
+                + '}';
+    }
+
+    private static byte[] gzip(final byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(final byte[] bytes) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @return UTF-8 bytes of the value in the data, escaped the way Genson writes the data into a JSON string
+     * unless the data is gzipped
+     */
+    private int length(final String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!gzip && (c == '"' || c == '\\' || c == '\b' || c == '\t' || c == '\n' || c == '\f' || c == '\r')) {
+                length += 2;
+            } else if (!gzip && (c < 0x20 || c == '\u2028' || c == '\u2029')) {
+                length += 6;
+            } else if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,64 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+/**
+ * Predicates of the scan queries, absent predicates match every ppe
+ */
+public final class PPEFilter {
+
+    /**
+     * Организация, которой принадлежит СИЗ
+     */
+    private final String subsidiary;
+
+    /**
+     * Статус СИЗ
+     */
+    private final String status;
+
+    /**
+     * Табельный номер сотрудника
+     */
+    private final String ownerID;
+
+    /**
+     * Нижняя граница цены включительно
+     */
+    private final Float minPrice;
+
+    /**
+     * Верхняя граница цены включительно
+     */
+    private final Float maxPrice;
+
+    public PPEFilter(@JsonProperty("subsidiary") final String subsidiary, @JsonProperty("status") final String status,
+                     @JsonProperty("ownerID") final String ownerID, @JsonProperty("minPrice") final Float minPrice,
+                     @JsonProperty("maxPrice") final Float maxPrice) {
+        this.subsidiary = subsidiary;
+        this.status = status;
+        this.ownerID = ownerID;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+    }
+
+    public String getSubsidiary() {
+        return subsidiary;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getOwnerID() {
+        return ownerID;
+    }
+
+    public Float getMinPrice() {
+        return minPrice;
+    }
+
+    public Float getMaxPrice() {
+        return maxPrice;
+    }
+}
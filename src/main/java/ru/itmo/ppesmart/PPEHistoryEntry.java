@@ -0,0 +1,58 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.annotation.JsonProperty;
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+@DataType()
+public final class PPEHistoryEntry {
+
+    /**
+     * Идентификатор транзакции, изменившей СИЗ
+     */
+    @Property()
+    private final String txId;
+
+    /**
+     * Время транзакции в формате ISO-8601
+     */
+    @Property()
+    private final String timestamp;
+
+    /**
+     * Признак удаления СИЗа
+     */
+    @Property()
+    private final boolean isDelete;
+
+    /**
+     * Состояние СИЗа после транзакции, отсутствует при удалении
+     */
+    @Property()
+    private final PPE value;
+
+    public PPEHistoryEntry(@JsonProperty("txId") final String txId, @JsonProperty("timestamp") final String timestamp,
+                           @JsonProperty("isDelete") final boolean isDelete, @JsonProperty("value") final PPE value) {
+        this.txId = txId;
+        this.timestamp = timestamp;
+        this.isDelete = isDelete;
+        this.value = value;
+    }
+
+    public String getTxId() {
+        return txId;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    @JsonProperty("isDelete")
+    public boolean isDelete() {
+        return isDelete;
+    }
+
+    public PPE getValue() {
+        return value;
+    }
+}
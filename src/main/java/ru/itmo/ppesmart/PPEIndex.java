@@ -0,0 +1,157 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Composite-key secondary indexes of PPE kept in step with the PPE record
+ */
+final class PPEIndex {
+
+    /**
+     * Индекс СИЗ по табельному номеру сотрудника
+     */
+    static final String OWNER = "ownerID~subsidiary~inventoryNumber";
+
+    /**
+     * Индекс СИЗ по статусу
+     */
+    static final String STATUS = "status~subsidiary~inventoryNumber";
+
+    /**
+     * Индекс СИЗ по месяцу окончания срока службы и организации
+     */
+    static final String EXPIRY = "expiry~yyyyMM~subsidiary~inventoryNumber";
+
+    /**
+     * Входящие перемещения СИЗ, ожидающие приёмки организацией
+     */
+    static final String INBOX = "inbox~subsidiary~inventoryNumber";
+
+    /**
+     * Index entries carry no data, fabric treats an empty value as a delete
+     */
+    private static final byte[] INDEX_VALUE = {0x00};
+
+    private PPEIndex() {
+    }
+
+    /**
+     * Rewrites only those index entries whose indexed attribute has changed
+     *
+     * @param stub the chaincode stub
+     * @param oldPPE ppe stored on the ledger before the write, null for a new ppe
+     * @param newPPE ppe stored on the ledger after the write, null for a removed ppe
+     */
+    static void update(final ChaincodeStub stub, final PPE oldPPE, final PPE newPPE) {
+        updateEntry(stub, OWNER,
+                oldPPE, oldPPE == null ? null : oldPPE.getOwnerID(),
+                newPPE, newPPE == null ? null : newPPE.getOwnerID());
+        updateEntry(stub, STATUS,
+                oldPPE, oldPPE == null ? null : oldPPE.getStatus(),
+                newPPE, newPPE == null ? null : newPPE.getStatus());
+        updateExpiryEntry(stub, oldPPE, newPPE);
+    }
+
+    /**
+     * Puts the transferred ppe into the inbox of its receiving subsidiary
+     *
+     * @param stub the chaincode stub
+     * @param ppe ppe stored on the ledger after the transfer
+     */
+    static void addIncoming(final ChaincodeStub stub, final PPE ppe) {
+        String key = inboxKey(stub, ppe);
+        if (!isPresent(stub, key)) {
+            stub.putState(key, INDEX_VALUE);
+        }
+    }
+
+    /**
+     * Removes the ppe from the inbox of its subsidiary, the ppe may have no inbox entry
+     *
+     * @param stub the chaincode stub
+     * @param ppe ppe stored on the ledger before the write
+     */
+    static void removeIncoming(final ChaincodeStub stub, final PPE ppe) {
+        String key = inboxKey(stub, ppe);
+        if (isPresent(stub, key)) {
+            stub.delState(key);
+        }
+    }
+
+    /**
+     * Builds the key of the ppe record referenced by the index entry, every index ends with the subsidiary
+     * and the inventory number
+     *
+     * @param stub the chaincode stub
+     * @param indexKey composite key of the index entry
+     * @return namespaced key of the indexed ppe
+     */
+    static String recordKeyOf(final ChaincodeStub stub, final String indexKey) {
+        List<String> attributes = stub.splitCompositeKey(indexKey).getAttributes();
+        int size = attributes.size();
+        return PPEKeys.recordKey(stub, attributes.get(size - 2), attributes.get(size - 1));
+    }
+
+    private static void updateEntry(final ChaincodeStub stub, final String indexName,
+                                    final PPE oldPPE, final String oldValue,
+                                    final PPE newPPE, final String newValue) {
+        String oldKey = oldPPE == null || !isIndexable(oldValue) ? null : key(stub, indexName, oldValue, oldPPE);
+        String newKey = newPPE == null || !isIndexable(newValue) ? null : key(stub, indexName, newValue, newPPE);
+        if (Objects.equals(oldKey, newKey)) {
+            return;
+        }
+        if (oldKey != null) {
+            stub.delState(oldKey);
+        }
+        if (newKey != null) {
+            stub.putState(newKey, INDEX_VALUE);
+        }
+    }
+
+    private static void updateExpiryEntry(final ChaincodeStub stub, final PPE oldPPE, final PPE newPPE) {
+        String oldKey = oldPPE == null ? null : expiryKey(stub, oldPPE);
+        String newKey = newPPE == null ? null : expiryKey(stub, newPPE);
+        if (Objects.equals(oldKey, newKey)) {
+            return;
+        }
+        if (oldKey != null) {
+            stub.delState(oldKey);
+        }
+        if (newKey != null) {
+            stub.putState(newKey, INDEX_VALUE);
+        }
+    }
+
+    private static String expiryKey(final ChaincodeStub stub, final PPE ppe) {
+        String month = PPEDates.expiryMonth(ppe);
+        if (month == null || ppe.getInventoryNumber() == null) {
+            return null;
+        }
+        return stub.createCompositeKey(EXPIRY, month, PPEKeys.partitionOf(ppe), ppe.getInventoryNumber()).toString();
+    }
+
+    private static String inboxKey(final ChaincodeStub stub, final PPE ppe) {
+        return stub.createCompositeKey(INBOX, PPEKeys.partitionOf(ppe), ppe.getInventoryNumber()).toString();
+    }
+
+    /**
+     * Inbox entries are checked before a write, so that a repeated transfer or acceptance leaves them untouched
+     */
+    private static boolean isPresent(final ChaincodeStub stub, final String key) {
+        byte[] value = stub.getState(key);
+        return value != null && value.length > 0;
+    }
+
+    private static boolean isIndexable(final String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    private static String key(final ChaincodeStub stub, final String indexName, final String value, final PPE ppe) {
+        CompositeKey key = stub.createCompositeKey(indexName, value, PPEKeys.partitionOf(ppe), ppe.getInventoryNumber());
+        return key.toString();
+    }
+}
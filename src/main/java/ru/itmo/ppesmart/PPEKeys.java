@@ -0,0 +1,214 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Ledger keys of PPE records.
+ *
+ * <p>Records live in a composite-key namespace partitioned by subsidiary, so the records of one subsidiary form
+ * a single key range. A pointer key per inventory number lists the subsidiaries holding a ppe with that number,
+ * so lookups by the inventory number alone cost one extra point read. New ppes are rejected while their inventory
+ * number is held by any subsidiary, so the pointer names one subsidiary and the transactions taking the inventory
+ * number alone stay unambiguous. Records written before the namespace keep their bare inventory number key
+ * until they are moved by the migration or by their next write. They are not referenced by the owner, status
+ * and expiry indexes, so the queries using them fall back to scans or are rejected until the migration is done.
+ */
+final class PPEKeys {
+
+    /**
+     * Записи СИЗ по организации и инвентарному номеру
+     */
+    static final String RECORD = "ppe~subsidiary~inventoryNumber";
+
+    /**
+     * Организации, в которых есть СИЗ с инвентарным номером
+     */
+    static final String POINTER = "pointer~inventoryNumber";
+
+    /**
+     * Отметка о том, что под голыми инвентарными номерами не осталось записей
+     */
+    static final String LEGACY_DRAINED = "migration~legacyKeysDrained";
+
+    /**
+     * Terminates every subsidiary in the pointer value, composite key attributes never contain it
+     */
+    private static final byte TERMINATOR = 0x00;
+
+    private PPEKeys() {
+    }
+
+    /**
+     * Builds the namespaced key of a ppe record
+     *
+     * @param stub the chaincode stub
+     * @param subsidiary a company owned PPE, null for a ppe without subsidiary
+     * @param inventoryNumber PPE inventory number
+     * @return composite key of the record
+     */
+    static String recordKey(final ChaincodeStub stub, final String subsidiary, final String inventoryNumber) {
+        return stub.createCompositeKey(RECORD, subsidiary == null ? "" : subsidiary, inventoryNumber).toString();
+    }
+
+    /**
+     * Builds the namespaced key of a ppe record
+     *
+     * @param stub the chaincode stub
+     * @param ppe the ppe
+     * @return composite key of the record
+     */
+    static String recordKey(final ChaincodeStub stub, final PPE ppe) {
+        return recordKey(stub, ppe.getSubsidiary(), ppe.getInventoryNumber());
+    }
+
+    /**
+     * Names the partition of the ppe record, a ppe without subsidiary goes to the empty one
+     *
+     * @param ppe the ppe
+     * @return subsidiary of the record key
+     */
+    static String partitionOf(final PPE ppe) {
+        return ppe.getSubsidiary() == null ? "" : ppe.getSubsidiary();
+    }
+
+    /**
+     * Builds the pointer key of an inventory number
+     *
+     * @param stub the chaincode stub
+     * @param inventoryNumber PPE inventory number
+     * @return composite key of the pointer
+     */
+    static String pointerKey(final ChaincodeStub stub, final String inventoryNumber) {
+        return stub.createCompositeKey(POINTER, inventoryNumber).toString();
+    }
+
+    /**
+     * Checks whether the key belongs to a record written before the namespace
+     *
+     * @param key ledger key of a record
+     * @return true for a bare inventory number key
+     */
+    static boolean isLegacyKey(final String key) {
+        return !key.startsWith(CompositeKey.NAMESPACE);
+    }
+
+    /**
+     * Checks whether the migration has left no record under a bare inventory number key, records are never
+     * written under such keys again
+     *
+     * @param stub the chaincode stub
+     * @return true if the range of bare keys can be skipped
+     */
+    static boolean isLegacyDrained(final ChaincodeStub stub) {
+        byte[] marker = stub.getState(stub.createCompositeKey(LEGACY_DRAINED).toString());
+        return marker != null && marker.length > 0;
+    }
+
+    /**
+     * Checks whether any record is still under a bare inventory number key. Reads the drained mark, and without
+     * it the first key of the range of bare keys, so a ledger never holding such records needs no migration
+     *
+     * @param stub the chaincode stub
+     * @return true if some record is not referenced by the indexes
+     */
+    static boolean hasLegacyRecords(final ChaincodeStub stub) {
+        if (isLegacyDrained(stub)) {
+            return false;
+        }
+        QueryResultsIterator<KeyValue> legacyRecords = stub.getStateByRange("", "");
+        try {
+            return legacyRecords.iterator().hasNext();
+        } finally {
+            PPETransfer.closeIterator(legacyRecords);
+        }
+    }
+
+    /**
+     * Marks the range of bare inventory number keys as empty
+     *
+     * @param stub the chaincode stub
+     */
+    static void markLegacyDrained(final ChaincodeStub stub) {
+        stub.putState(stub.createCompositeKey(LEGACY_DRAINED).toString(), new byte[] {1});
+    }
+
+    /**
+     * Reads the subsidiaries holding a ppe with the inventory number
+     *
+     * @param stub the chaincode stub
+     * @param inventoryNumber PPE inventory number
+     * @return subsidiaries from the pointer, empty when there is no namespaced record
+     */
+    static List<String> subsidiaries(final ChaincodeStub stub, final String inventoryNumber) {
+        return decodePointer(stub.getState(pointerKey(stub, inventoryNumber)));
+    }
+
+    /**
+     * Moves the inventory number in the pointer from one subsidiary to another
+     *
+     * @param stub the chaincode stub
+     * @param inventoryNumber PPE inventory number
+     * @param oldSubsidiary subsidiary of the removed namespaced record, null if there was none
+     * @param newSubsidiary subsidiary of the written namespaced record, null if there is none
+     */
+    static void updatePointer(final ChaincodeStub stub, final String inventoryNumber,
+                              final String oldSubsidiary, final String newSubsidiary) {
+        if (Objects.equals(oldSubsidiary, newSubsidiary)) {
+            return;
+        }
+        String key = pointerKey(stub, inventoryNumber);
+        List<String> subsidiaries = decodePointer(stub.getState(key));
+        if (oldSubsidiary != null) {
+            subsidiaries.remove(oldSubsidiary);
+        }
+        if (newSubsidiary != null && !subsidiaries.contains(newSubsidiary)) {
+            subsidiaries.add(newSubsidiary);
+        }
+
+        if (subsidiaries.isEmpty()) {
+            stub.delState(key);
+        } else {
+            stub.putState(key, encodePointer(subsidiaries));
+        }
+    }
+
+    /**
+     * Decodes the value of a pointer
+     *
+     * @param value stored pointer value
+     * @return subsidiaries in the order they were added
+     */
+    static List<String> decodePointer(final byte[] value) {
+        List<String> subsidiaries = new ArrayList<>();
+        if (value == null) {
+            return subsidiaries;
+        }
+        int start = 0;
+        for (int i = 0; i < value.length; i++) {
+            if (value[i] == TERMINATOR) {
+                subsidiaries.add(new String(value, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return subsidiaries;
+    }
+
+    private static byte[] encodePointer(final List<String> subsidiaries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String subsidiary: subsidiaries) {
+            byte[] bytes = subsidiary.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+            out.write(TERMINATOR);
+        }
+        return out.toByteArray();
+    }
+}
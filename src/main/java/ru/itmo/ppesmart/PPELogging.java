@@ -0,0 +1,35 @@
+package ru.itmo.ppesmart;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loggers of the contract. The level is set by the {@code PPESMART_LOG_LEVEL} environment variable
+ * with java.util.logging level names, INFO by default; messages of disabled levels are never built.
+ */
+final class PPELogging {
+
+    private static final String LOG_LEVEL_VARIABLE = "PPESMART_LOG_LEVEL";
+
+    private static final Level LEVEL = parseLevel(System.getenv(LOG_LEVEL_VARIABLE));
+
+    private PPELogging() {
+    }
+
+    static Logger getLogger(final Class<?> type) {
+        Logger logger = Logger.getLogger(type.getName());
+        logger.setLevel(LEVEL);
+        return logger;
+    }
+
+    private static Level parseLevel(final String level) {
+        if (level == null || level.isEmpty()) {
+            return Level.INFO;
+        }
+        try {
+            return Level.parse(level.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ru.itmo.ppesmart;
+
+import java.util.Map;
+
+/**
+ * Partial update of ppe: a JSON object names only the fields to change, a field set to null is cleared
+ * and the fields left out keep their stored values
+ */
+final class PPEPatch {
+
+    private PPEPatch() {
+    }
+
+    /**
+     * Applies the patch to the stored ppe
+     *
+     * @param ppe ppe stored on the ledger
+     * @param patch parsed JSON object of the patch
+     * @return the patched ppe
+     * @throws IllegalArgumentException if a field is unknown, has a wrong type or changes the inventory number
+     */
+    static PPE apply(final PPE ppe, final Map<String, Object> patch) {
+        String ownerName = ppe.getOwnerName();
+        String ownerID = ppe.getOwnerID();
+        String name = ppe.getName();
+        String status = ppe.getStatus();
+        Float price = ppe.getPrice();
+        String startUseDate = ppe.getStartUseDate();
+        Integer lifeTime = ppe.getLifeTime();
+        String subsidiary = ppe.getSubsidiary();
+
+        for (Map.Entry<String, Object> field: patch.entrySet()) {
+            Object value = field.getValue();
+            switch (field.getKey()) {
+                case "ownerName":
+                    ownerName = string(field);
+                    break;
+                case "ownerID":
+                    ownerID = string(field);
+                    break;
+                case "name":
+                    name = string(field);
+                    break;
+                case "status":
+                    status = string(field);
+                    break;
+                case "price":
+                    price = value == null ? null : number(field).floatValue();
+                    break;
+                case "startUseDate":
+                    startUseDate = PPEDates.normalize(string(field));
+                    break;
+                case "lifeTime":
+                    lifeTime = value == null ? null : integer(field);
+                    break;
+                case "subsidiary":
+                    subsidiary = string(field);
+                    break;
+                case "inventoryNumber":
+                    if (!ppe.getInventoryNumber().equals(value)) {
+                        throw new IllegalArgumentException("patch cannot change the inventory number");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("unknown ppe field %s", field.getKey()));
+            }
+        }
+
+        return new PPE(ownerName, ownerID, name, status, price, ppe.getInventoryNumber(), startUseDate, lifeTime,
+                subsidiary);
+    }
+
+    private static String string(final Map.Entry<String, Object> field) {
+        Object value = field.getValue();
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException(String.format("field %s must be a string", field.getKey()));
+        }
+        return (String) value;
+    }
+
+    private static Number number(final Map.Entry<String, Object> field) {
+        if (!(field.getValue() instanceof Number)) {
+            throw new IllegalArgumentException(String.format("field %s must be a number", field.getKey()));
+        }
+        return (Number) field.getValue();
+    }
+
+    private static Integer integer(final Map.Entry<String, Object> field) {
+        double value = number(field).doubleValue();
+        if (value != Math.rint(value) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("field %s must be an integer", field.getKey()));
+        }
+        return (int) value;
+    }
+}
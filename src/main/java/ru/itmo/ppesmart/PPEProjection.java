@@ -0,0 +1,373 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.JsonBindingException;
+import com.owlike.genson.stream.JsonStreamException;
+import org.hyperledger.fabric.shim.ChaincodeException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Field projection and predicates of the scan queries evaluated on the stored bytes of ppe.
+ *
+ * <p>The binary layout is walked field by field: strings that are neither filtered nor projected are
+ * skipped by their length, filtered strings are compared as UTF-8 bytes, and the walk stops at the last
+ * field the query needs. Only the projected fields of a matching ppe are decoded. Legacy JSON values are
+ * converted to the binary layout first. Without projection and predicates the stored value is returned as
+ * the whole record. An instance keeps the positions of the value being read and the counts of the scan,
+ * so it serves one transaction.
+ */
+final class PPEProjection {
+
+    /**
+     * Fields in the order of the binary layout
+     */
+    private static final String[] FIELDS = {
+        "inventoryNumber", "ownerName", "ownerID", "name", "price", "status", "startUseDate", "lifeTime", "subsidiary"
+    };
+
+    private static final int OWNER_ID = 2;
+
+    private static final int PRICE = 4;
+
+    private static final int STATUS = 5;
+
+    private static final int START_USE_DATE = 6;
+
+    private static final int LIFE_TIME = 7;
+
+    private static final int SUBSIDIARY = 8;
+
+    /**
+     * Fields in the order Genson writes the properties of ppe, so that projected records read like full ones
+     */
+    private static final int[] JSON_ORDER = {0, LIFE_TIME, 3, OWNER_ID, 1, PRICE, START_USE_DATE, STATUS, SUBSIDIARY};
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final PPECodec codec;
+
+    private final boolean[] projected = new boolean[FIELDS.length];
+
+    /**
+     * UTF-8 bytes the field must be equal to, null for a field without predicate
+     */
+    private final byte[][] expected = new byte[FIELDS.length][];
+
+    private final Float minPrice;
+
+    private final Float maxPrice;
+
+    private final int lastFiltered;
+
+    private final int lastProjected;
+
+    private final boolean wholeRecord;
+
+    private int scanned;
+
+    private int matched;
+
+    private final int[] offsets = new int[FIELDS.length];
+
+    private final int[] lengths = new int[FIELDS.length];
+
+    private byte[] value;
+
+    private boolean hasPrice;
+
+    private int priceBits;
+
+    private boolean hasLifeTime;
+
+    private int lifeTime;
+
+    private int dateTag;
+
+    /**
+     * Code of a known status, {@link PPECodec#STATUS_TEXT} for a status stored as a string
+     */
+    private int statusCode;
+
+    private final PPEStatus expectedStatus;
+
+    private int epochDay;
+
+    /**
+     * @param codec codec of the world-state values
+     * @param fields names of the projected fields, empty for every field
+     * @param filter predicates, null to match every ppe
+     * @throws IllegalArgumentException if a field is unknown
+     */
+    PPEProjection(final PPECodec codec, final String[] fields, final PPEFilter filter) {
+        this.codec = codec;
+
+        int last = -1;
+        for (String field: fields) {
+            int index = indexOf(field.trim());
+            if (index < 0) {
+                throw new IllegalArgumentException("unknown ppe field " + field.trim());
+            }
+            projected[index] = true;
+            last = Math.max(last, index);
+        }
+        if (fields.length == 0) {
+            Arrays.fill(projected, true);
+            last = FIELDS.length - 1;
+        }
+        lastProjected = last;
+
+        last = -1;
+        if (filter != null) {
+            last = expect(SUBSIDIARY, filter.getSubsidiary(), last);
+            last = expect(STATUS, filter.getStatus(), last);
+            last = expect(OWNER_ID, filter.getOwnerID(), last);
+            if (filter.getMinPrice() != null || filter.getMaxPrice() != null) {
+                last = Math.max(last, PRICE);
+            }
+        }
+        expectedStatus = filter == null ? null : PPEStatus.of(filter.getStatus());
+        minPrice = filter == null ? null : filter.getMinPrice();
+        maxPrice = filter == null ? null : filter.getMaxPrice();
+        lastFiltered = last;
+        wholeRecord = fields.length == 0 && last < 0;
+    }
+
+    /**
+     * Appends the projected ppe to the JSON array if it matches the predicates
+     *
+     * @param key ledger key of the value, named in the error
+     * @param storedValue the world-state value
+     * @param out builder of the JSON array, null to count the matching ppes only
+     * @throws ChaincodeException RECORD_CORRUPTED if the value cannot be decoded
+     */
+    void append(final String key, final byte[] storedValue, final StringBuilder out) {
+        try {
+            append(storedValue, out);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException
+                 | DateTimeException | JsonBindingException | JsonStreamException e) {
+            String errorMessage = String.format("ppe record %s is corrupted", key);
+            throw PPETransfer.error(errorMessage, PPETransfer.PPETransferErrors.RECORD_CORRUPTED, e);
+        }
+    }
+
+    private void append(final byte[] storedValue, final StringBuilder out) {
+        scanned++;
+        if (wholeRecord) {
+            if (out != null) {
+                String ppeJSON = codec.toJSON(storedValue);
+                if (ppeJSON == null) {
+                    return;
+                }
+                out.append(matched > 0 ? "," : "").append(ppeJSON);
+            }
+            matched++;
+            return;
+        }
+
+        int mark = out == null ? 0 : out.length();
+        if (out != null && matched > 0) {
+            out.append(',');
+        }
+        if (write(storedValue, out)) {
+            matched++;
+        } else if (out != null) {
+            out.setLength(mark);
+        }
+    }
+
+    /**
+     * @return number of values passed to the projection
+     */
+    int getScanned() {
+        return scanned;
+    }
+
+    /**
+     * @return number of ppes matching the predicates
+     */
+    int getMatched() {
+        return matched;
+    }
+
+    /**
+     * Evaluates the predicates on the stored value and writes the projected fields of a matching ppe
+     *
+     * @param storedValue the world-state value
+     * @param out builder to append the projected JSON object to, null to evaluate the predicates only
+     * @return true if the ppe matches the predicates
+     */
+    private boolean write(final byte[] storedValue, final StringBuilder out) {
+        if (storedValue == null || storedValue.length == 0) {
+            return false;
+        }
+        value = codec.toBinary(storedValue);
+        if (!read(out == null ? lastFiltered : Math.max(lastFiltered, lastProjected))) {
+            return false;
+        }
+        if (out != null) {
+            writeJSON(out);
+        }
+        return true;
+    }
+
+    private boolean read(final int lastField) {
+        PPECodec.Reader reader = new PPECodec.Reader(value, 1);
+        for (int field = 0; field <= lastField; field++) {
+            if (field == PRICE) {
+                hasPrice = reader.readByte() != 0;
+                priceBits = hasPrice ? reader.readFloatBits() : 0;
+                if (!matchesPrice()) {
+                    return false;
+                }
+            } else if (field == LIFE_TIME) {
+                hasLifeTime = reader.readByte() != 0;
+                if (hasLifeTime) {
+                    lifeTime = reader.readZigZag();
+                }
+            } else if (field == STATUS) {
+                statusCode = reader.readByte();
+                if (statusCode == PPECodec.STATUS_TEXT) {
+                    readString(reader, field);
+                }
+                if (expected[field] != null && !matchesStatus()) {
+                    return false;
+                }
+            } else if (field == START_USE_DATE) {
+                dateTag = reader.readByte();
+                if (dateTag == PPECodec.DATE_STRING) {
+                    readString(reader, field);
+                } else if (dateTag == PPECodec.DATE_EPOCH_DAY) {
+                    epochDay = reader.readZigZag();
+                }
+            } else {
+                readString(reader, field);
+                if (expected[field] != null && !matches(field)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void readString(final PPECodec.Reader reader, final int field) {
+        int length = reader.readVarInt() - 1;
+        offsets[field] = reader.position();
+        lengths[field] = length;
+        if (length > 0) {
+            reader.skip(length);
+        }
+    }
+
+    private boolean matches(final int field) {
+        byte[] bytes = expected[field];
+        if (lengths[field] != bytes.length) {
+            return false;
+        }
+        int offset = offsets[field];
+        for (int i = 0; i < bytes.length; i++) {
+            if (value[offset + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesStatus() {
+        if (statusCode == PPECodec.STATUS_TEXT) {
+            return matches(STATUS);
+        }
+        return expectedStatus != null && expectedStatus.code() == statusCode;
+    }
+
+    private boolean matchesPrice() {
+        if (minPrice == null && maxPrice == null) {
+            return true;
+        }
+        if (!hasPrice) {
+            return false;
+        }
+        float price = Float.intBitsToFloat(priceBits);
+        return (minPrice == null || price >= minPrice) && (maxPrice == null || price <= maxPrice);
+    }
+
+    private void writeJSON(final StringBuilder out) {
+        out.append('{');
+        boolean first = true;
+        for (int field: JSON_ORDER) {
+            if (!projected[field]) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append('"').append(FIELDS[field]).append("\":");
+
+            if (field == PRICE) {
+                out.append(hasPrice ? Float.toString(Float.intBitsToFloat(priceBits)) : "null");
+            } else if (field == LIFE_TIME) {
+                out.append(hasLifeTime ? Integer.toString(lifeTime) : "null");
+            } else if (field == START_USE_DATE && dateTag == PPECodec.DATE_EPOCH_DAY) {
+                out.append('"').append(LocalDate.ofEpochDay(epochDay)).append('"');
+            } else if (field == START_USE_DATE && dateTag == PPECodec.DATE_ABSENT) {
+                out.append("null");
+            } else if (field == STATUS && statusCode != PPECodec.STATUS_TEXT) {
+                out.append('"').append(PPEStatus.ofCode(statusCode).name()).append('"');
+            } else {
+                writeString(out, field);
+            }
+        }
+        out.append('}');
+    }
+
+    private void writeString(final StringBuilder out, final int field) {
+        if (lengths[field] < 0) {
+            out.append("null");
+            return;
+        }
+        String text = new String(value, offsets[field], lengths[field], StandardCharsets.UTF_8);
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else if (c == '\t') {
+                out.append("\\t");
+            } else if (c == '\b') {
+                out.append("\\b");
+            } else if (c == '\f') {
+                out.append("\\f");
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                out.append("\\u").append(HEX[c >> 12 & 0xF]).append(HEX[c >> 8 & 0xF])
+                        .append(HEX[c >> 4 & 0xF]).append(HEX[c & 0xF]);
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private int expect(final int field, final String expectedValue, final int last) {
+        if (expectedValue == null) {
+            return last;
+        }
+        expected[field] = expectedValue.getBytes(StandardCharsets.UTF_8);
+        return Math.max(last, field);
+    }
+
+    private static int indexOf(final String field) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
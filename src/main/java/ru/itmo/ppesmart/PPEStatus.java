@@ -0,0 +1,92 @@
+package ru.itmo.ppesmart;
+
+/**
+ * Statuses of ppe known to the contract. The code is written into the binary world-state value instead of
+ * the status text, so the codes of existing statuses must never change; a status outside the list is kept
+ * as free text.
+ */
+enum PPEStatus {
+
+    /**
+     * На складе
+     */
+    IN_STOCK(1),
+
+    /**
+     * Выдан сотруднику
+     */
+    IN_USE(2),
+
+    /**
+     * Передаётся в другую организацию
+     */
+    TRANSFER(3),
+
+    /**
+     * В ремонте
+     */
+    REPAIR(4),
+
+    /**
+     * Списан
+     */
+    WRITTEN_OFF(5);
+
+    /**
+     * Statuses by code, the code 0 marks a free-text status in the world-state value
+     */
+    private static final PPEStatus[] BY_CODE = new PPEStatus[6];
+
+    static {
+        for (PPEStatus status: values()) {
+            BY_CODE[status.code] = status;
+        }
+    }
+
+    private final int code;
+
+    PPEStatus(final int code) {
+        this.code = code;
+    }
+
+    int code() {
+        return code;
+    }
+
+    /**
+     * @param status status text
+     * @return the known status or null for a free-text status
+     */
+    static PPEStatus of(final String status) {
+        if (status == null) {
+            return null;
+        }
+        switch (status) {
+            case "IN_STOCK":
+                return IN_STOCK;
+            case "IN_USE":
+                return IN_USE;
+            case "TRANSFER":
+                return TRANSFER;
+            case "REPAIR":
+                return REPAIR;
+            case "WRITTEN_OFF":
+                return WRITTEN_OFF;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param code code read from the world-state value
+     * @return the status with the code
+     * @throws IllegalArgumentException if no status has the code
+     */
+    static PPEStatus ofCode(final int code) {
+        PPEStatus status = code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        if (status == null) {
+            throw new IllegalArgumentException("unknown PPE status code " + code);
+        }
+        return status;
+    }
+}
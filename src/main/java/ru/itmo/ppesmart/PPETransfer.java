@@ -1,18 +1,34 @@
 package ru.itmo.ppesmart;
 
 import com.owlike.genson.Genson;
+import com.owlike.genson.JsonBindingException;
 import lombok.NoArgsConstructor;
 import org.hyperledger.fabric.contract.Context;
 import org.hyperledger.fabric.contract.ContractInterface;
 import org.hyperledger.fabric.contract.annotation.*;
 import org.hyperledger.fabric.shim.ChaincodeException;
 import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
 import org.hyperledger.fabric.shim.ledger.KeyModification;
 import org.hyperledger.fabric.shim.ledger.KeyValue;
 import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Logger;
 
 @Contract(
         name = "ppesmart",
@@ -26,11 +42,135 @@ import java.util.List;
 @NoArgsConstructor
 public final class PPETransfer implements ContractInterface {
 
-    private final Genson genson = new Genson();
+    private static final Logger LOGGER = PPELogging.getLogger(PPETransfer.class);
 
-    private enum PPETransferErrors {
+    /**
+     * Shared with the warm-up of the chaincode server, so that the converters it builds serve transactions
+     */
+    static final Genson GENSON = new Genson();
+
+    static final PPECodec CODEC = new PPECodec(GENSON);
+
+    /**
+     * Upper bound for a single page of range query results
+     */
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Upper bound for items of a batch transaction, each item writes the ppe and its index entries
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private static final String MAX_READ_KEYS_VARIABLE = "PPESMART_MAX_READ_KEYS";
+
+    /**
+     * Upper bound for inventory numbers of a multi-key read, set by the {@code PPESMART_MAX_READ_KEYS}
+     * environment variable, the page size limit by default
+     */
+    private static final int MAX_READ_KEYS = parseMaxReadKeys(System.getenv(MAX_READ_KEYS_VARIABLE));
+
+    /**
+     * Upper bound for the month range of the expiry query
+     */
+    private static final int MAX_EXPIRY_MONTHS = 120;
+
+    private static final int EXPIRY_MONTH_LENGTH = 6;
+
+    /**
+     * Upper bound for the data of a single export chunk, well below the gRPC message limit of the peer
+     */
+    private static final int MAX_EXPORT_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Records read per range query page of the export
+     */
+    private static final int EXPORT_PAGE_SIZE = 200;
+
+    private static final char RECORDS_BOOKMARK = 'R';
+
+    private static final char LEGACY_BOOKMARK = 'L';
+
+    /**
+     * Projection of every ppe field
+     */
+    private static final String[] ALL_FIELDS = new String[0];
+
+    enum PPETransferErrors {
         PPE_NOT_FOUND,
-        PPE_ALREADY_EXISTS
+        PPE_ALREADY_EXISTS,
+        INVALID_ARGUMENT,
+        BATCH_TOO_LARGE,
+        QUERY_FAILED,
+        AMBIGUOUS_INVENTORY_NUMBER,
+        ARCHIVE_CORRUPTED,
+        MIGRATION_PENDING,
+        RECORD_CORRUPTED
+    }
+
+    /**
+     * Creates the transaction context with the transaction-scoped state cache.
+     *
+     * @param stub the chaincode stub of the transaction
+     * @return the transaction context
+     */
+    @Override
+    public Context createContext(final ChaincodeStub stub) {
+        return new PPEContext(stub);
+    }
+
+    /**
+     * Starts the transaction metrics.
+     *
+     * @param ctx the transaction context
+     */
+    @Override
+    public void beforeTransaction(final Context ctx) {
+        ContractMetrics.begin((PPEContext) ctx);
+    }
+
+    /**
+     * Drops the metrics context of the transaction, which never reaches afterTransaction, and rejects it.
+     *
+     * @param ctx the transaction context
+     */
+    @Override
+    public void unknownTransaction(final Context ctx) {
+        ContractMetrics.reset();
+        ContractInterface.super.unknownTransaction(ctx);
+    }
+
+    /**
+     * Writes the archive chunk and emits the change event of the completed transaction and records its metrics.
+     *
+     * @param ctx the transaction context
+     * @param result the transaction result
+     */
+    @Override
+    public void afterTransaction(final Context ctx, final Object result) {
+        PPEContext context = (PPEContext) ctx;
+        if (!context.getRetired().isEmpty()) {
+            PPEArchive.writeChunk(ctx.getStub(), context.getRetired(), CODEC);
+        }
+        // the peer keeps only the last event set by a transaction, so all changes go into one payload
+        List<PPEChangeEvent.Change> changes = context.getChanges();
+        List<String> unchanged = context.getUnchanged();
+        if (!changes.isEmpty() || !unchanged.isEmpty()) {
+            PPEChangeEvent event = new PPEChangeEvent(ctx.getStub().getTxId(), changes, unchanged);
+            ctx.getStub().setEvent(PPEChangeEvent.NAME, GENSON.serialize(event).getBytes(StandardCharsets.UTF_8));
+        }
+        ContractMetrics.end(context);
+    }
+
+    /**
+     * Retrieves call counts, error counts, latency histograms and state access of every transaction function
+     * executed by this chaincode process since its start.
+     *
+     * @param ctx the transaction context
+     * @return JSON metrics by transaction function
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String getContractMetrics(final Context ctx) {
+        return GENSON.serialize(ContractMetrics.snapshot());
     }
 
     /**
@@ -44,7 +184,7 @@ public final class PPETransfer implements ContractInterface {
     }
 
     /**
-     * Creates a new ppe on the ledger.
+     * Creates a new ppe on the ledger. The inventory number must not be held by a ppe of any subsidiary.
      *
      * @param ctx the transaction context
      * @param ownerName the employee name
@@ -64,20 +204,42 @@ public final class PPETransfer implements ContractInterface {
                            final Float price, final String inventoryNumber,
                            final String startUseDate, final Integer lifeTime,
                            final String subsidiary) {
-        ChaincodeStub stub = ctx.getStub();
+        PPE ppe = new PPE(ownerName, ownerID, name, status, price, inventoryNumber, startUseDate, lifeTime, subsidiary);
 
-        if (isPPEExist(ctx, inventoryNumber)) {
-            String errorMessage = String.format("PPE %s already exists", inventoryNumber);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, PPETransferErrors.PPE_ALREADY_EXISTS.toString());
-        }
+        return addPPE(ctx, ppe);
+    }
 
-        PPE ppe = new PPE(ownerName, ownerID, name, status, price, inventoryNumber, startUseDate, lifeTime, subsidiary);
-        System.out.println("ADD PPE: " + ppe);
-        String ppeJSON = genson.serialize(ppe);
-        stub.putStringState(inventoryNumber, ppeJSON);
+    /**
+     * Creates a list of new ppes on the ledger in one transaction.
+     *
+     * @param ctx the transaction context
+     * @param ppesJSON JSON array of ppes to create
+     * @param mode ATOMIC to reject the whole batch on the first failed item, PER_ITEM to report each item result
+     * @return JSON batch result with the result of each item
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String createPPEBatch(final Context ctx, final String ppesJSON, final String mode) {
+        PPEBatch.Mode batchMode = parseBatchMode(mode);
+        PPE[] ppes = parseBatch(ppesJSON, PPE[].class);
+        PPEContext context = (PPEContext) ctx;
 
-        return ppe;
+        PPEBatch.Result result = new PPEBatch.Result(batchMode);
+        Set<String> batchKeys = new HashSet<>();
+        context.setPerItem(batchMode == PPEBatch.Mode.PER_ITEM);
+        for (int i = 0; i < ppes.length; i++) {
+            PPE ppe = ppes[i];
+            String inventoryNumber = ppe == null ? null : ppe.getInventoryNumber();
+            try {
+                checkBatchItem(batchKeys, inventoryNumber, i);
+                addPPE(ctx, ppe);
+                result.succeeded(inventoryNumber, true);
+            } catch (ChaincodeException e) {
+                handleBatchItemFailure(context, result, i, inventoryNumber, e);
+            }
+        }
+        context.setPerItem(false);
+
+        return GENSON.serialize(result);
     }
 
     /**
@@ -90,19 +252,133 @@ public final class PPETransfer implements ContractInterface {
     @Transaction(intent = Transaction.TYPE.EVALUATE)
     public PPE readPPE(final Context ctx, final String inventoryNumber) {
         ChaincodeStub stub = ctx.getStub();
-        String ppeJSON = stub.getStringState(inventoryNumber);
+        String key = locate(stub, inventoryNumber);
+        PPE ppe = key == null ? null : CODEC.decode(stub.getState(key));
 
-        if (ppeJSON == null || ppeJSON.isEmpty()) {
+        if (ppe == null) {
             String errorMessage = String.format("ppe with inventory number %s does not exist", inventoryNumber);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, PPETransferErrors.PPE_NOT_FOUND.toString());
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
+        }
+        return ppe;
+    }
+
+    /**
+     * Retrieves the ppes with the specified inventory numbers in one call. Every distinct inventory number
+     * gets one result in the order of the request; a missing or ambiguous ppe is marked with the error code
+     * instead of failing the call. Stored values are appended to the response as they are read.
+     *
+     * @param ctx the transaction context
+     * @param inventoryNumbersJSON JSON array of inventory numbers, a repeated one is read once
+     * @return results with the inventory number and either the ppe or the error, and the found and missing counts
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String readPPEs(final Context ctx, final String inventoryNumbersJSON) {
+        Set<String> inventoryNumbers = parseInventoryNumbers(inventoryNumbersJSON);
+        ChaincodeStub stub = ctx.getStub();
+
+        StringBuilder response = new StringBuilder("{\"results\":[");
+        int results = 0;
+        int found = 0;
+        for (String inventoryNumber: inventoryNumbers) {
+            List<String> subsidiaries = PPEKeys.subsidiaries(stub, inventoryNumber);
+            String key = null;
+            if (subsidiaries.size() == 1) {
+                key = PPEKeys.recordKey(stub, subsidiaries.get(0), inventoryNumber);
+            } else if (subsidiaries.isEmpty()) {
+                // records written before the namespace stay under the bare inventory number until they are migrated
+                key = inventoryNumber;
+            }
+            String ppeJSON = key == null ? null : CODEC.toJSON(stub.getState(key));
+
+            response.append(results++ > 0 ? "," : "")
+                    .append("{\"inventoryNumber\":").append(GENSON.serialize(inventoryNumber));
+            if (ppeJSON != null) {
+                response.append(",\"ppe\":").append(ppeJSON).append('}');
+                found++;
+            } else {
+                PPETransferErrors error = subsidiaries.size() > 1
+                        ? PPETransferErrors.AMBIGUOUS_INVENTORY_NUMBER : PPETransferErrors.PPE_NOT_FOUND;
+                response.append(",\"ppe\":null,\"error\":\"").append(error).append("\"}");
+            }
+        }
+
+        response.append("],\"foundCount\":").append(found)
+                .append(",\"missingCount\":").append(results - found)
+                .append('}');
+        return response.toString();
+    }
+
+    private Set<String> parseInventoryNumbers(final String inventoryNumbersJSON) {
+        String[] inventoryNumbers;
+        try {
+            inventoryNumbers = inventoryNumbersJSON == null || inventoryNumbersJSON.isEmpty()
+                    ? null : GENSON.deserialize(inventoryNumbersJSON, String[].class);
+        } catch (JsonBindingException e) {
+            String errorMessage = "inventory numbers must be a JSON array of strings";
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT, e);
+        }
+
+        if (inventoryNumbers == null || inventoryNumbers.length == 0) {
+            String errorMessage = "inventory numbers must not be empty";
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+        if (inventoryNumbers.length > MAX_READ_KEYS) {
+            String errorMessage = String.format("%d inventory numbers exceed the limit of %d",
+                    inventoryNumbers.length, MAX_READ_KEYS);
+            throw error(errorMessage, PPETransferErrors.BATCH_TOO_LARGE);
+        }
+
+        Set<String> distinct = new LinkedHashSet<>();
+        for (int i = 0; i < inventoryNumbers.length; i++) {
+            if (inventoryNumbers[i] == null || inventoryNumbers[i].isEmpty()) {
+                String errorMessage = String.format("inventory number %d is empty", i);
+                throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+            }
+            distinct.add(inventoryNumbers[i]);
+        }
+        return distinct;
+    }
+
+    private static int parseMaxReadKeys(final String maxReadKeys) {
+        if (maxReadKeys == null || maxReadKeys.trim().isEmpty()) {
+            return MAX_PAGE_SIZE;
+        }
+        try {
+            int parsed = Integer.parseInt(maxReadKeys.trim());
+            return parsed > 0 ? parsed : MAX_PAGE_SIZE;
+        } catch (NumberFormatException e) {
+            return MAX_PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Retrieves an ppe of the subsidiary, also when its inventory number is used in other subsidiaries.
+     *
+     * @param ctx the transaction context
+     * @param subsidiary a company owned PPE
+     * @param inventoryNumber PPE inventory number in subsidiary
+     * @return the ppe found on the ledger if there was one
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public PPE readSubsidiaryPPE(final Context ctx, final String subsidiary, final String inventoryNumber) {
+        ChaincodeStub stub = ctx.getStub();
+        PPE ppe = CODEC.decode(stub.getState(PPEKeys.recordKey(stub, subsidiary, inventoryNumber)));
+
+        if (ppe == null) {
+            // a record written before the namespace is still keyed by the bare inventory number
+            PPE legacyPPE = CODEC.decode(stub.getState(inventoryNumber));
+            ppe = legacyPPE != null && Objects.equals(legacyPPE.getSubsidiary(), subsidiary) ? legacyPPE : null;
+        }
+        if (ppe == null) {
+            String errorMessage = String.format("ppe %s does not exist in subsidiary %s", inventoryNumber, subsidiary);
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
         }
-        PPE ppe = genson.deserialize(ppeJSON, PPE.class);
         return ppe;
     }
 
     /**
-     * Retrieves an ppe history with the specified ID from the ledger.
+     * Retrieves an ppe history with the specified ID from the ledger. Modifications made under different record
+     * keys are ordered by their client timestamps, not by the order of commits.
      *
      * @param ctx the transaction context
      * @param inventoryNumber current inventory number of ppe
@@ -111,33 +387,163 @@ public final class PPETransfer implements ContractInterface {
     @Transaction(intent = Transaction.TYPE.EVALUATE)
     public String readPPEHistory(final Context ctx, final String inventoryNumber) {
         ChaincodeStub stub = ctx.getStub();
-        QueryResultsIterator<KeyModification> ppeHistory = stub.getHistoryForKey(inventoryNumber);
+        MergedHistory ppeHistory = openHistory(stub, inventoryNumber);
 
-        if (ppeHistory == null) {
-            String errorMessage = String.format("PPE %s history does not exist", inventoryNumber);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, PPETransferErrors.PPE_NOT_FOUND.toString());
-        }
         StringBuilder infoHistoryString = new StringBuilder();
         infoHistoryString.append("[");
-        while (ppeHistory.iterator().hasNext()) {
-            KeyModification keyModification = ppeHistory.iterator().next();
-            infoHistoryString.append(keyModification.getStringValue()).append(", ");
+        try {
+            boolean first = true;
+            for (KeyModification keyModification: ppeHistory) {
+                if (!first) {
+                    infoHistoryString.append(", ");
+                }
+                infoHistoryString.append(keyModification.isDeleted() ? "null" : CODEC.toJSON(keyModification.getValue()));
+                first = false;
+            }
+        } finally {
+            closeIterator(ppeHistory);
         }
-        infoHistoryString.deleteCharAt(infoHistoryString.length() - 1).deleteCharAt(infoHistoryString.length() - 1).append("]");
+        infoHistoryString.append("]");
 
         return infoHistoryString.toString();
     }
 
     /**
-     * Updates the properties of an ppe on the ledger.
+     * Retrieves structured history entries of a ppe, bounded by a limit and a cursor.
+     *
+     * @param ctx the transaction context
+     * @param inventoryNumber current inventory number of ppe
+     * @param limit maximum number of entries, from 1 to the page size limit
+     * @param since ISO-8601 timestamp or transaction id, only later modifications are returned; empty for the whole history
+     * @param newestFirst order of the entries, the oldest entry goes first when false
+     * @return JSON array of history entries with transaction id, timestamp, delete marker and ppe value
+     * @throws ChaincodeException INVALID_ARGUMENT if the transaction id is not in the history of the ppe
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String readPPEHistoryEntries(final Context ctx, final String inventoryNumber, final Integer limit,
+                                        final String since, final Boolean newestFirst) {
+        ChaincodeStub stub = ctx.getStub();
+
+        if (limit == null || limit <= 0 || limit > MAX_PAGE_SIZE) {
+            String errorMessage = String.format("history limit must be between 1 and %d", MAX_PAGE_SIZE);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+        Instant sinceTimestamp = parseTimestamp(since);
+        boolean sinceTxId = since != null && !since.isEmpty() && sinceTimestamp == null;
+        boolean newestGoesFirst = newestFirst == null || newestFirst;
+        boolean sinceFound = false;
+
+        // the peer returns modifications of a key from the newest to the oldest one
+        ArrayDeque<PPEHistoryEntry> entries = new ArrayDeque<>();
+        MergedHistory ppeHistory = openHistory(stub, inventoryNumber);
+        try {
+            for (KeyModification keyModification: ppeHistory) {
+                if (sinceTxId && since.equals(keyModification.getTxId())) {
+                    sinceFound = true;
+                    break;
+                }
+                if (sinceTimestamp != null && !keyModification.getTimestamp().isAfter(sinceTimestamp)) {
+                    break;
+                }
+                if (newestGoesFirst && entries.size() == limit) {
+                    // the page is full, a transaction id cursor is still looked up so that an unknown one is rejected
+                    if (sinceTxId) {
+                        continue;
+                    }
+                    break;
+                }
+                if (entries.size() == limit) {
+                    entries.removeFirst();
+                }
+                entries.addLast(toHistoryEntry(keyModification));
+            }
+        } finally {
+            closeIterator(ppeHistory);
+        }
+        if (sinceTxId && !sinceFound) {
+            String errorMessage = String.format("history of ppe %s has no transaction %s", inventoryNumber, since);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+
+        List<PPEHistoryEntry> response = new ArrayList<>(entries);
+        if (!newestGoesFirst) {
+            Collections.reverse(response);
+        }
+
+        return GENSON.serialize(response);
+    }
+
+    /**
+     * Opens the history of every key the ppe has been stored under: the bare inventory number key before
+     * the namespace and the record key of each subsidiary ever listed in the pointer
+     *
+     * @param stub the chaincode stub
+     * @param inventoryNumber PPE inventory number
+     * @return merged history from the newest modification to the oldest one
+     */
+    private MergedHistory openHistory(final ChaincodeStub stub, final String inventoryNumber) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (String subsidiary: PPEKeys.subsidiaries(stub, inventoryNumber)) {
+            keys.add(PPEKeys.recordKey(stub, subsidiary, inventoryNumber));
+        }
+        QueryResultsIterator<KeyModification> pointerHistory = stub.getHistoryForKey(PPEKeys.pointerKey(stub, inventoryNumber));
+        try {
+            for (KeyModification keyModification: pointerHistory) {
+                if (keyModification.isDeleted()) {
+                    continue;
+                }
+                for (String subsidiary: PPEKeys.decodePointer(keyModification.getValue())) {
+                    keys.add(PPEKeys.recordKey(stub, subsidiary, inventoryNumber));
+                }
+            }
+        } finally {
+            closeIterator(pointerHistory);
+        }
+        keys.add(inventoryNumber);
+
+        List<QueryResultsIterator<KeyModification>> histories = new ArrayList<>(keys.size());
+        for (String key: keys) {
+            histories.add(stub.getHistoryForKey(key));
+        }
+        return new MergedHistory(histories);
+    }
+
+    private PPEHistoryEntry toHistoryEntry(final KeyModification keyModification) {
+        PPE ppe = keyModification.isDeleted() ? null : CODEC.decode(keyModification.getValue());
+        Instant timestamp = keyModification.getTimestamp();
+
+        return new PPEHistoryEntry(keyModification.getTxId(), timestamp == null ? null : timestamp.toString(),
+                keyModification.isDeleted(), ppe);
+    }
+
+    /**
+     * Parses the history cursor
+     *
+     * @param since ISO-8601 timestamp or transaction id
+     * @return the timestamp or null if the cursor is a transaction id or empty
+     */
+    private Instant parseTimestamp(final String since) {
+        if (since == null || since.isEmpty()) {
+            return null;
+        }
+        try {
+            return Instant.parse(since);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Updates the properties of an ppe on the ledger, an update leaving the stored value as it is writes nothing.
+     * The returned ppe is the same either way: the client learns of the no-op only after the commit, from the
+     * inventory number in the unchanged list of the {@link PPEChangeEvent}, the peer logs it only at FINE.
      *
-     * @param ctx the transaction context=
+     * @param ctx the transaction context
      * @param ownerID employee's personnel number being updated
      * @param price PPE price being updated
      * @param inventoryNumber PPE inventory number in subsidiary being updated
-     * @param subsidiary a company owned PPE / company where the employee is located being updated=
-     * @return the transferred ppe
+     * @param subsidiary a company owned PPE / company where the employee is located being updated
+     * @return the updated ppe
      */
     @Transaction(intent = Transaction.TYPE.SUBMIT)
     public PPE updatePPE(final Context ctx, final String ownerName,
@@ -146,23 +552,74 @@ public final class PPETransfer implements ContractInterface {
                            final String startUseDate, final Integer lifeTime,
                            final String subsidiary) {
         ChaincodeStub stub = ctx.getStub();
+        String key = locate(stub, inventoryNumber);
+        PPE ppe = key == null ? null : CODEC.decode(stub.getState(key));
+
+        if (ppe == null) {
+            String errorMessage = String.format("ppe %s does not exist", inventoryNumber);
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
+        }
+
+        PPE newPPE = new PPE(ownerName, ownerID, name, status, price, inventoryNumber,
+                normalizeDate(startUseDate), lifeTime, subsidiary);
+        boolean written = storePPE(ctx, key, ppe, newPPE);
+        LOGGER.fine(() -> "Update with: " + newPPE + " written: " + written);
+
+        return newPPE;
+    }
+
+    /**
+     * Changes only the named fields of ppe, a patch leaving the stored value as it is writes nothing.
+     * A no-op is reported as for {@link #updatePPE}, by the unchanged list of the change event.
+     *
+     * @param ctx the transaction context
+     * @param inventoryNumber PPE inventory number
+     * @param patchJSON JSON object with the fields to change, for example {"status":"REPAIR","price":12.5},
+     *                  a field set to null is cleared and the inventory number cannot be changed
+     * @return the patched ppe
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public PPE patchPPE(final Context ctx, final String inventoryNumber, final String patchJSON) {
+        ChaincodeStub stub = ctx.getStub();
+        Map<String, Object> patch = parsePatch(patchJSON);
+        String key = locate(stub, inventoryNumber);
+        PPE ppe = key == null ? null : CODEC.decode(stub.getState(key));
 
-        if (!isPPEExist(ctx, inventoryNumber)) {
+        if (ppe == null) {
             String errorMessage = String.format("ppe %s does not exist", inventoryNumber);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, PPETransferErrors.PPE_NOT_FOUND.toString());
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
         }
 
-        PPE newPPE = new PPE(ownerName, ownerID, name, status, price, inventoryNumber, startUseDate, lifeTime, subsidiary);
-        String newPPEJSON = genson.serialize(newPPE);
-        stub.putStringState(inventoryNumber, newPPEJSON);
-        System.out.println("Update with: " + newPPE.toString());
+        PPE newPPE;
+        try {
+            newPPE = PPEPatch.apply(ppe, patch);
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage(), PPETransferErrors.INVALID_ARGUMENT);
+        }
+        boolean written = storePPE(ctx, key, ppe, newPPE);
+        LOGGER.fine(() -> "Patch " + patch.keySet() + " of ppe {" + inventoryNumber + "} written: " + written);
 
         return newPPE;
     }
 
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> parsePatch(final String patchJSON) {
+        Map<String, Object> patch;
+        try {
+            patch = patchJSON == null || patchJSON.isEmpty() ? null : GENSON.deserialize(patchJSON, Map.class);
+        } catch (JsonBindingException e) {
+            String errorMessage = "patch must be a JSON object of ppe fields";
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT, e);
+        }
+        if (patch == null || patch.isEmpty()) {
+            String errorMessage = "patch must name at least one ppe field";
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+        return patch;
+    }
+
     /**
-     * Deletes ppe on the ledger.
+     * Deletes ppe on the ledger, use retirePPE to keep the final state of the ppe.
      *
      * @param ctx the transaction context
      * @param inventoryNumber PPE inventory number
@@ -170,15 +627,126 @@ public final class PPETransfer implements ContractInterface {
     @Transaction(intent = Transaction.TYPE.SUBMIT)
     public void deletePPE(final Context ctx, final String inventoryNumber) {
         ChaincodeStub stub = ctx.getStub();
+        String key = locate(stub, inventoryNumber);
+        PPE ppe = key == null ? null : CODEC.decode(stub.getState(key));
+
+        if (ppe == null) {
+            String errorMessage = String.format("ppe %s does not exist", inventoryNumber);
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
+        }
+
+        LOGGER.fine(() -> "ppe {" + inventoryNumber + "} deleted");
+        storePPE(ctx, key, ppe, null);
+    }
+
+    /**
+     * Moves the final state of the ppe from the live records into the archive, removing its index entries.
+     *
+     * @param ctx the transaction context
+     * @param inventoryNumber PPE inventory number
+     * @return the archived ppe
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public PPE retirePPE(final Context ctx, final String inventoryNumber) {
+        return retire(ctx, inventoryNumber);
+    }
+
+    /**
+     * Moves a list of ppes into the archive in one transaction, their final states are compressed together.
+     *
+     * @param ctx the transaction context
+     * @param inventoryNumbersJSON JSON array of inventory numbers
+     * @param mode ATOMIC to reject the whole batch on the first failed item, PER_ITEM to report each item result
+     * @return JSON batch result with the result of each item
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String retirePPEBatch(final Context ctx, final String inventoryNumbersJSON, final String mode) {
+        PPEBatch.Mode batchMode = parseBatchMode(mode);
+        String[] inventoryNumbers = parseBatch(inventoryNumbersJSON, String[].class);
+        PPEContext context = (PPEContext) ctx;
+
+        PPEBatch.Result result = new PPEBatch.Result(batchMode);
+        Set<String> batchKeys = new HashSet<>();
+        context.setPerItem(batchMode == PPEBatch.Mode.PER_ITEM);
+        for (int i = 0; i < inventoryNumbers.length; i++) {
+            String inventoryNumber = inventoryNumbers[i];
+            try {
+                checkBatchItem(batchKeys, inventoryNumber, i);
+                retire(ctx, inventoryNumber);
+                result.succeeded(inventoryNumber, true);
+            } catch (ChaincodeException e) {
+                handleBatchItemFailure(context, result, i, inventoryNumber, e);
+            }
+        }
+        context.setPerItem(false);
+
+        return GENSON.serialize(result);
+    }
+
+    private PPE retire(final Context ctx, final String inventoryNumber) {
+        ChaincodeStub stub = ctx.getStub();
+        String key = locate(stub, inventoryNumber);
+        PPE ppe = key == null ? null : CODEC.decode(stub.getState(key));
 
-        if (!isPPEExist(ctx, inventoryNumber)) {
+        if (ppe == null) {
             String errorMessage = String.format("ppe %s does not exist", inventoryNumber);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, PPETransferErrors.PPE_NOT_FOUND.toString());
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
+        }
+
+        storePPE(ctx, key, ppe, null);
+        // the chunk is written once after the transaction, the pointer names the position of the ppe in it
+        PPEArchive.putPointer(stub, ppe, ((PPEContext) ctx).retire(ppe));
+        LOGGER.fine(() -> "ppe {" + inventoryNumber + "} retired");
+        return ppe;
+    }
+
+    /**
+     * Retrieves the final state of a retired ppe from the archive.
+     *
+     * @param ctx the transaction context
+     * @param inventoryNumber PPE inventory number
+     * @return the ppe as it was when retired, the latest one if the inventory number was retired again
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public PPE readArchivedPPE(final Context ctx, final String inventoryNumber) {
+        ChaincodeStub stub = ctx.getStub();
+        List<KeyValue> pointers = PPEArchive.pointers(stub, inventoryNumber);
+
+        if (pointers.isEmpty()) {
+            String errorMessage = String.format("ppe with inventory number %s is not archived", inventoryNumber);
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
+        }
+        if (pointers.size() > 1) {
+            List<String> subsidiaries = new ArrayList<>();
+            for (KeyValue pointer: pointers) {
+                subsidiaries.add(PPEArchive.subsidiaryOf(stub, pointer.getKey()));
+            }
+            String errorMessage = String.format("inventory number %s is archived in subsidiaries %s",
+                    inventoryNumber, subsidiaries);
+            throw error(errorMessage, PPETransferErrors.AMBIGUOUS_INVENTORY_NUMBER);
         }
+        return PPEArchive.read(stub, pointers.get(0).getValue(), CODEC);
+    }
+
+    /**
+     * Retrieves the final state of a ppe retired by the subsidiary, also when its inventory number was retired
+     * by other subsidiaries.
+     *
+     * @param ctx the transaction context
+     * @param subsidiary a company owned PPE
+     * @param inventoryNumber PPE inventory number in subsidiary
+     * @return the ppe as it was when retired
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public PPE readArchivedSubsidiaryPPE(final Context ctx, final String subsidiary, final String inventoryNumber) {
+        ChaincodeStub stub = ctx.getStub();
+        byte[] pointer = PPEArchive.pointer(stub, subsidiary, inventoryNumber);
 
-        System.out.println("ppe {" + stub.getStringArgs().toString() + "} deleted");
-        stub.delState(inventoryNumber);
+        if (pointer == null) {
+            String errorMessage = String.format("ppe %s of subsidiary %s is not archived", inventoryNumber, subsidiary);
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
+        }
+        return PPEArchive.read(stub, pointer, CODEC);
     }
 
     /**
@@ -191,13 +759,13 @@ public final class PPETransfer implements ContractInterface {
     @Transaction(intent = Transaction.TYPE.EVALUATE)
     public boolean isPPEExist(final Context ctx, final String inventoryNumber) {
         ChaincodeStub stub = ctx.getStub();
-        String ppeJSON = stub.getStringState(inventoryNumber);
 
-        return (ppeJSON != null && !ppeJSON.isEmpty());
+        return !PPEKeys.subsidiaries(stub, inventoryNumber).isEmpty() || isStored(stub, inventoryNumber);
     }
 
     /**
-     * Changes the owner of a ppe on the ledger.
+     * Changes the owner of a ppe on the ledger. A repeated transfer writes nothing and is reported as for
+     * {@link #updatePPE}, by the unchanged list of the change event.
      *
      * @param ctx the transaction context
      * @param transferToSubsidiary the company to which the employee is transferred
@@ -206,26 +774,63 @@ public final class PPETransfer implements ContractInterface {
      */
     @Transaction(intent = Transaction.TYPE.SUBMIT)
     public PPE transferPPE(final Context ctx, final String inventoryNumber, final String transferToSubsidiary, final String transferStatus) {
+        return transfer(ctx, inventoryNumber, transferToSubsidiary, transferStatus);
+    }
+
+    /**
+     * Changes the owner of a list of ppes on the ledger in one transaction.
+     *
+     * @param ctx the transaction context
+     * @param transfersJSON JSON array of {inventoryNumber, transferToSubsidiary, transferStatus} items
+     * @param mode ATOMIC to reject the whole batch on the first failed item, PER_ITEM to report each item result
+     * @return JSON batch result with the result of each item
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String transferPPEBatch(final Context ctx, final String transfersJSON, final String mode) {
+        PPEBatch.Mode batchMode = parseBatchMode(mode);
+        PPEBatch.TransferItem[] items = parseBatch(transfersJSON, PPEBatch.TransferItem[].class);
+        PPEContext context = (PPEContext) ctx;
+
+        PPEBatch.Result result = new PPEBatch.Result(batchMode);
+        Set<String> batchKeys = new HashSet<>();
+        context.setPerItem(batchMode == PPEBatch.Mode.PER_ITEM);
+        for (int i = 0; i < items.length; i++) {
+            PPEBatch.TransferItem item = items[i];
+            String inventoryNumber = item == null ? null : item.getInventoryNumber();
+            try {
+                checkBatchItem(batchKeys, inventoryNumber, i);
+                int stateWrites = context.getStateWrites();
+                transfer(ctx, inventoryNumber, item.getTransferToSubsidiary(), item.getTransferStatus());
+                result.succeeded(inventoryNumber, context.getStateWrites() > stateWrites);
+            } catch (ChaincodeException e) {
+                handleBatchItemFailure(context, result, i, inventoryNumber, e);
+            }
+        }
+        context.setPerItem(false);
+
+        return GENSON.serialize(result);
+    }
+
+    private PPE transfer(final Context ctx, final String inventoryNumber, final String transferToSubsidiary, final String transferStatus) {
         ChaincodeStub stub = ctx.getStub();
-        String ppeJSON = stub.getStringState(inventoryNumber);
+        String key = locate(stub, inventoryNumber);
+        PPE ppe = key == null ? null : CODEC.decode(stub.getState(key));
 
-        if (ppeJSON == null || ppeJSON.isEmpty()) {
+        if (ppe == null) {
             String errorMessage = String.format("ppe %s does not exist", inventoryNumber);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, PPETransferErrors.PPE_NOT_FOUND.toString());
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
         }
 
-        PPE ppe = genson.deserialize(ppeJSON, PPE.class);
-
-        PPE newPPE = new PPE(ppe.getOwnerName(), ppe.getOwnerID(), ppe.getName(), transferStatus, ppe.getPrice(),
-                ppe.getInventoryNumber(), ppe.getStartUseDate(), ppe.getLifeTime(), transferToSubsidiary);
-        String newPPEJSON = genson.serialize(newPPE);
-        stub.putStringState(inventoryNumber, newPPEJSON);
+        PPE newPPE = ppe.withStatus(transferStatus, transferToSubsidiary);
+        storePPE(ctx, key, ppe, newPPE);
+        PPEIndex.addIncoming(stub, newPPE);
 
         return newPPE;
     }
 
     /**
+     * Accepts the transfer of a ppe by its receiving subsidiary. A repeated acceptance writes nothing and is
+     * reported as for {@link #updatePPE}, by the unchanged list of the change event.
      *
      * @param ctx the transaction context
      * @param inventoryNumber ppe inventory number for apply tranfering process
@@ -234,47 +839,1033 @@ public final class PPETransfer implements ContractInterface {
      */
     @Transaction(intent = Transaction.TYPE.SUBMIT)
     public PPE applyTransferPPE(final Context ctx, final String inventoryNumber, final String status) {
+        return applyTransfer(ctx, inventoryNumber, status);
+    }
+
+    /**
+     * Applies the transfer of a list of ppes on the ledger in one transaction.
+     *
+     * @param ctx the transaction context
+     * @param appliesJSON JSON array of {inventoryNumber, status} items
+     * @param mode ATOMIC to reject the whole batch on the first failed item, PER_ITEM to report each item result
+     * @return JSON batch result with the result of each item
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String applyTransferPPEBatch(final Context ctx, final String appliesJSON, final String mode) {
+        PPEBatch.Mode batchMode = parseBatchMode(mode);
+        PPEBatch.ApplyTransferItem[] items = parseBatch(appliesJSON, PPEBatch.ApplyTransferItem[].class);
+        PPEContext context = (PPEContext) ctx;
+
+        PPEBatch.Result result = new PPEBatch.Result(batchMode);
+        Set<String> batchKeys = new HashSet<>();
+        context.setPerItem(batchMode == PPEBatch.Mode.PER_ITEM);
+        for (int i = 0; i < items.length; i++) {
+            PPEBatch.ApplyTransferItem item = items[i];
+            String inventoryNumber = item == null ? null : item.getInventoryNumber();
+            try {
+                checkBatchItem(batchKeys, inventoryNumber, i);
+                int stateWrites = context.getStateWrites();
+                applyTransfer(ctx, inventoryNumber, item.getStatus());
+                result.succeeded(inventoryNumber, context.getStateWrites() > stateWrites);
+            } catch (ChaincodeException e) {
+                handleBatchItemFailure(context, result, i, inventoryNumber, e);
+            }
+        }
+        context.setPerItem(false);
+
+        return GENSON.serialize(result);
+    }
+
+    private PPE applyTransfer(final Context ctx, final String inventoryNumber, final String status) {
         ChaincodeStub stub = ctx.getStub();
-        String ppeJSON = stub.getStringState(inventoryNumber);
+        String key = locate(stub, inventoryNumber);
+        PPE ppe = key == null ? null : CODEC.decode(stub.getState(key));
 
-        if (ppeJSON == null || ppeJSON.isEmpty()) {
+        if (ppe == null) {
             String errorMessage = String.format("ppe %s does not exist", inventoryNumber);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, PPETransferErrors.PPE_NOT_FOUND.toString());
+            throw error(errorMessage, PPETransferErrors.PPE_NOT_FOUND);
         }
 
-        PPE ppe = genson.deserialize(ppeJSON, PPE.class);
+        return accept(ctx, key, ppe, status);
+    }
 
-        PPE newPPE = new PPE(ppe.getOwnerName(), ppe.getOwnerID(), ppe.getName(), status, ppe.getPrice(),
-                ppe.getInventoryNumber(), ppe.getStartUseDate(), ppe.getLifeTime(), ppe.getSubsidiary());
-        String newPPEJSON = genson.serialize(newPPE);
-        stub.putStringState(inventoryNumber, newPPEJSON);
+    /**
+     * Accepts the ppe by its subsidiary and removes it from the inbox
+     */
+    private PPE accept(final Context ctx, final String key, final PPE ppe, final String status) {
+        PPE newPPE = ppe.withStatus(status, ppe.getSubsidiary());
+        storePPE(ctx, key, ppe, newPPE);
+        PPEIndex.removeIncoming(ctx.getStub(), ppe);
 
         return newPPE;
     }
 
     /**
-     * Retrieves all ppes from the ledger.
+     * Retrieves one page of ppes transferred to the subsidiary and not yet accepted by it.
      *
      * @param ctx the transaction context
-     * @return array of ppes found on the ledger
+     * @param subsidiary the receiving company
+     * @param pageSize maximum number of ppes in the page
+     * @param bookmark bookmark returned with the previous page, empty for the first page
+     * @return page of ppes with the fetched records count and the bookmark of the next page
      */
     @Transaction(intent = Transaction.TYPE.EVALUATE)
-    public String getAllPPEs(final Context ctx) {
+    public String listIncomingTransfers(final Context ctx, final String subsidiary, final Integer pageSize,
+                                        final String bookmark) {
         ChaincodeStub stub = ctx.getStub();
 
-        List<PPE> queryResults = new ArrayList<PPE>();
-
-        QueryResultsIterator<KeyValue> results = stub.getStateByRange("", "");
+        checkSubsidiary(subsidiary);
+        checkPageSize(pageSize);
 
-        for (KeyValue result: results) {
-            PPE ppe = genson.deserialize(result.getStringValue(), PPE.class);
-            queryResults.add(ppe);
-            System.out.println(ppe.toString());
+        StringBuilder response = new StringBuilder("{\"records\":[");
+        int fetched = 0;
+        String nextBookmark;
+        QueryResultsIteratorWithMetadata<KeyValue> entries = stub.getStateByPartialCompositeKeyWithPagination(
+                new CompositeKey(PPEIndex.INBOX, subsidiary), pageSize, bookmark == null ? "" : bookmark);
+        try {
+            for (KeyValue entry: entries) {
+                String ppeJSON = CODEC.toJSON(stub.getState(PPEIndex.recordKeyOf(stub, entry.getKey())));
+                if (ppeJSON == null) {
+                    continue;
+                }
+                if (fetched > 0) {
+                    response.append(',');
+                }
+                response.append(ppeJSON);
+                fetched++;
+            }
+            nextBookmark = entries.getMetadata().getBookmark();
+        } finally {
+            closeIterator(entries);
         }
 
-        final String response = genson.serialize(queryResults);
+        response.append("],\"fetchedRecordsCount\":").append(fetched)
+                .append(",\"bookmark\":").append(GENSON.serialize(nextBookmark == null ? "" : nextBookmark))
+                .append('}');
+        return response.toString();
+    }
 
-        return response;
+    /**
+     * Accepts a bounded chunk of the ppes transferred to the subsidiary. Accepted ppes leave the inbox,
+     * so the transaction is repeated until nothing is left.
+     *
+     * @param ctx the transaction context
+     * @param subsidiary the receiving company
+     * @param status marker to change status of ppes as applied
+     * @param max maximum number of ppes accepted by the transaction
+     * @return JSON with the number of accepted ppes, accepted ppes whose record already held the status,
+     * dropped stale inbox entries and whether the inbox has more
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String acceptAllIncoming(final Context ctx, final String subsidiary, final String status, final Integer max) {
+        ChaincodeStub stub = ctx.getStub();
+
+        checkSubsidiary(subsidiary);
+        if (max == null || max <= 0 || max > MAX_BATCH_SIZE) {
+            String errorMessage = String.format("ppes to accept must be between 1 and %d", MAX_BATCH_SIZE);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+
+        // paginated queries are not allowed in submit transactions, so the inbox is cut by the count
+        PPEContext context = (PPEContext) ctx;
+        int suppressedWrites = context.getSuppressedWrites();
+        int accepted = 0;
+        int skipped = 0;
+        boolean hasMore = false;
+        QueryResultsIterator<KeyValue> entries = stub.getStateByPartialCompositeKey(new CompositeKey(PPEIndex.INBOX, subsidiary));
+        try {
+            for (KeyValue entry: entries) {
+                if (accepted + skipped == max) {
+                    hasMore = true;
+                    break;
+                }
+                String key = PPEIndex.recordKeyOf(stub, entry.getKey());
+                PPE ppe = CODEC.decode(stub.getState(key));
+                if (ppe == null) {
+                    LOGGER.warning(() -> "inbox entry {" + entry.getKey() + "} has no ppe");
+                    stub.delState(entry.getKey());
+                    skipped++;
+                    continue;
+                }
+                accept(ctx, key, ppe, status);
+                accepted++;
+            }
+        } finally {
+            closeIterator(entries);
+        }
+
+        return "{\"accepted\":" + accepted + ",\"unchanged\":" + (context.getSuppressedWrites() - suppressedWrites)
+                + ",\"skipped\":" + skipped + ",\"hasMore\":" + hasMore + "}";
+    }
+
+    private void checkSubsidiary(final String subsidiary) {
+        if (subsidiary == null || subsidiary.isEmpty()) {
+            String errorMessage = "subsidiary must not be empty";
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+    }
+
+    private String normalizeDate(final String startUseDate) {
+        try {
+            return PPEDates.normalize(startUseDate);
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage(), PPETransferErrors.INVALID_ARGUMENT);
+        }
+    }
+
+    private PPE addPPE(final Context ctx, final PPE newPPE) {
+        ChaincodeStub stub = ctx.getStub();
+        String inventoryNumber = newPPE.getInventoryNumber();
+
+        // an inventory number is held by one subsidiary at a time, so that the transactions taking the inventory
+        // number alone find one record; a record written before the namespace blocks it until it is migrated
+        List<String> subsidiaries = PPEKeys.subsidiaries(stub, inventoryNumber);
+        if (!subsidiaries.isEmpty() || isStored(stub, inventoryNumber)) {
+            String errorMessage = String.format("PPE %s already exists in subsidiary %s", inventoryNumber,
+                    subsidiaries.isEmpty() ? "" : subsidiaries.get(0));
+            throw error(errorMessage, PPETransferErrors.PPE_ALREADY_EXISTS);
+        }
+
+        String startUseDate = normalizeDate(newPPE.getStartUseDate());
+        PPE ppe = Objects.equals(startUseDate, newPPE.getStartUseDate()) ? newPPE
+                : new PPE(newPPE.getOwnerName(), newPPE.getOwnerID(), newPPE.getName(), newPPE.getStatus(),
+                        newPPE.getPrice(), inventoryNumber, startUseDate, newPPE.getLifeTime(), newPPE.getSubsidiary());
+
+        LOGGER.fine(() -> "ADD PPE: " + ppe);
+        storePPE(ctx, null, null, ppe);
+
+        return ppe;
+    }
+
+    /**
+     * Writes the ppe record together with its pointer, indexes and aggregate deltas, a ppe moved to another
+     * subsidiary or out of the bare inventory number key changes its record key. The change goes to the
+     * change event of the transaction.
+     *
+     * @param ctx the transaction context
+     * @param oldKey key of the ppe record before the write, null for a new ppe
+     * @param oldPPE ppe stored on the ledger before the write, null for a new ppe
+     * @param newPPE ppe to store, null to delete the ppe
+     * @return false if the record already holds the same bytes and nothing is written
+     */
+    private boolean storePPE(final Context ctx, final String oldKey, final PPE oldPPE, final PPE newPPE) {
+        ChaincodeStub stub = ctx.getStub();
+        String newKey = newPPE == null ? null : PPEKeys.recordKey(stub, newPPE);
+        byte[] value = newPPE == null ? null : CODEC.encode(newPPE);
+        // an unchanged record adds nothing to the write set, the history or the change event
+        if (newKey != null && newKey.equals(oldKey) && Arrays.equals(value, stub.getState(oldKey))) {
+            ((PPEContext) ctx).suppressWrite(oldKey, newPPE.getInventoryNumber());
+            return false;
+        }
+        if (oldKey != null && !oldKey.equals(newKey)) {
+            if (newKey != null && isStored(stub, newKey)) {
+                String errorMessage = String.format("PPE %s already exists in subsidiary %s",
+                        newPPE.getInventoryNumber(), newPPE.getSubsidiary());
+                throw error(errorMessage, PPETransferErrors.PPE_ALREADY_EXISTS);
+            }
+            stub.delState(oldKey);
+            // a pending transfer is no longer awaited by the subsidiary the ppe has left
+            if (!PPEKeys.isLegacyKey(oldKey)) {
+                PPEIndex.removeIncoming(stub, oldPPE);
+            }
+        }
+        if (newKey != null) {
+            stub.putState(newKey, value);
+        }
+
+        boolean legacy = oldKey != null && PPEKeys.isLegacyKey(oldKey);
+        String inventoryNumber = newPPE == null ? oldPPE.getInventoryNumber() : newPPE.getInventoryNumber();
+        PPEKeys.updatePointer(stub, inventoryNumber,
+                oldPPE == null || legacy ? null : PPEKeys.partitionOf(oldPPE),
+                newPPE == null ? null : PPEKeys.partitionOf(newPPE));
+        // records under bare keys predate the indexes and the aggregates, so the move adds them for the first time
+        PPEIndex.update(stub, legacy ? null : oldPPE, newPPE);
+        PPEAggregates.record(stub, legacy ? null : oldPPE, newPPE);
+
+        PPEContext context = (PPEContext) ctx;
+        if (oldPPE != null && (newPPE == null || !PPEKeys.partitionOf(oldPPE).equals(PPEKeys.partitionOf(newPPE)))) {
+            context.recordChange(PPEKeys.recordKey(stub, oldPPE), inventoryNumber, PPEKeys.partitionOf(oldPPE), null);
+        }
+        if (newPPE != null) {
+            context.recordChange(newKey, inventoryNumber, PPEKeys.partitionOf(newPPE), newPPE);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the record key of the ppe by its inventory number through the pointer key
+     *
+     * @param stub the chaincode stub
+     * @param inventoryNumber PPE inventory number
+     * @return key of the ppe record, null if there is no such ppe
+     */
+    private String locate(final ChaincodeStub stub, final String inventoryNumber) {
+        List<String> subsidiaries = PPEKeys.subsidiaries(stub, inventoryNumber);
+        if (subsidiaries.size() > 1) {
+            String errorMessage = String.format("inventory number %s is used in subsidiaries %s, read it by subsidiary",
+                    inventoryNumber, subsidiaries);
+            throw error(errorMessage, PPETransferErrors.AMBIGUOUS_INVENTORY_NUMBER);
+        }
+        if (subsidiaries.size() == 1) {
+            return PPEKeys.recordKey(stub, subsidiaries.get(0), inventoryNumber);
+        }
+        // records written before the namespace stay under the bare inventory number until they are migrated
+        return isStored(stub, inventoryNumber) ? inventoryNumber : null;
+    }
+
+    private boolean isStored(final ChaincodeStub stub, final String key) {
+        byte[] state = stub.getState(key);
+        return state != null && state.length > 0;
+    }
+
+    private PPEBatch.Mode parseBatchMode(final String mode) {
+        if (mode == null || mode.isEmpty()) {
+            return PPEBatch.Mode.ATOMIC;
+        }
+        try {
+            return PPEBatch.Mode.valueOf(mode);
+        } catch (IllegalArgumentException e) {
+            String errorMessage = String.format("unknown batch mode %s", mode);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+    }
+
+    private <T> T[] parseBatch(final String itemsJSON, final Class<T[]> itemsClass) {
+        T[] items;
+        try {
+            items = itemsJSON == null || itemsJSON.isEmpty() ? null : GENSON.deserialize(itemsJSON, itemsClass);
+        } catch (JsonBindingException e) {
+            String errorMessage = "batch must be a JSON array of items";
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT, e);
+        }
+
+        if (items == null || items.length == 0) {
+            String errorMessage = "batch must not be empty";
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+        if (items.length > MAX_BATCH_SIZE) {
+            String errorMessage = String.format("batch of %d items exceeds the limit of %d items", items.length, MAX_BATCH_SIZE);
+            throw error(errorMessage, PPETransferErrors.BATCH_TOO_LARGE);
+        }
+
+        return items;
+    }
+
+    /**
+     * Rejects items without a key and repeated keys, so that every item of a batch works on the ledger state
+     * committed before the batch
+     */
+    private void checkBatchItem(final Set<String> batchKeys, final String inventoryNumber, final int index) {
+        if (inventoryNumber == null || inventoryNumber.isEmpty()) {
+            String errorMessage = String.format("batch item %d has no inventory number", index);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+        if (!batchKeys.add(inventoryNumber)) {
+            String errorMessage = String.format("ppe %s is repeated in the batch", inventoryNumber);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+    }
+
+    private void handleBatchItemFailure(final PPEContext context, final PPEBatch.Result result, final int index,
+                                        final String inventoryNumber, final ChaincodeException e) {
+        String errorCode = e.getPayload() == null ? null : new String(e.getPayload(), StandardCharsets.UTF_8);
+        if (result.getMode() == PPEBatch.Mode.ATOMIC) {
+            String errorMessage = String.format("batch item %d failed: %s", index, e.getMessage());
+            throw new ChaincodeException(errorMessage, errorCode, e);
+        }
+        ContractMetrics.itemError(context, errorCode);
+        result.failed(inventoryNumber, errorCode, e.getMessage());
+    }
+
+    /**
+     * Retrieves all ppes from the ledger.
+     *
+     * @param ctx the transaction context
+     * @return array of ppes found on the ledger
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String getAllPPEs(final Context ctx) {
+        StringBuilder response = new StringBuilder("[");
+        scanRecords(ctx.getStub(), null, new PPEProjection(CODEC, ALL_FIELDS, null), response);
+        return response.append(']').toString();
+    }
+
+    /**
+     * Retrieves one page of ppes from the ledger.
+     *
+     * @param ctx the transaction context
+     * @param pageSize maximum number of ppes in the page
+     * @param bookmark bookmark returned with the previous page, empty for the first page
+     * @return page of ppes with the fetched records count and the bookmark of the next page
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String getAllPPEsWithPagination(final Context ctx, final Integer pageSize, final String bookmark) {
+        checkPageSize(pageSize);
+
+        PPEProjection projection = new PPEProjection(CODEC, ALL_FIELDS, null);
+        StringBuilder response = new StringBuilder("{\"records\":[");
+        String nextBookmark = scanRecordsPage(ctx.getStub(), null, pageSize, bookmark, projection, response);
+
+        response.append("],\"fetchedRecordsCount\":").append(projection.getMatched())
+                .append(",\"bookmark\":").append(GENSON.serialize(nextBookmark))
+                .append('}');
+        return response.toString();
+    }
+
+    /**
+     * Counts ppes matching the filter. Predicates are evaluated on the stored bytes without decoding ppes,
+     * a filter by subsidiary reads only the range of record keys of the subsidiary.
+     *
+     * @param ctx the transaction context
+     * @param filterJSON JSON object with optional subsidiary, status, ownerID, minPrice and maxPrice,
+     *                   empty to count every ppe
+     * @return number of matching ppes
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public int countPPEs(final Context ctx, final String filterJSON) {
+        PPEFilter filter = parseFilter(filterJSON);
+
+        PPEProjection projection = new PPEProjection(CODEC, ALL_FIELDS, filter);
+        scanRecords(ctx.getStub(), filter == null ? null : filter.getSubsidiary(), projection, null);
+        return projection.getMatched();
+    }
+
+    /**
+     * Retrieves one page of ppes matching the filter with only the requested fields. Fields the query needs
+     * neither for the filter nor for the response are skipped in the stored bytes without decoding.
+     *
+     * @param ctx the transaction context
+     * @param fields comma-separated names of the ppe fields in the response, empty for every field
+     * @param filterJSON JSON object with optional subsidiary, status, ownerID, minPrice and maxPrice,
+     *                   empty to match every ppe
+     * @param pageSize maximum number of ppes scanned for the page
+     * @param bookmark bookmark returned with the previous page, empty for the first page
+     * @return page of projected ppes with the matched and scanned records counts and the bookmark of the next page
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String scanPPEs(final Context ctx, final String fields, final String filterJSON, final Integer pageSize,
+                           final String bookmark) {
+        checkPageSize(pageSize);
+        PPEFilter filter = parseFilter(filterJSON);
+
+        PPEProjection projection;
+        try {
+            projection = new PPEProjection(CODEC, fields == null || fields.trim().isEmpty()
+                    ? ALL_FIELDS : fields.split(","), filter);
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage(), PPETransferErrors.INVALID_ARGUMENT);
+        }
+        StringBuilder response = new StringBuilder("{\"records\":[");
+        String nextBookmark = scanRecordsPage(ctx.getStub(), filter == null ? null : filter.getSubsidiary(),
+                pageSize, bookmark, projection, response);
+
+        response.append("],\"fetchedRecordsCount\":").append(projection.getMatched())
+                .append(",\"scannedRecordsCount\":").append(projection.getScanned())
+                .append(",\"bookmark\":").append(GENSON.serialize(nextBookmark))
+                .append('}');
+        return response.toString();
+    }
+
+    private void checkPageSize(final Integer pageSize) {
+        if (pageSize == null || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            String errorMessage = String.format("page size must be between 1 and %d", MAX_PAGE_SIZE);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+    }
+
+    private PPEFilter parseFilter(final String filterJSON) {
+        if (filterJSON == null || filterJSON.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return GENSON.deserialize(filterJSON, PPEFilter.class);
+        } catch (JsonBindingException e) {
+            String errorMessage = String.format("filter %s is not a ppe filter", filterJSON);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT, e);
+        }
+    }
+
+    /**
+     * Passes every stored ppe through the projection: the subsidiary namespace first, then the records not yet
+     * moved by migrateKeys unless the migration has drained them
+     *
+     * @param stub the chaincode stub
+     * @param subsidiary subsidiary to read the range of record keys of, null for every subsidiary
+     * @param projection projection writing the matching ppes
+     * @param response builder of the JSON array, null to count ppes only
+     */
+    private void scanRecords(final ChaincodeStub stub, final String subsidiary, final PPEProjection projection,
+                             final StringBuilder response) {
+        QueryResultsIterator<KeyValue> records = stub.getStateByPartialCompositeKey(recordRange(subsidiary));
+        try {
+            appendRecords(records, projection, response);
+        } finally {
+            closeIterator(records);
+        }
+
+        // records not yet moved by migrateKeys stay under bare inventory number keys, the range holds nothing
+        // else and is read by every scan until the migration marks it drained
+        if (PPEKeys.isLegacyDrained(stub)) {
+            return;
+        }
+        QueryResultsIterator<KeyValue> legacyRecords = stub.getStateByRange("", "");
+        try {
+            appendRecords(legacyRecords, projection, response);
+        } finally {
+            closeIterator(legacyRecords);
+        }
+    }
+
+    /**
+     * Passes one page of stored ppes through the projection
+     *
+     * @param stub the chaincode stub
+     * @param subsidiary subsidiary to read the range of record keys of, null for every subsidiary
+     * @param pageSize maximum number of ppes read
+     * @param bookmark bookmark returned with the previous page, empty for the first page
+     * @param projection projection writing the matching ppes
+     * @param response builder of the JSON array
+     * @return bookmark of the next page, empty after the last page
+     */
+    private String scanRecordsPage(final ChaincodeStub stub, final String subsidiary, final int pageSize,
+                                   final String bookmark, final PPEProjection projection,
+                                   final StringBuilder response) {
+        // bookmark is the key space being read, the subsidiary namespace or the bare inventory number keys
+        // not yet migrated, followed by the bookmark of the page inside that key space
+        boolean legacy = false;
+        String pageBookmark = "";
+        if (bookmark != null && !bookmark.isEmpty()) {
+            char keySpace = bookmark.charAt(0);
+            if (keySpace != RECORDS_BOOKMARK && keySpace != LEGACY_BOOKMARK) {
+                String errorMessage = String.format("bookmark %s is not a ppe page bookmark", bookmark);
+                throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+            }
+            legacy = keySpace == LEGACY_BOOKMARK && !PPEKeys.isLegacyDrained(stub);
+            pageBookmark = bookmark.substring(1);
+            if (keySpace == LEGACY_BOOKMARK && !legacy) {
+                return "";
+            }
+        }
+
+        String nextBookmark = "";
+        if (!legacy) {
+            QueryResultsIteratorWithMetadata<KeyValue> records = stub.getStateByPartialCompositeKeyWithPagination(
+                    recordRange(subsidiary), pageSize, pageBookmark);
+            try {
+                appendRecords(records, projection, response);
+                pageBookmark = records.getMetadata().getBookmark();
+            } finally {
+                closeIterator(records);
+            }
+
+            if (pageBookmark != null && !pageBookmark.isEmpty()) {
+                nextBookmark = RECORDS_BOOKMARK + pageBookmark;
+            } else {
+                legacy = !PPEKeys.isLegacyDrained(stub);
+                pageBookmark = "";
+                if (legacy && projection.getScanned() == pageSize) {
+                    nextBookmark = String.valueOf(LEGACY_BOOKMARK);
+                }
+            }
+        }
+        if (legacy && projection.getScanned() < pageSize) {
+            QueryResultsIteratorWithMetadata<KeyValue> legacyRecords =
+                    stub.getStateByRangeWithPagination("", "", pageSize - projection.getScanned(), pageBookmark);
+            try {
+                appendRecords(legacyRecords, projection, response);
+                pageBookmark = legacyRecords.getMetadata().getBookmark();
+            } finally {
+                closeIterator(legacyRecords);
+            }
+
+            if (pageBookmark != null && !pageBookmark.isEmpty()) {
+                nextBookmark = LEGACY_BOOKMARK + pageBookmark;
+            }
+        }
+        return nextBookmark;
+    }
+
+    /**
+     * Exports ppes in key order into one size-bounded chunk, the next chunk starts at the returned resume key.
+     * Subsidiaries or key ranges can be exported in parallel, a range ends at its end key; records not yet moved
+     * by migrateKeys come only with the export of every subsidiary, after the namespaced records.
+     *
+     * @param ctx the transaction context
+     * @param subsidiary subsidiary to export, empty for every subsidiary
+     * @param startKey resume key returned with the previous chunk or by getExportKey, empty for the first chunk
+     * @param endKey export key the range stops before, from getExportKey or a resume key; empty for the end
+     * @param maxBytes upper bound for the bytes of the data as the response writes it, escaped in a JSON string, or
+     * before the compression for +gzip; a single larger ppe makes a chunk of its own
+     * @param format ndjson or columns, optionally followed by +gzip for gzipped base64 data; empty for ndjson
+     * @return JSON with the format, the data, the count of ppes, the SHA-256 checksum of the uncompressed data
+     * and the resume key of the next chunk, empty after the last chunk
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String exportPPEs(final Context ctx, final String subsidiary, final String startKey, final String endKey,
+                             final Integer maxBytes, final String format) {
+        if (maxBytes == null || maxBytes <= 0 || maxBytes > MAX_EXPORT_BYTES) {
+            String errorMessage = String.format("chunk size must be between 1 and %d bytes", MAX_EXPORT_BYTES);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+        PPEExport export;
+        try {
+            export = new PPEExport(CODEC, GENSON, format, maxBytes);
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage(), PPETransferErrors.INVALID_ARGUMENT);
+        }
+        ChaincodeStub stub = ctx.getStub();
+        String partition = subsidiary == null || subsidiary.isEmpty() ? null : subsidiary;
+
+        // resume key is the key space being read and the ledger key of the first record left out, the range
+        // restarts from that key, so records written or deleted between chunks neither repeat nor go missing
+        char keySpace = RECORDS_BOOKMARK;
+        String firstKey = "";
+        if (startKey != null && !startKey.isEmpty()) {
+            keySpace = startKey.charAt(0);
+            firstKey = startKey.substring(1);
+            if (!isExportKey(keySpace, firstKey, partition)) {
+                String errorMessage = String.format("start key %s is not an export resume key", startKey);
+                throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+            }
+        }
+        char endSpace = LEGACY_BOOKMARK;
+        String lastKey = null;
+        if (endKey != null && !endKey.isEmpty()) {
+            endSpace = endKey.charAt(0);
+            lastKey = endKey.substring(1);
+            if (!isExportKey(endSpace, lastKey, partition)
+                    || keySpace == LEGACY_BOOKMARK && endSpace == RECORDS_BOOKMARK) {
+                String errorMessage = String.format("end key %s is not an export key after the start key", endKey);
+                throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+            }
+        }
+
+        String resumeKey = "";
+        if (keySpace == RECORDS_BOOKMARK) {
+            resumeKey = exportKeySpace(stub, RECORDS_BOOKMARK, partition, firstKey,
+                    endSpace == RECORDS_BOOKMARK ? lastKey : null, export);
+            firstKey = "";
+        }
+        if (resumeKey.isEmpty() && endSpace == LEGACY_BOOKMARK && partition == null && !PPEKeys.isLegacyDrained(stub)) {
+            resumeKey = exportKeySpace(stub, LEGACY_BOOKMARK, null, firstKey, lastKey, export);
+        }
+        return export.finish(resumeKey);
+    }
+
+    /**
+     * Builds the export key of a ppe record, so that the key space can be cut into ranges exported in parallel
+     *
+     * @param ctx the transaction context
+     * @param subsidiary subsidiary of the record
+     * @param inventoryNumber inventory number of the record, empty for the first record of the subsidiary
+     * @return export key to pass as the start key or the end key of exportPPEs
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String getExportKey(final Context ctx, final String subsidiary, final String inventoryNumber) {
+        if (subsidiary == null || subsidiary.isEmpty()) {
+            throw error("subsidiary must not be empty", PPETransferErrors.INVALID_ARGUMENT);
+        }
+        try {
+            if (inventoryNumber == null || inventoryNumber.isEmpty()) {
+                return RECORDS_BOOKMARK + recordRange(subsidiary).toString();
+            }
+            return RECORDS_BOOKMARK + PPEKeys.recordKey(ctx.getStub(), subsidiary, inventoryNumber);
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage(), PPETransferErrors.INVALID_ARGUMENT);
+        }
+    }
+
+    /**
+     * Adds the ppes of the key space to the export chunk until the chunk is full
+     *
+     * @param stub the chaincode stub
+     * @param keySpace the subsidiary namespace or the bare inventory number keys not yet migrated
+     * @param subsidiary subsidiary to read the range of record keys of, null for every subsidiary
+     * @param firstKey ledger key to start from, empty for the start of the key space
+     * @param lastKey ledger key to stop before, null for the end of the key space
+     * @param export the export chunk
+     * @return resume key of the first record left out, empty when the range is exported
+     */
+    private String exportKeySpace(final ChaincodeStub stub, final char keySpace, final String subsidiary,
+                                  final String firstKey, final String lastKey, final PPEExport export) {
+        // a bookmark of a range query is the key the page starts at, on LevelDB and CouchDB alike
+        String pageBookmark = firstKey;
+        while (true) {
+            QueryResultsIteratorWithMetadata<KeyValue> page = keySpace == RECORDS_BOOKMARK
+                    ? stub.getStateByPartialCompositeKeyWithPagination(recordRange(subsidiary), EXPORT_PAGE_SIZE, pageBookmark)
+                    : stub.getStateByRangeWithPagination("", "", EXPORT_PAGE_SIZE, pageBookmark);
+            int read = 0;
+            String nextBookmark;
+            try {
+                for (KeyValue record: page) {
+                    if (lastKey != null && compareKeys(record.getKey(), lastKey) >= 0) {
+                        return "";
+                    }
+                    if (!export.add(record.getValue())) {
+                        return keySpace + record.getKey();
+                    }
+                    read++;
+                }
+                nextBookmark = page.getMetadata().getBookmark();
+            } finally {
+                closeIterator(page);
+            }
+
+            if (read < EXPORT_PAGE_SIZE || nextBookmark == null || nextBookmark.isEmpty()) {
+                return "";
+            }
+            pageBookmark = nextBookmark;
+        }
+    }
+
+    /**
+     * Compares ledger keys in the byte order of the state database
+     */
+    private static int compareKeys(final String key, final String otherKey) {
+        return Arrays.compareUnsigned(key.getBytes(StandardCharsets.UTF_8), otherKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks that the ledger key of a resume key lies in its key space and in the exported subsidiary
+     */
+    private static boolean isExportKey(final char keySpace, final String key, final String subsidiary) {
+        if (keySpace == RECORDS_BOOKMARK) {
+            return key.startsWith(recordRange(subsidiary).toString());
+        }
+        return keySpace == LEGACY_BOOKMARK && subsidiary == null && !key.isEmpty()
+                && !key.startsWith(CompositeKey.NAMESPACE);
+    }
+
+    private static CompositeKey recordRange(final String subsidiary) {
+        return subsidiary == null ? new CompositeKey(PPEKeys.RECORD) : new CompositeKey(PPEKeys.RECORD, subsidiary);
+    }
+
+    /**
+     * Moves records keyed by bare inventory number into the subsidiary namespace. The migration is split into
+     * transactions of bounded size, each one continues from the bookmark returned by the previous one. A call
+     * from the empty bookmark that leaves no record under a bare key marks the range drained, so queries stop
+     * reading it; run the migration once more from the empty bookmark after it is done to set the mark.
+     *
+     * <p>A ledger upgraded from bare inventory number keys has to be migrated up to the mark: until then every
+     * scan also reads the whole range of bare keys, the owner and status queries scan all records instead of
+     * their indexes and the expiring query is rejected with MIGRATION_PENDING.
+     *
+     * @param ctx the transaction context
+     * @param bookmark bookmark returned by the previous call, empty for the first call
+     * @param batchSize maximum number of records moved by the transaction
+     * @return JSON with the number of moved and skipped records, the bookmark of the next call, empty when done,
+     * and whether the range of bare keys is drained
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String migrateKeys(final Context ctx, final String bookmark, final Integer batchSize) {
+        ChaincodeStub stub = ctx.getStub();
+
+        if (batchSize == null || batchSize <= 0 || batchSize > MAX_BATCH_SIZE) {
+            String errorMessage = String.format("migration batch size must be between 1 and %d", MAX_BATCH_SIZE);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+
+        if (PPEKeys.isLegacyDrained(stub)) {
+            return "{\"migrated\":0,\"skipped\":0,\"bookmark\":\"\",\"drained\":true}";
+        }
+
+        // paginated queries are not allowed in submit transactions, so the range is cut by the count
+        int migrated = 0;
+        int skipped = 0;
+        String nextBookmark = "";
+        QueryResultsIterator<KeyValue> legacyRecords = stub.getStateByRange(bookmark == null ? "" : bookmark, "");
+        try {
+            for (KeyValue legacyRecord: legacyRecords) {
+                if (migrated + skipped == batchSize) {
+                    nextBookmark = legacyRecord.getKey();
+                    break;
+                }
+                PPE ppe = CODEC.decode(legacyRecord.getValue());
+                if (ppe == null || isStored(stub, PPEKeys.recordKey(stub, ppe))) {
+                    LOGGER.warning(() -> "ppe {" + legacyRecord.getKey() + "} is left under the bare key");
+                    skipped++;
+                    continue;
+                }
+                storePPE(ctx, legacyRecord.getKey(), ppe, ppe);
+                migrated++;
+            }
+        } finally {
+            closeIterator(legacyRecords);
+        }
+
+        // the whole range was read and every record in it is moved by this transaction
+        boolean drained = (bookmark == null || bookmark.isEmpty()) && nextBookmark.isEmpty() && skipped == 0;
+        if (drained) {
+            PPEKeys.markLegacyDrained(stub);
+        }
+
+        return "{\"migrated\":" + migrated + ",\"skipped\":" + skipped
+                + ",\"bookmark\":" + GENSON.serialize(nextBookmark) + ",\"drained\":" + drained + "}";
+    }
+
+    /**
+     * Retrieves one page of ppes whose life time ends within the range of months using the expiry index. The
+     * index does not reference records under bare inventory number keys, so the query is rejected until
+     * migrateKeys has moved all of them.
+     *
+     * @param ctx the transaction context
+     * @param fromMonth first month of the range as yyyyMM
+     * @param toMonth last month of the range as yyyyMM
+     * @param subsidiary a company owned PPE, empty for all companies
+     * @param pageSize maximum number of ppes in the page
+     * @param bookmark bookmark returned with the previous page, empty for the first page
+     * @return page of ppes with the fetched records count and the bookmark of the next page
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String queryExpiringPPEs(final Context ctx, final String fromMonth, final String toMonth,
+                                    final String subsidiary, final Integer pageSize, final String bookmark) {
+        ChaincodeStub stub = ctx.getStub();
+
+        YearMonth from = PPEDates.parseMonth(fromMonth);
+        YearMonth to = PPEDates.parseMonth(toMonth);
+        if (from == null || to == null || from.isAfter(to) || from.plusMonths(MAX_EXPIRY_MONTHS).isBefore(to)) {
+            String errorMessage = String.format("month range must be yyyyMM values at most %d months apart", MAX_EXPIRY_MONTHS);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+        checkPageSize(pageSize);
+        if (PPEKeys.hasLegacyRecords(stub)) {
+            String errorMessage = "records under bare inventory number keys are not in the expiry index, "
+                    + "run migrateKeys until it reports the range drained";
+            throw error(errorMessage, PPETransferErrors.MIGRATION_PENDING);
+        }
+
+        // bookmark is the month being read followed by the bookmark of the index page inside that month
+        YearMonth month = from;
+        String monthBookmark = "";
+        if (bookmark != null && !bookmark.isEmpty()) {
+            month = PPEDates.parseMonth(bookmark.substring(0, Math.min(bookmark.length(), EXPIRY_MONTH_LENGTH)));
+            if (month == null || month.isBefore(from) || month.isAfter(to)) {
+                String errorMessage = String.format("bookmark %s does not belong to the month range", bookmark);
+                throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+            }
+            monthBookmark = bookmark.substring(EXPIRY_MONTH_LENGTH);
+        }
+
+        StringBuilder response = new StringBuilder("{\"records\":[");
+        int fetched = 0;
+        String nextBookmark = "";
+        while (!month.isAfter(to) && fetched < pageSize) {
+            String monthKey = month.format(PPEDates.MONTH_FORMAT);
+            CompositeKey prefix = subsidiary == null || subsidiary.isEmpty()
+                    ? new CompositeKey(PPEIndex.EXPIRY, monthKey)
+                    : new CompositeKey(PPEIndex.EXPIRY, monthKey, subsidiary);
+
+            QueryResultsIteratorWithMetadata<KeyValue> entries =
+                    stub.getStateByPartialCompositeKeyWithPagination(prefix, pageSize - fetched, monthBookmark);
+            try {
+                for (KeyValue entry: entries) {
+                    String ppeJSON = CODEC.toJSON(stub.getState(PPEIndex.recordKeyOf(stub, entry.getKey())));
+                    if (ppeJSON == null) {
+                        continue;
+                    }
+                    if (fetched > 0) {
+                        response.append(',');
+                    }
+                    response.append(ppeJSON);
+                    fetched++;
+                }
+                monthBookmark = entries.getMetadata().getBookmark();
+            } finally {
+                closeIterator(entries);
+            }
+
+            if (monthBookmark != null && !monthBookmark.isEmpty()) {
+                nextBookmark = monthKey + monthBookmark;
+                break;
+            }
+            month = month.plusMonths(1);
+            monthBookmark = "";
+            if (fetched == pageSize && !month.isAfter(to)) {
+                nextBookmark = month.format(PPEDates.MONTH_FORMAT);
+            }
+        }
+
+        response.append("],\"fetchedRecordsCount\":").append(fetched)
+                .append(",\"bookmark\":").append(GENSON.serialize(nextBookmark))
+                .append('}');
+        return response.toString();
+    }
+
+    /**
+     * Retrieves all ppes of the subsidiary from its range of record keys and from the records not yet migrated.
+     *
+     * @param ctx the transaction context
+     * @param subsidiary a company owned PPE
+     * @return array of ppes of the subsidiary
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String queryPPEsBySubsidiary(final Context ctx, final String subsidiary) {
+        ChaincodeStub stub = ctx.getStub();
+
+        checkSubsidiary(subsidiary);
+
+        StringBuilder response = new StringBuilder("[");
+        PPEFilter filter = new PPEFilter(subsidiary, null, null, null, null);
+        scanRecords(stub, subsidiary, new PPEProjection(CODEC, ALL_FIELDS, filter), response);
+        return response.append(']').toString();
+    }
+
+    /**
+     * Retrieves all ppes held by the employee using the owner index. Until migrateKeys has moved every record
+     * under a bare inventory number key, which the index does not reference, all records are scanned instead.
+     *
+     * @param ctx the transaction context
+     * @param ownerID employee's personnel number
+     * @return array of ppes held by the employee
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String queryPPEsByOwner(final Context ctx, final String ownerID) {
+        return queryByIndex(ctx.getStub(), PPEIndex.OWNER, ownerID, new PPEFilter(null, null, ownerID, null, null));
+    }
+
+    /**
+     * Retrieves all ppes in the status using the status index. Until migrateKeys has moved every record under
+     * a bare inventory number key, which the index does not reference, all records are scanned instead.
+     *
+     * @param ctx the transaction context
+     * @param status PPE status
+     * @return array of ppes in the status
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String queryPPEsByStatus(final Context ctx, final String status) {
+        return queryByIndex(ctx.getStub(), PPEIndex.STATUS, status, new PPEFilter(null, status, null, null, null));
+    }
+
+    /**
+     * Retrieves ppe count and total price per subsidiary or per status.
+     *
+     * @param ctx the transaction context
+     * @param dimension subsidiary or status
+     * @param value value of the dimension, empty for all values
+     * @return JSON array of aggregates
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String getPPEAggregates(final Context ctx, final String dimension, final String value) {
+        checkAggregateDimension(dimension);
+
+        return GENSON.serialize(PPEAggregates.read(ctx.getStub(), dimension, value).values());
+    }
+
+    /**
+     * Folds pending aggregate deltas of a dimension into checkpoints. This is an administrative transaction run
+     * rarely, for example once an hour, and never from the ppe write path: it folds only the deltas of hours
+     * settled an hour ago, so writers of new deltas do not conflict with it, and a run invalidated by
+     * a concurrent compaction has changed nothing and is simply repeated.
+     *
+     * @param ctx the transaction context
+     * @param dimension subsidiary or status
+     * @param maxDeltas maximum number of deltas folded by the transaction
+     * @return number of folded deltas
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public int compactAggregates(final Context ctx, final String dimension, final Integer maxDeltas) {
+        checkAggregateDimension(dimension);
+        if (maxDeltas == null || maxDeltas <= 0 || maxDeltas > MAX_BATCH_SIZE) {
+            String errorMessage = String.format("deltas to compact must be between 1 and %d", MAX_BATCH_SIZE);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+
+        return PPEAggregates.compact(ctx.getStub(), dimension, maxDeltas);
+    }
+
+    private void checkAggregateDimension(final String dimension) {
+        if (!PPEAggregates.isDimension(dimension)) {
+            String errorMessage = String.format("unknown aggregate dimension %s", dimension);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+    }
+
+    /**
+     * Reads ppes referenced by the index entries with the given indexed value, or scans all records while some
+     * of them are under bare inventory number keys
+     *
+     * @param stub the chaincode stub
+     * @param indexName name of the composite-key index
+     * @param value indexed attribute value
+     * @param filter filter matching the indexed value, used by the scan
+     * @return array of ppes found by the index
+     */
+    private String queryByIndex(final ChaincodeStub stub, final String indexName, final String value,
+                                final PPEFilter filter) {
+        if (value == null || value.isEmpty()) {
+            String errorMessage = String.format("%s value must not be empty", indexName);
+            throw error(errorMessage, PPETransferErrors.INVALID_ARGUMENT);
+        }
+
+        StringBuilder response = new StringBuilder("[");
+        if (PPEKeys.hasLegacyRecords(stub)) {
+            scanRecords(stub, null, new PPEProjection(CODEC, ALL_FIELDS, filter), response);
+            return response.append(']').toString();
+        }
+
+        QueryResultsIterator<KeyValue> entries = stub.getStateByPartialCompositeKey(indexName, value);
+        try {
+            boolean first = true;
+            for (KeyValue entry: entries) {
+                String ppeJSON = CODEC.toJSON(stub.getState(PPEIndex.recordKeyOf(stub, entry.getKey())));
+                if (ppeJSON == null || ppeJSON.isEmpty()) {
+                    continue;
+                }
+                if (!first) {
+                    response.append(',');
+                }
+                response.append(ppeJSON);
+                first = false;
+            }
+        } finally {
+            closeIterator(entries);
+        }
+
+        return response.append(']').toString();
+    }
+
+    /**
+     * Passes stored ppe values through the projection as they are read from the iterator
+     *
+     * @param results ledger query results
+     * @param projection projection writing the matching ppes
+     * @param response builder of the JSON array, null to count ppes only
+     */
+    private static void appendRecords(final Iterable<KeyValue> results, final PPEProjection projection,
+                                      final StringBuilder response) {
+        for (KeyValue result: results) {
+            projection.append(result.getKey(), result.getValue(), response);
+        }
+    }
+
+    /**
+     * Logs the rejected request and counts the error code in the transaction metrics
+     *
+     * @param errorMessage description of the error
+     * @param error the error code
+     * @return the exception to throw
+     */
+    static ChaincodeException error(final String errorMessage, final PPETransferErrors error) {
+        return error(errorMessage, error, null);
+    }
+
+    static ChaincodeException error(final String errorMessage, final PPETransferErrors error, final Throwable cause) {
+        LOGGER.fine(errorMessage);
+        ContractMetrics.error(error.toString());
+        return new ChaincodeException(errorMessage, error.toString(), cause);
+    }
+
+    /**
+     * Releases the ledger query iterator on the peer side
+     *
+     * @param iterator ledger query results
+     */
+    static void closeIterator(final AutoCloseable iterator) {
+        try {
+            iterator.close();
+        } catch (Exception e) {
+            String errorMessage = "failed to close ledger query iterator";
+            throw error(errorMessage, PPETransferErrors.QUERY_FAILED, e);
+        }
     }
 }
@@ -0,0 +1,124 @@
+package ru.itmo.ppesmart;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Shares one instance of every repeated string value, such as subsidiary names, among the decoded ppes.
+ *
+ * <p>Lookups by UTF-8 bytes allocate nothing for a known value, so the codec resolves a subsidiary straight
+ * from the world-state value. The dictionary holds at most a fixed number of values, further values are
+ * returned unshared. Reads take no lock: entries are immutable and a reader that misses a racing insert
+ * falls through to the locked path.
+ */
+final class StringDictionary {
+
+    private final Entry[] table;
+
+    private final int capacity;
+
+    private int size;
+
+    /**
+     * @param capacity maximum number of shared values
+     */
+    StringDictionary(final int capacity) {
+        this.capacity = capacity;
+        this.table = new Entry[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    /**
+     * @param value the string
+     * @return the shared instance equal to the string
+     */
+    String intern(final String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return lookup(bytes, 0, bytes.length, value);
+    }
+
+    /**
+     * @param bytes buffer holding the UTF-8 bytes of the string
+     * @param offset offset of the string in the buffer
+     * @param length length of the string in bytes
+     * @return the shared instance of the string
+     */
+    String lookup(final byte[] bytes, final int offset, final int length) {
+        return lookup(bytes, offset, length, null);
+    }
+
+    private String lookup(final byte[] bytes, final int offset, final int length, final String value) {
+        int hash = hash(bytes, offset, length);
+        Entry entry = find(hash, bytes, offset, length);
+        if (entry != null) {
+            return entry.value;
+        }
+        synchronized (this) {
+            entry = find(hash, bytes, offset, length);
+            if (entry != null) {
+                return entry.value;
+            }
+            String decoded = value != null ? value : new String(bytes, offset, length, StandardCharsets.UTF_8);
+            if (size == capacity) {
+                return decoded;
+            }
+            int slot = hash & (table.length - 1);
+            while (table[slot] != null) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            byte[] key = new byte[length];
+            System.arraycopy(bytes, offset, key, 0, length);
+            table[slot] = new Entry(hash, key, decoded);
+            size++;
+            return decoded;
+        }
+    }
+
+    private Entry find(final int hash, final byte[] bytes, final int offset, final int length) {
+        int slot = hash & (table.length - 1);
+        Entry entry;
+        while ((entry = table[slot]) != null) {
+            if (entry.hash == hash && entry.matches(bytes, offset, length)) {
+                return entry;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return null;
+    }
+
+    private static int hash(final byte[] bytes, final int offset, final int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Entry {
+
+        private final int hash;
+
+        private final byte[] bytes;
+
+        private final String value;
+
+        Entry(final int hash, final byte[] bytes, final String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+
+        boolean matches(final byte[] other, final int offset, final int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != other[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
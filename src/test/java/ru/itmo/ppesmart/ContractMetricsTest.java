@@ -0,0 +1,104 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.GenericType;
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Errors of failed transactions and of failed PER_ITEM batch items are counted apart
+ */
+class ContractMetricsTest {
+
+    private static final Genson GENSON = new Genson();
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    @BeforeEach
+    void populate() {
+        PPEFixtures.populate(ledger, 4);
+    }
+
+    @Test
+    void countsPerItemFailuresAsItemErrors() {
+        String function = "retirePPEBatch";
+        String inventoryNumbers = "[\"" + PPEFixtures.inventoryNumber(1) + "\",\"INV-MISSING\"]";
+        Map<String, Object> before = metrics(function);
+
+        execute(function, ctx -> contract.retirePPEBatch(ctx, inventoryNumbers, "PER_ITEM"));
+
+        Map<String, Object> after = metrics(function);
+        assertEquals(count(before, "errors"), count(after, "errors"));
+        assertEquals(count(before, "itemErrors") + 1, count(after, "itemErrors"));
+        assertEquals(codeCount(before, "itemErrorsByCode") + 1, codeCount(after, "itemErrorsByCode"));
+        assertEquals(codeCount(before, "errorsByCode"), codeCount(after, "errorsByCode"));
+    }
+
+    @Test
+    void countsAtomicFailuresAsErrors() {
+        String function = "transferPPEBatch";
+        String transfers = "[{\"inventoryNumber\":\"INV-MISSING\",\"transferToSubsidiary\":\"SUB-900\","
+                + "\"transferStatus\":\"TRANSFER\"}]";
+        Map<String, Object> before = metrics(function);
+
+        assertThrows(ChaincodeException.class,
+                () -> execute(function, ctx -> contract.transferPPEBatch(ctx, transfers, "ATOMIC")));
+
+        Map<String, Object> after = metrics(function);
+        assertEquals(count(before, "calls") + 1, count(after, "calls"));
+        assertEquals(count(before, "completed"), count(after, "completed"));
+        assertEquals(count(before, "errors") + 1, count(after, "errors"));
+        assertEquals(codeCount(before, "errorsByCode") + 1, codeCount(after, "errorsByCode"));
+        assertEquals(count(before, "itemErrors"), count(after, "itemErrors"));
+    }
+
+    @Test
+    void dropsContextOfUnknownTransaction() {
+        Map<String, Object> before = metrics("readPPE");
+
+        assertThrows(ChaincodeException.class, () -> execute("noSuchFunction", ctx -> {
+            contract.unknownTransaction(ctx);
+            return null;
+        }));
+        // an error raised outside a transaction is not charged to the last function of the thread
+        PPETransfer.error("outside of a transaction", PPETransfer.PPETransferErrors.PPE_NOT_FOUND);
+
+        assertEquals(count(before, "errors"), count(metrics("readPPE"), "errors"));
+        assertEquals(1L, count(metrics("noSuchFunction"), "calls"));
+    }
+
+    private <T> T execute(final String function, final Function<Context, T> transaction) {
+        return PPEFixtures.submit(contract, ledger, ledger.newTransaction(function), transaction);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> metrics(final String function) {
+        Context ctx = contract.createContext(ledger.newTransaction("readPPE"));
+        Map<String, Object> metrics = GENSON.deserialize(contract.getContractMetrics(ctx),
+                new GenericType<Map<String, Object>>() { });
+        Object functionMetrics = metrics.get(function);
+        return functionMetrics == null ? Map.of() : (Map<String, Object>) functionMetrics;
+    }
+
+    private static long count(final Map<String, Object> metrics, final String name) {
+        Object value = metrics.get(name);
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long codeCount(final Map<String, Object> metrics, final String name) {
+        Map<String, Object> byCode = (Map<String, Object>) metrics.get(name);
+        Object value = byCode == null ? null : byCode.get(PPETransfer.PPETransferErrors.PPE_NOT_FOUND.toString());
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+}
@@ -0,0 +1,561 @@
+package ru.itmo.ppesmart;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.msp.Identities;
+import org.hyperledger.fabric.protos.peer.ChaincodeEventPackage;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim;
+import org.hyperledger.fabric.protos.peer.ProposalPackage;
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * In-memory stand-in of the peer for running the contract outside of a fabric network.
+ *
+ * <p>One stub is one transaction on an {@link InMemoryLedger}. Like the peer, reads see committed state
+ * only, writes are buffered in the write set, and every point and range read is recorded for the MVCC
+ * validation at commit. Simple-key range queries skip composite keys the same way the peer does.
+ */
+public final class InMemoryChaincodeStub implements ChaincodeStub {
+
+    private static final String MIN_UNICODE_RUNE = "\u0001";
+
+    private static final String MAX_UNICODE_RUNE = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    private static final byte[] CREATOR = creator("Org1MSP", "/client-cert.pem");
+
+    private final InMemoryLedger ledger;
+
+    private final String txId;
+
+    private final Instant txTimestamp;
+
+    private final String function;
+
+    private final List<String> parameters;
+
+    private final Map<String, Long> readSet = new HashMap<>();
+
+    private final Map<String, byte[]> writeSet = new LinkedHashMap<>();
+
+    private final List<RangeRead> rangeReads = new ArrayList<>();
+
+    private ChaincodeEventPackage.ChaincodeEvent event;
+
+    InMemoryChaincodeStub(final InMemoryLedger ledger, final String txId, final Instant txTimestamp,
+                          final String function, final String... parameters) {
+        this.ledger = ledger;
+        this.txId = txId;
+        this.txTimestamp = txTimestamp;
+        this.function = function;
+        this.parameters = Arrays.asList(parameters);
+    }
+
+    /**
+     * @return versions of the keys read by the transaction, 0 for an absent key
+     */
+    Map<String, Long> getReadSet() {
+        return readSet;
+    }
+
+    /**
+     * @return values written by the transaction, null for a deleted key
+     */
+    public Map<String, byte[]> getWriteSet() {
+        return writeSet;
+    }
+
+    List<RangeRead> getRangeReads() {
+        return rangeReads;
+    }
+
+    @Override
+    public byte[] getState(final String key) {
+        InMemoryLedger.VersionedValue value = ledger.getState().get(key);
+        readSet.putIfAbsent(key, value == null ? 0 : value.version);
+        return value == null ? new byte[0] : value.value;
+    }
+
+    @Override
+    public void putState(final String key, final byte[] value) {
+        writeSet.put(key, value == null || value.length == 0 ? null : value);
+    }
+
+    @Override
+    public void delState(final String key) {
+        writeSet.put(key, null);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByRange(final String startKey, final String endKey) {
+        return new Results(rangeRead(simpleKeyStart(startKey), simpleKeyEnd(endKey)));
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByRangeWithPagination(final String startKey, final String endKey,
+                                                                                    final int pageSize, final String bookmark) {
+        String from = bookmark == null || bookmark.isEmpty() ? simpleKeyStart(startKey) : bookmark;
+        return page(rangeRead(from, simpleKeyEnd(endKey)), pageSize);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final String compositeKey) {
+        return new Results(rangeRead(compositeKey, compositeKey + MAX_UNICODE_RUNE));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final String objectType, final String... attributes) {
+        return getStateByPartialCompositeKey(new CompositeKey(objectType, attributes));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final CompositeKey compositeKey) {
+        return getStateByPartialCompositeKey(compositeKey.toString());
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByPartialCompositeKeyWithPagination(final CompositeKey compositeKey,
+                                                                                                  final int pageSize,
+                                                                                                  final String bookmark) {
+        String prefix = compositeKey.toString();
+        String from = bookmark == null || bookmark.isEmpty() ? prefix : bookmark;
+        return page(rangeRead(from, prefix + MAX_UNICODE_RUNE), pageSize);
+    }
+
+    @Override
+    public CompositeKey createCompositeKey(final String objectType, final String... attributes) {
+        return new CompositeKey(objectType, attributes);
+    }
+
+    @Override
+    public CompositeKey splitCompositeKey(final String compositeKey) {
+        return CompositeKey.parseCompositeKey(compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyModification> getHistoryForKey(final String key) {
+        Iterator<InMemoryLedger.Modification> modifications = ledger.history(key);
+        return new QueryResultsIterator<KeyModification>() {
+            @Override
+            public Iterator<KeyModification> iterator() {
+                return new Iterator<KeyModification>() {
+                    @Override
+                    public boolean hasNext() {
+                        return modifications.hasNext();
+                    }
+
+                    @Override
+                    public KeyModification next() {
+                        return new HistoryRecord(modifications.next());
+                    }
+                };
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public String getTxId() {
+        return txId;
+    }
+
+    @Override
+    public Instant getTxTimestamp() {
+        return txTimestamp;
+    }
+
+    @Override
+    public String getChannelId() {
+        return "offline";
+    }
+
+    @Override
+    public byte[] getCreator() {
+        return CREATOR;
+    }
+
+    @Override
+    public String getMspId() {
+        return "Org1MSP";
+    }
+
+    @Override
+    public List<byte[]> getArgs() {
+        List<byte[]> args = new ArrayList<>();
+        for (String arg: getStringArgs()) {
+            args.add(arg.getBytes(StandardCharsets.UTF_8));
+        }
+        return args;
+    }
+
+    @Override
+    public List<String> getStringArgs() {
+        List<String> args = new ArrayList<>();
+        args.add(function);
+        args.addAll(parameters);
+        return args;
+    }
+
+    @Override
+    public String getFunction() {
+        return function;
+    }
+
+    @Override
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public void setEvent(final String name, final byte[] payload) {
+        event = ChaincodeEventPackage.ChaincodeEvent.newBuilder()
+                .setChaincodeId("ppesmart")
+                .setTxId(txId)
+                .setEventName(name)
+                .setPayload(ByteString.copyFrom(payload))
+                .build();
+    }
+
+    @Override
+    public ChaincodeEventPackage.ChaincodeEvent getEvent() {
+        return event;
+    }
+
+    @Override
+    public Map<String, byte[]> getTransient() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Chaincode.Response invokeChaincode(final String chaincodeName, final List<byte[]> args, final String channel) {
+        throw new UnsupportedOperationException("invokeChaincode");
+    }
+
+    @Override
+    public byte[] getStateValidationParameter(final String key) {
+        throw new UnsupportedOperationException("getStateValidationParameter");
+    }
+
+    @Override
+    public void setStateValidationParameter(final String key, final byte[] value) {
+        throw new UnsupportedOperationException("setStateValidationParameter");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getQueryResult(final String query) {
+        throw new UnsupportedOperationException("getQueryResult");
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getQueryResultWithPagination(final String query, final int pageSize,
+                                                                                   final String bookmark) {
+        throw new UnsupportedOperationException("getQueryResultWithPagination");
+    }
+
+    @Override
+    public byte[] getPrivateData(final String collection, final String key) {
+        throw new UnsupportedOperationException("getPrivateData");
+    }
+
+    @Override
+    public byte[] getPrivateDataHash(final String collection, final String key) {
+        throw new UnsupportedOperationException("getPrivateDataHash");
+    }
+
+    @Override
+    public byte[] getPrivateDataValidationParameter(final String collection, final String key) {
+        throw new UnsupportedOperationException("getPrivateDataValidationParameter");
+    }
+
+    @Override
+    public void putPrivateData(final String collection, final String key, final byte[] value) {
+        throw new UnsupportedOperationException("putPrivateData");
+    }
+
+    @Override
+    public void setPrivateDataValidationParameter(final String collection, final String key, final byte[] value) {
+        throw new UnsupportedOperationException("setPrivateDataValidationParameter");
+    }
+
+    @Override
+    public void delPrivateData(final String collection, final String key) {
+        throw new UnsupportedOperationException("delPrivateData");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByRange(final String collection, final String startKey, final String endKey) {
+        throw new UnsupportedOperationException("getPrivateDataByRange");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection, final String compositeKey) {
+        throw new UnsupportedOperationException("getPrivateDataByPartialCompositeKey");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection, final CompositeKey compositeKey) {
+        throw new UnsupportedOperationException("getPrivateDataByPartialCompositeKey");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection, final String objectType,
+                                                                              final String... attributes) {
+        throw new UnsupportedOperationException("getPrivateDataByPartialCompositeKey");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataQueryResult(final String collection, final String query) {
+        throw new UnsupportedOperationException("getPrivateDataQueryResult");
+    }
+
+    @Override
+    public ProposalPackage.SignedProposal getSignedProposal() {
+        throw new UnsupportedOperationException("getSignedProposal");
+    }
+
+    @Override
+    public byte[] getBinding() {
+        throw new UnsupportedOperationException("getBinding");
+    }
+
+    /**
+     * Simple-key ranges start after U+0000, so composite keys never fall into them
+     */
+    private static String simpleKeyStart(final String startKey) {
+        return startKey == null || startKey.isEmpty() ? MIN_UNICODE_RUNE : startKey;
+    }
+
+    private static String simpleKeyEnd(final String endKey) {
+        return endKey == null || endKey.isEmpty() ? MAX_UNICODE_RUNE : endKey;
+    }
+
+    private RangeRead rangeRead(final String startKey, final String endKey) {
+        RangeRead rangeRead = new RangeRead(startKey, endKey);
+        rangeReads.add(rangeRead);
+        return rangeRead;
+    }
+
+    private QueryResultsIteratorWithMetadata<KeyValue> page(final RangeRead rangeRead, final int pageSize) {
+        Iterator<KeyValue> entries = rangeRead.iterator(ledger.getState());
+        List<KeyValue> records = new ArrayList<>(Math.min(pageSize, 1024));
+        while (entries.hasNext() && records.size() < pageSize) {
+            records.add(entries.next());
+        }
+        String bookmark = entries.hasNext() ? entries.next().getKey() : "";
+        ChaincodeShim.QueryResponseMetadata metadata = ChaincodeShim.QueryResponseMetadata.newBuilder()
+                .setFetchedRecordsCount(records.size())
+                .setBookmark(bookmark)
+                .build();
+        return new Page(records, metadata);
+    }
+
+    private static byte[] creator(final String mspId, final String certificateResource) {
+        try (InputStream certificate = InMemoryChaincodeStub.class.getResourceAsStream(certificateResource)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            certificate.transferTo(bytes);
+            return Identities.SerializedIdentity.newBuilder()
+                    .setMspid(mspId)
+                    .setIdBytes(ByteString.copyFrom(bytes.toByteArray()))
+                    .build()
+                    .toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Record implements KeyValue {
+
+        private final String key;
+
+        private final byte[] value;
+
+        Record(final String key, final byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value;
+        }
+
+        @Override
+        public String getStringValue() {
+            return new String(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Keys and versions seen by a range query, re-checked against the ledger at commit
+     */
+    static final class RangeRead {
+
+        private final String startKey;
+
+        private final String endKey;
+
+        private final List<String> keys = new ArrayList<>();
+
+        private final List<Long> versions = new ArrayList<>();
+
+        private boolean exhausted;
+
+        RangeRead(final String startKey, final String endKey) {
+            this.startKey = startKey;
+            this.endKey = endKey;
+        }
+
+        Iterator<KeyValue> iterator(final NavigableMap<String, InMemoryLedger.VersionedValue> state) {
+            Iterator<Map.Entry<String, InMemoryLedger.VersionedValue>> entries =
+                    state.subMap(startKey, true, endKey, false).entrySet().iterator();
+            return new Iterator<KeyValue>() {
+                @Override
+                public boolean hasNext() {
+                    boolean hasNext = entries.hasNext();
+                    if (!hasNext) {
+                        exhausted = true;
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public KeyValue next() {
+                    Map.Entry<String, InMemoryLedger.VersionedValue> entry = entries.next();
+                    keys.add(entry.getKey());
+                    versions.add(entry.getValue().version);
+                    return new Record(entry.getKey(), entry.getValue().value);
+                }
+            };
+        }
+
+        /**
+         * Checks that the part of the range seen by the transaction still has the same keys and versions
+         */
+        boolean matches(final NavigableMap<String, InMemoryLedger.VersionedValue> state) {
+            NavigableMap<String, InMemoryLedger.VersionedValue> range;
+            if (exhausted) {
+                range = state.subMap(startKey, true, endKey, false);
+            } else if (keys.isEmpty()) {
+                return true;
+            } else {
+                range = state.subMap(startKey, true, keys.get(keys.size() - 1), true);
+            }
+
+            int i = 0;
+            for (Map.Entry<String, InMemoryLedger.VersionedValue> entry: range.entrySet()) {
+                if (i >= keys.size() || !keys.get(i).equals(entry.getKey())
+                        || versions.get(i) != entry.getValue().version) {
+                    return false;
+                }
+                i++;
+            }
+            return i == keys.size();
+        }
+    }
+
+    private final class Results implements QueryResultsIterator<KeyValue> {
+
+        private final RangeRead rangeRead;
+
+        Results(final RangeRead rangeRead) {
+            this.rangeRead = rangeRead;
+        }
+
+        @Override
+        public Iterator<KeyValue> iterator() {
+            return rangeRead.iterator(ledger.getState());
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class HistoryRecord implements KeyModification {
+
+        private final InMemoryLedger.Modification modification;
+
+        HistoryRecord(final InMemoryLedger.Modification modification) {
+            this.modification = modification;
+        }
+
+        @Override
+        public String getTxId() {
+            return modification.txId;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return modification.value == null ? new byte[0] : modification.value;
+        }
+
+        @Override
+        public String getStringValue() {
+            return new String(getValue(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Instant getTimestamp() {
+            return modification.timestamp;
+        }
+
+        @Override
+        public boolean isDeleted() {
+            return modification.value == null;
+        }
+    }
+
+    private static final class Page implements QueryResultsIteratorWithMetadata<KeyValue> {
+
+        private final List<KeyValue> records;
+
+        private final ChaincodeShim.QueryResponseMetadata metadata;
+
+        Page(final List<KeyValue> records, final ChaincodeShim.QueryResponseMetadata metadata) {
+            this.records = records;
+            this.metadata = metadata;
+        }
+
+        @Override
+        public ChaincodeShim.QueryResponseMetadata getMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public Iterator<KeyValue> iterator() {
+            return records.iterator();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.protos.peer.ChaincodeEventPackage;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory world state, history and commit validation of a single-peer channel.
+ *
+ * <p>Transactions run on {@link InMemoryChaincodeStub} views of the ledger. Like the peer, a view reads
+ * committed state only and buffers its writes; {@link #commit} validates the read set and range reads
+ * against the current versions and applies the writes of a valid transaction as one block.
+ */
+public final class InMemoryLedger {
+
+    /**
+     * Результат валидации транзакции
+     */
+    public enum Validation {
+        VALID,
+        MVCC_READ_CONFLICT,
+        PHANTOM_READ_CONFLICT
+    }
+
+    private final NavigableMap<String, VersionedValue> state = new ConcurrentSkipListMap<>();
+
+    private final Map<String, Modification> history = new ConcurrentHashMap<>();
+
+    private final List<BlockEvent> events = new ArrayList<>();
+
+    private final AtomicLong txCounter = new AtomicLong();
+
+    private final boolean keepHistory;
+
+    private long blockNumber;
+
+    public InMemoryLedger() {
+        this(true);
+    }
+
+    /**
+     * @param keepHistory false to skip the history index, for ledgers of millions of keys
+     */
+    public InMemoryLedger(final boolean keepHistory) {
+        this.keepHistory = keepHistory;
+    }
+
+    /**
+     * Starts a transaction on the ledger
+     *
+     * @param function name of the invoked transaction function
+     * @param parameters parameters of the invoked function
+     * @return the transaction view of the ledger
+     */
+    public InMemoryChaincodeStub newTransaction(final String function, final String... parameters) {
+        return newTransaction(Instant.now(), function, parameters);
+    }
+
+    /**
+     * Starts a transaction on the ledger with the timestamp set by its client
+     *
+     * @param timestamp timestamp of the transaction
+     * @param function name of the invoked transaction function
+     * @param parameters parameters of the invoked function
+     * @return the transaction view of the ledger
+     */
+    public InMemoryChaincodeStub newTransaction(final Instant timestamp, final String function, final String... parameters) {
+        return new InMemoryChaincodeStub(this, "tx" + txCounter.incrementAndGet(), timestamp, function, parameters);
+    }
+
+    /**
+     * Validates the transaction and applies its writes when it is valid
+     *
+     * @param tx the finished transaction
+     * @return the validation code of the transaction
+     */
+    public synchronized Validation commit(final InMemoryChaincodeStub tx) {
+        for (Map.Entry<String, Long> read: tx.getReadSet().entrySet()) {
+            if (version(read.getKey()) != read.getValue()) {
+                return Validation.MVCC_READ_CONFLICT;
+            }
+        }
+        for (InMemoryChaincodeStub.RangeRead rangeRead: tx.getRangeReads()) {
+            if (!rangeRead.matches(state)) {
+                return Validation.PHANTOM_READ_CONFLICT;
+            }
+        }
+
+        blockNumber++;
+        for (Map.Entry<String, byte[]> write: tx.getWriteSet().entrySet()) {
+            byte[] value = write.getValue();
+            if (value == null) {
+                state.remove(write.getKey());
+            } else {
+                state.put(write.getKey(), new VersionedValue(value, blockNumber));
+            }
+            if (keepHistory) {
+                history.merge(write.getKey(),
+                        new Modification(tx.getTxId(), tx.getTxTimestamp(), value, null),
+                        (previous, latest) -> new Modification(latest.txId, latest.timestamp, latest.value, previous));
+            }
+        }
+        if (tx.getEvent() != null) {
+            events.add(new BlockEvent(blockNumber, tx.getEvent()));
+        }
+        return Validation.VALID;
+    }
+
+    /**
+     * @return number of committed blocks, one valid transaction per block
+     */
+    public synchronized long getBlockNumber() {
+        return blockNumber;
+    }
+
+    /**
+     * @return chaincode events of the committed transactions with their block numbers in commit order
+     */
+    public synchronized List<BlockEvent> getEvents() {
+        return new ArrayList<>(events);
+    }
+
+    /**
+     * @return number of keys in the world state, including composite keys
+     */
+    public int size() {
+        return state.size();
+    }
+
+    NavigableMap<String, VersionedValue> getState() {
+        return state;
+    }
+
+    long version(final String key) {
+        VersionedValue value = state.get(key);
+        return value == null ? 0 : value.version;
+    }
+
+    /**
+     * History of the key from the newest modification to the oldest one
+     */
+    Iterator<Modification> history(final String key) {
+        Modification latest = history.get(key);
+        return new Iterator<Modification>() {
+            private Modification next = latest;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Modification next() {
+                Modification current = next;
+                next = current.previous;
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Chaincode event of a committed transaction
+     */
+    public static final class BlockEvent {
+
+        private final long blockNumber;
+
+        private final ChaincodeEventPackage.ChaincodeEvent event;
+
+        BlockEvent(final long blockNumber, final ChaincodeEventPackage.ChaincodeEvent event) {
+            this.blockNumber = blockNumber;
+            this.event = event;
+        }
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        public ChaincodeEventPackage.ChaincodeEvent getEvent() {
+            return event;
+        }
+    }
+
+    static final class VersionedValue {
+
+        final byte[] value;
+
+        final long version;
+
+        VersionedValue(final byte[] value, final long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+    static final class Modification {
+
+        final String txId;
+
+        final Instant timestamp;
+
+        final byte[] value;
+
+        final Modification previous;
+
+        Modification(final String txId, final Instant timestamp, final byte[] value, final Modification previous) {
+            this.txId = txId;
+            this.timestamp = timestamp;
+            this.value = value;
+            this.previous = previous;
+        }
+    }
+}
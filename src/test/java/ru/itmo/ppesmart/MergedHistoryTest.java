@@ -0,0 +1,250 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The history of a ppe stored under several keys reads as one sequence from the newest value to the oldest
+ */
+class MergedHistoryTest {
+
+    private static final Instant START = Instant.parse("2021-03-01T00:00:00Z");
+
+    @Test
+    void mergesMoveBetweenSubsidiaries() {
+        // created in SUB-1 by tx1, updated by tx2, moved to SUB-2 by tx3, updated there by tx4
+        History sub1 = new History(
+                delete("tx3", 3), write("tx2", 2, "SUB-1 updated"), write("tx1", 1, "SUB-1 created"));
+        History sub2 = new History(write("tx4", 4, "SUB-2 updated"), write("tx3", 3, "SUB-2 moved"));
+
+        assertEquals(Arrays.asList("tx4 SUB-2 updated", "tx3 SUB-2 moved", "tx2 SUB-1 updated", "tx1 SUB-1 created"),
+                read(sub1, sub2));
+    }
+
+    @Test
+    void mergesMovesBackAndForth() {
+        // SUB-1 -> SUB-2 by tx2, back to SUB-1 by tx3
+        History sub1 = new History(
+                write("tx3", 3, "SUB-1 back"), delete("tx2", 2), write("tx1", 1, "SUB-1 created"));
+        History sub2 = new History(delete("tx3", 3), write("tx2", 2, "SUB-2 moved"));
+
+        assertEquals(Arrays.asList("tx3 SUB-1 back", "tx2 SUB-2 moved", "tx1 SUB-1 created"), read(sub2, sub1));
+    }
+
+    @Test
+    void mergesMoveOutOfBareKey() {
+        History record = new History(write("tx3", 3, "SUB-1 updated"), write("tx2", 2, "SUB-1 migrated"));
+        History bare = new History(delete("tx2", 2), write("tx1", 1, "legacy"));
+
+        assertEquals(Arrays.asList("tx3 SUB-1 updated", "tx2 SUB-1 migrated", "tx1 legacy"), read(record, bare));
+    }
+
+    @Test
+    void ordersModificationsOfSameTimeByTransaction() {
+        // tx2 and tx3 share the client timestamp, tx3 moves the ppe to SUB-2
+        History sub1 = new History(delete("tx3", 2), write("tx2", 2, "SUB-1 updated"), write("tx1", 1, "SUB-1 created"));
+        History sub2 = new History(write("tx3", 2, "SUB-2 moved"));
+        List<String> expected = Arrays.asList("tx3 SUB-2 moved", "tx2 SUB-1 updated", "tx1 SUB-1 created");
+
+        assertEquals(expected, read(sub1, sub2));
+        assertEquals(expected, read(sub2, sub1));
+    }
+
+    @Test
+    void keepsMoveTogetherAmongModificationsOfSameTime() {
+        // tx2 writes another subsidiary at the time of the move by tx4
+        History sub1 = new History(delete("tx4", 2), write("tx1", 1, "SUB-1 created"));
+        History sub2 = new History(write("tx4", 2, "SUB-2 moved"));
+        History sub3 = new History(write("tx2", 2, "SUB-3 created"));
+        List<String> expected = Arrays.asList("tx4 SUB-2 moved", "tx2 SUB-3 created", "tx1 SUB-1 created");
+
+        assertEquals(expected, read(sub1, sub2, sub3));
+        assertEquals(expected, read(sub3, sub1, sub2));
+    }
+
+    @Test
+    void keepsDeleteWithoutMove() {
+        History sub1 = new History(delete("tx3", 3), write("tx2", 2, "SUB-1 updated"), write("tx1", 1, "SUB-1 created"));
+
+        assertEquals(Arrays.asList("tx3 deleted", "tx2 SUB-1 updated", "tx1 SUB-1 created"), read(sub1));
+    }
+
+    @Test
+    void readsContractHistoryAcrossTransfer() {
+        PPETransfer contract = new PPETransfer();
+        InMemoryLedger ledger = new InMemoryLedger();
+        submit(contract, ledger, ctx -> contract.createPPE(ctx, "Иванов", "EMP-1", "Каска", "IN_USE", 1500f, "INV-1",
+                "2021-03-01", 24, "SUB-1"));
+        submit(contract, ledger, ctx -> contract.updatePPE(ctx, "Иванов", "EMP-1", "Каска", "IN_USE", 1600f, "INV-1",
+                "2021-03-01", 24, "SUB-1"));
+        submit(contract, ledger, ctx -> contract.transferPPE(ctx, "INV-1", "SUB-2", "TRANSFER"));
+        submit(contract, ledger, ctx -> contract.applyTransferPPE(ctx, "INV-1", "IN_STOCK"));
+
+        PPE[] history = new Genson().deserialize(
+                contract.readPPEHistory(contract.createContext(ledger.newTransaction("evaluate")), "INV-1"), PPE[].class);
+
+        List<String> entries = new ArrayList<>();
+        for (PPE ppe: history) {
+            entries.add(ppe.getSubsidiary() + " " + ppe.getStatus() + " " + ppe.getPrice());
+        }
+        assertEquals(Arrays.asList("SUB-2 IN_STOCK 1600.0", "SUB-2 TRANSFER 1600.0", "SUB-1 IN_USE 1600.0",
+                "SUB-1 IN_USE 1500.0"), entries);
+    }
+
+    @Test
+    void readsHistoryEntriesSinceTransaction() {
+        PPETransfer contract = new PPETransfer();
+        InMemoryLedger ledger = new InMemoryLedger();
+        List<String> txIds = new ArrayList<>();
+        for (float price: new float[] {1500f, 1600f, 1700f, 1800f}) {
+            InMemoryChaincodeStub stub = ledger.newTransaction("submit");
+            txIds.add(stub.getTxId());
+            PPEFixtures.submit(contract, ledger, stub, ctx -> txIds.size() == 1
+                    ? contract.createPPE(ctx, "Иванов", "EMP-1", "Каска", "IN_USE", price, "INV-1", "2021-03-01", 24,
+                            "SUB-1")
+                    : contract.updatePPE(ctx, "Иванов", "EMP-1", "Каска", "IN_USE", price, "INV-1", "2021-03-01", 24,
+                            "SUB-1"));
+        }
+
+        assertEquals(Arrays.asList(txIds.get(3), txIds.get(2)), historyTxIds(contract, ledger, 10, txIds.get(1), true));
+        assertEquals(Arrays.asList(txIds.get(3)), historyTxIds(contract, ledger, 1, txIds.get(0), true));
+        assertEquals(Arrays.asList(txIds.get(1)), historyTxIds(contract, ledger, 1, txIds.get(0), false));
+
+        // the page fills before the cursor would be reached, the cursor is still checked
+        for (int limit: new int[] {1, 10}) {
+            ChaincodeException e = assertThrows(ChaincodeException.class,
+                    () -> historyTxIds(contract, ledger, limit, "tx-unknown", true));
+            assertEquals("INVALID_ARGUMENT", new String(e.getPayload(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void closesEveryHistory() {
+        History sub1 = new History(write("tx1", 1, "SUB-1 created"));
+        History sub2 = new History();
+
+        new MergedHistory(Arrays.asList(sub1, sub2)).close();
+
+        assertTrue(sub1.closed);
+        assertTrue(sub2.closed);
+    }
+
+    private static List<String> read(final History... histories) {
+        List<String> entries = new ArrayList<>();
+        MergedHistory history = new MergedHistory(Arrays.asList(histories));
+        try {
+            for (KeyModification modification: history) {
+                entries.add(modification.getTxId() + " "
+                        + (modification.isDeleted() ? "deleted" : modification.getStringValue()));
+            }
+        } finally {
+            history.close();
+        }
+        return entries;
+    }
+
+    private static List<String> historyTxIds(final PPETransfer contract, final InMemoryLedger ledger, final int limit,
+                                             final String since, final boolean newestFirst) {
+        PPEHistoryEntry[] entries = new Genson().deserialize(contract.readPPEHistoryEntries(
+                contract.createContext(ledger.newTransaction("evaluate")), "INV-1", limit, since, newestFirst),
+                PPEHistoryEntry[].class);
+        List<String> txIds = new ArrayList<>();
+        for (PPEHistoryEntry entry: entries) {
+            txIds.add(entry.getTxId());
+        }
+        return txIds;
+    }
+
+    private static void submit(final PPETransfer contract, final InMemoryLedger ledger,
+                               final Function<Context, Object> transaction) {
+        PPEFixtures.submit(contract, ledger, transaction);
+    }
+
+    private static KeyModification write(final String txId, final int second, final String value) {
+        return new Modification(txId, START.plusSeconds(second), value);
+    }
+
+    private static KeyModification delete(final String txId, final int second) {
+        return new Modification(txId, START.plusSeconds(second), null);
+    }
+
+    /**
+     * History of one key from the newest modification to the oldest one, as the peer returns it
+     */
+    private static final class History implements QueryResultsIterator<KeyModification> {
+
+        private final List<KeyModification> modifications;
+
+        private boolean closed;
+
+        History(final KeyModification... modifications) {
+            this.modifications = Arrays.asList(modifications);
+        }
+
+        @Override
+        public Iterator<KeyModification> iterator() {
+            return modifications.iterator();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static final class Modification implements KeyModification {
+
+        private final String txId;
+
+        private final Instant timestamp;
+
+        private final String value;
+
+        Modification(final String txId, final Instant timestamp, final String value) {
+            this.txId = txId;
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+
+        @Override
+        public String getTxId() {
+            return txId;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String getStringValue() {
+            return value == null ? "" : value;
+        }
+
+        @Override
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean isDeleted() {
+            return value == null;
+        }
+    }
+}
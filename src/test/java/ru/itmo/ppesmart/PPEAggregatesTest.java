@@ -0,0 +1,140 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.GenericType;
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compaction folds only the deltas of settled hours and commits next to writers of new deltas
+ */
+class PPEAggregatesTest {
+
+    private static final Genson GENSON = new Genson();
+
+    private static final int RECORDS = 12;
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    private final Instant now = Instant.now();
+
+    @BeforeEach
+    void populate() {
+        // the records are written three to five hours ago, spread over three hours
+        for (int i = 0; i < RECORDS; i++) {
+            PPE ppe = PPEFixtures.ppe(i);
+            Instant timestamp = now.minus(3 + i % 3, ChronoUnit.HOURS);
+            assertEquals(InMemoryLedger.Validation.VALID, submit(timestamp, ctx -> contract.createPPE(ctx,
+                    ppe.getOwnerName(), ppe.getOwnerID(), ppe.getName(), ppe.getStatus(), ppe.getPrice(),
+                    ppe.getInventoryNumber(), ppe.getStartUseDate(), ppe.getLifeTime(), ppe.getSubsidiary())));
+        }
+    }
+
+    @Test
+    void compactionKeepsTotals() {
+        List<Map<String, Object>> before = aggregates();
+
+        assertEquals(2, compact(now, 2));
+        assertEquals(RECORDS - 2, compact(now, RECORDS));
+        assertEquals(0, compact(now, RECORDS));
+
+        List<Map<String, Object>> after = aggregates();
+        assertEquals(totals(before), totals(after));
+        for (Map<String, Object> aggregate: after) {
+            assertEquals(0L, aggregate.get("pendingDeltas"));
+        }
+    }
+
+    @Test
+    void leavesDeltasOfUnsettledHours() {
+        submit(now, ctx -> contract.transferPPE(ctx, PPEFixtures.inventoryNumber(0), "SUB-900", "TRANSFER"));
+        submit(now.minus(1, ChronoUnit.HOURS), ctx -> contract.transferPPE(ctx, PPEFixtures.inventoryNumber(1),
+                "SUB-900", "TRANSFER"));
+
+        assertEquals(RECORDS, compact(now, RECORDS));
+
+        assertEquals(4, pending(aggregates()));
+    }
+
+    @Test
+    void commitsNextToWritersOfNewDeltas() {
+        InMemoryChaincodeStub compaction = ledger.newTransaction(now, "compactAggregates");
+        Context compactionCtx = contract.createContext(compaction);
+        assertEquals(RECORDS, contract.compactAggregates(compactionCtx, PPEAggregates.SUBSIDIARY, RECORDS));
+
+        assertEquals(InMemoryLedger.Validation.VALID, submit(now, ctx -> contract.transferPPE(ctx,
+                PPEFixtures.inventoryNumber(0), "SUB-900", "TRANSFER")));
+
+        assertEquals(InMemoryLedger.Validation.VALID, ledger.commit(compaction));
+    }
+
+    @Test
+    void lateDeltaInvalidatesCompactionOnly() {
+        // the oldest hour holds a third of the records and becomes the last compacted hour
+        assertEquals(RECORDS / 3, compact(now, RECORDS / 3));
+        long pending = pending(aggregates());
+
+        InMemoryChaincodeStub compaction = ledger.newTransaction(now, "compactAggregates");
+        Context compactionCtx = contract.createContext(compaction);
+        contract.compactAggregates(compactionCtx, PPEAggregates.SUBSIDIARY, RECORDS);
+
+        // a client whose clock is four hours behind writes into a settled hour scanned by the compaction
+        assertEquals(InMemoryLedger.Validation.VALID, submit(now.minus(4, ChronoUnit.HOURS),
+                ctx -> contract.transferPPE(ctx, PPEFixtures.inventoryNumber(0), "SUB-900", "TRANSFER")));
+
+        assertEquals(InMemoryLedger.Validation.PHANTOM_READ_CONFLICT, ledger.commit(compaction));
+        assertEquals(pending + 2, pending(aggregates()));
+
+        assertEquals(pending + 2, compact(now, RECORDS));
+        assertEquals(0, pending(aggregates()));
+    }
+
+    private int compact(final Instant timestamp, final int maxDeltas) {
+        int[] folded = new int[1];
+        assertEquals(InMemoryLedger.Validation.VALID, submit(timestamp, ctx -> {
+            folded[0] = contract.compactAggregates(ctx, PPEAggregates.SUBSIDIARY, maxDeltas);
+            return folded[0];
+        }));
+        return folded[0];
+    }
+
+    private List<Map<String, Object>> aggregates() {
+        Context ctx = contract.createContext(ledger.newTransaction("evaluate"));
+        return GENSON.deserialize(contract.getPPEAggregates(ctx, PPEAggregates.SUBSIDIARY, ""),
+                new GenericType<List<Map<String, Object>>>() { });
+    }
+
+    private static String totals(final List<Map<String, Object>> aggregates) {
+        StringBuilder totals = new StringBuilder();
+        for (Map<String, Object> aggregate: aggregates) {
+            totals.append(aggregate.get("value")).append('=').append(aggregate.get("count"))
+                    .append('/').append(aggregate.get("totalPrice")).append(';');
+        }
+        return totals.toString();
+    }
+
+    private static long pending(final List<Map<String, Object>> aggregates) {
+        long pending = 0;
+        for (Map<String, Object> aggregate: aggregates) {
+            pending += (Long) aggregate.get("pendingDeltas");
+        }
+        return pending;
+    }
+
+    private <T> InMemoryLedger.Validation submit(final Instant timestamp, final Function<Context, T> transaction) {
+        InMemoryChaincodeStub stub = ledger.newTransaction(timestamp, "submit");
+        PPEFixtures.execute(contract, stub, transaction);
+        return ledger.commit(stub);
+    }
+}
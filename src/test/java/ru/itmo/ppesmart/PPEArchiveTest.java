@@ -0,0 +1,151 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Retired ppes read back from the archive as they were when retired
+ */
+class PPEArchiveTest {
+
+    private static final int RECORDS = 6;
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    @BeforeEach
+    void populate() {
+        PPEFixtures.populate(ledger, RECORDS);
+    }
+
+    @Test
+    void readsRetiredPPE() {
+        PPE ppe = PPEFixtures.ppe(1);
+
+        assertEquals(ppe, submit(ctx -> contract.retirePPE(ctx, ppe.getInventoryNumber())));
+
+        assertEquals(ppe, contract.readArchivedPPE(evaluate(), ppe.getInventoryNumber()));
+        assertEquals(ppe, contract.readArchivedSubsidiaryPPE(evaluate(), ppe.getSubsidiary(), ppe.getInventoryNumber()));
+        assertFalse(contract.isPPEExist(evaluate(), ppe.getInventoryNumber()));
+        assertEquals(1, chunks().size());
+    }
+
+    @Test
+    void readsEveryPPEOfBatchFromOneChunk() {
+        List<PPE> ppes = Arrays.asList(PPEFixtures.ppe(0), PPEFixtures.ppe(2), PPEFixtures.ppe(5));
+        List<String> inventoryNumbers = new ArrayList<>();
+        for (PPE ppe: ppes) {
+            inventoryNumbers.add(ppe.getInventoryNumber());
+        }
+
+        submit(ctx -> contract.retirePPEBatch(ctx, PPETransfer.GENSON.serialize(inventoryNumbers), "ATOMIC"));
+
+        for (PPE ppe: ppes) {
+            assertEquals(ppe, contract.readArchivedPPE(evaluate(), ppe.getInventoryNumber()));
+        }
+        assertEquals(1, chunks().size());
+    }
+
+    @Test
+    void keepsAbsentFields() {
+        PPE ppe = new PPE(null, null, "Перчатки", "REPAIR", null, "INV-ABSENT", null, null, "SUB-001");
+        submit(ctx -> contract.createPPE(ctx, ppe.getOwnerName(), ppe.getOwnerID(), ppe.getName(), ppe.getStatus(),
+                ppe.getPrice(), ppe.getInventoryNumber(), ppe.getStartUseDate(), ppe.getLifeTime(), ppe.getSubsidiary()));
+
+        submit(ctx -> contract.retirePPE(ctx, ppe.getInventoryNumber()));
+
+        assertEquals(ppe, contract.readArchivedPPE(evaluate(), ppe.getInventoryNumber()));
+    }
+
+    @Test
+    void readsLatestRetirementOfInventoryNumber() {
+        PPE first = PPEFixtures.ppe(3);
+        submit(ctx -> contract.retirePPE(ctx, first.getInventoryNumber()));
+        PPE second = first.withStatus("WRITTEN_OFF", first.getSubsidiary());
+        submit(ctx -> contract.createPPE(ctx, second.getOwnerName(), second.getOwnerID(), second.getName(),
+                second.getStatus(), second.getPrice(), second.getInventoryNumber(), second.getStartUseDate(),
+                second.getLifeTime(), second.getSubsidiary()));
+
+        submit(ctx -> contract.retirePPE(ctx, second.getInventoryNumber()));
+
+        assertEquals(second, contract.readArchivedPPE(evaluate(), second.getInventoryNumber()));
+        assertEquals(2, chunks().size());
+    }
+
+    @Test
+    void reportsCorruptedChunk() {
+        PPE ppe = PPEFixtures.ppe(4);
+        submit(ctx -> contract.retirePPE(ctx, ppe.getInventoryNumber()));
+        String chunk = chunks().get(0);
+        InMemoryChaincodeStub stub = ledger.newTransaction("corrupt");
+        stub.putState(chunk, new byte[] {1, 2, 3});
+        assertEquals(InMemoryLedger.Validation.VALID, ledger.commit(stub));
+
+        ChaincodeException e = assertThrows(ChaincodeException.class,
+                () -> contract.readArchivedPPE(evaluate(), ppe.getInventoryNumber()));
+
+        assertEquals("ARCHIVE_CORRUPTED", new String(e.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void writesChunkOfFixedBytes() throws NoSuchAlgorithmException {
+        PPE ppe = PPEFixtures.ppe(1);
+        submit(ctx -> contract.retirePPE(ctx, ppe.getInventoryNumber()));
+
+        byte[] chunk = ledger.getState().get(chunks().get(0)).value;
+
+        // endorsing peers must agree on the chunk byte for byte, whatever JDK they run
+        assertEquals("8e8661e062b50c5e9de750db969ae67f69d8a96e7c67748eaa5b7c3fb149bb11", sha256(chunk));
+    }
+
+    @Test
+    void rejectsPPENotArchived() {
+        ChaincodeException e = assertThrows(ChaincodeException.class,
+                () -> contract.readArchivedPPE(evaluate(), PPEFixtures.inventoryNumber(0)));
+
+        assertEquals("PPE_NOT_FOUND", new String(e.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    private List<String> chunks() {
+        String prefix = new CompositeKey(PPEArchive.CHUNK).toString();
+        List<String> chunks = new ArrayList<>();
+        for (String key: ledger.getState().keySet()) {
+            if (key.startsWith(prefix)) {
+                chunks.add(key);
+            }
+        }
+        return chunks;
+    }
+
+    private static String sha256(final byte[] value) throws NoSuchAlgorithmException {
+        StringBuilder hex = new StringBuilder();
+        for (byte b: MessageDigest.getInstance("SHA-256").digest(value)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private Context evaluate() {
+        return contract.createContext(ledger.newTransaction("evaluate"));
+    }
+
+    private <T> T submit(final Function<Context, T> transaction) {
+        return PPEFixtures.submit(contract, ledger, transaction);
+    }
+}
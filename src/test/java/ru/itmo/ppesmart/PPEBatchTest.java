@@ -0,0 +1,151 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.GenericType;
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * PER_ITEM batches keep the items that succeed and report the failed ones, ATOMIC batches fail as a whole
+ */
+class PPEBatchTest {
+
+    private static final Genson GENSON = new Genson();
+
+    private static final int RECORDS = 4;
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    @BeforeEach
+    void populate() {
+        PPEFixtures.populate(ledger, RECORDS);
+    }
+
+    @Test
+    void perItemBatchStoresItemsThatSucceed() {
+        PPE created = PPEFixtures.ppe(RECORDS);
+        String ppesJSON = GENSON.serialize(Arrays.asList(created, PPEFixtures.ppe(1), created));
+
+        Map<String, Object> result = parse(submit(ctx -> contract.createPPEBatch(ctx, ppesJSON, "PER_ITEM")));
+
+        assertEquals("PER_ITEM", result.get("mode"));
+        assertEquals(1L, result.get("succeeded"));
+        assertEquals(2L, result.get("failed"));
+        assertEquals(Arrays.asList(null, "PPE_ALREADY_EXISTS", "INVALID_ARGUMENT"), errors(result));
+        assertEquals(created, read(created.getInventoryNumber()));
+    }
+
+    @Test
+    void perItemBatchReportsEveryItemInOrder() {
+        List<String> inventoryNumbers = Arrays.asList(PPEFixtures.inventoryNumber(0), "INV-MISSING",
+                PPEFixtures.inventoryNumber(2));
+
+        Map<String, Object> result = parse(submit(ctx -> contract.retirePPEBatch(ctx,
+                GENSON.serialize(inventoryNumbers), "PER_ITEM")));
+
+        assertEquals(Arrays.asList(null, "PPE_NOT_FOUND", null), errors(result));
+        List<String> reported = new ArrayList<>();
+        for (Map<String, Object> item: items(result)) {
+            reported.add((String) item.get("inventoryNumber"));
+        }
+        assertEquals(inventoryNumbers, reported);
+    }
+
+    @Test
+    void atomicBatchFailsOnFirstFailedItem() {
+        PPE transferred = PPEFixtures.ppe(1);
+        String transfers = "[{\"inventoryNumber\":\"" + transferred.getInventoryNumber() + "\","
+                + "\"transferToSubsidiary\":\"SUB-900\",\"transferStatus\":\"TRANSFER\"},"
+                + "{\"inventoryNumber\":\"INV-MISSING\",\"transferToSubsidiary\":\"SUB-900\","
+                + "\"transferStatus\":\"TRANSFER\"}]";
+
+        ChaincodeException e = assertThrows(ChaincodeException.class,
+                () -> submit(ctx -> contract.transferPPEBatch(ctx, transfers, "ATOMIC")));
+
+        assertEquals("PPE_NOT_FOUND", code(e));
+        assertTrue(e.getMessage().startsWith("batch item 1 failed"));
+        assertEquals(transferred, read(transferred.getInventoryNumber()));
+    }
+
+    @Test
+    void batchWithoutModeIsAtomic() {
+        String inventoryNumbers = "[\"INV-MISSING\"]";
+
+        Map<String, Object> result = parse(submit(ctx -> contract.retirePPEBatch(ctx,
+                "[\"" + PPEFixtures.inventoryNumber(0) + "\"]", "")));
+        assertEquals("ATOMIC", result.get("mode"));
+        assertEquals(Arrays.asList((String) null), errors(result));
+
+        ChaincodeException e = assertThrows(ChaincodeException.class,
+                () -> submit(ctx -> contract.retirePPEBatch(ctx, inventoryNumbers, "")));
+        assertEquals("PPE_NOT_FOUND", code(e));
+    }
+
+    @Test
+    void rejectsInvalidBatches() {
+        List<String> tooMany = new ArrayList<>();
+        for (int i = 0; i <= 500; i++) {
+            tooMany.add(PPEFixtures.inventoryNumber(i));
+        }
+
+        assertRejected("BATCH_TOO_LARGE", GENSON.serialize(tooMany), "PER_ITEM");
+        assertRejected("INVALID_ARGUMENT", "[]", "PER_ITEM");
+        assertRejected("INVALID_ARGUMENT", "{\"inventoryNumber\":\"INV-1\"}", "PER_ITEM");
+        assertRejected("INVALID_ARGUMENT", "[\"" + PPEFixtures.inventoryNumber(0) + "\"]", "EVERYTHING");
+        assertEquals(PPEFixtures.ppe(0), read(PPEFixtures.inventoryNumber(0)));
+    }
+
+    private void assertRejected(final String code, final String inventoryNumbers, final String mode) {
+        ChaincodeException e = assertThrows(ChaincodeException.class,
+                () -> submit(ctx -> contract.retirePPEBatch(ctx, inventoryNumbers, mode)));
+        assertEquals(code, code(e));
+    }
+
+    private PPE read(final String inventoryNumber) {
+        return contract.readPPE(contract.createContext(ledger.newTransaction("evaluate")), inventoryNumber);
+    }
+
+    private static String code(final ChaincodeException e) {
+        return new String(e.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, Object> parse(final String resultJSON) {
+        return GENSON.deserialize(resultJSON, new GenericType<Map<String, Object>>() { });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> items(final Map<String, Object> result) {
+        return (List<Map<String, Object>>) result.get("results");
+    }
+
+    private static List<String> errors(final Map<String, Object> result) {
+        List<String> errors = new ArrayList<>();
+        for (Map<String, Object> item: items(result)) {
+            errors.add((String) item.get("error"));
+            if (item.get("error") == null) {
+                assertNull(item.get("message"));
+            }
+        }
+        return errors;
+    }
+
+    private <T> T submit(final Function<Context, T> transaction) {
+        return PPEFixtures.submit(contract, ledger, transaction);
+    }
+}
@@ -0,0 +1,108 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Binary values and the legacy JSON values written before the codec decode to the ppe that was stored
+ */
+class PPECodecTest {
+
+    private static final Genson GENSON = new Genson();
+
+    private final PPECodec codec = new PPECodec(GENSON, true);
+
+    @Test
+    void decodesEncodedPPE() {
+        PPE ppe = ppe("IN_USE", "2021-03-01");
+
+        byte[] value = codec.encode(ppe);
+
+        assertEquals(PPECodec.VERSION, value[0]);
+        assertEquals(ppe, codec.decode(value));
+        assertEquals(GENSON.serialize(ppe), codec.toJSON(value));
+    }
+
+    @Test
+    void decodesFreeFormValues() {
+        PPE ppe = ppe("На проверке", "весна 2021");
+
+        assertEquals(ppe, codec.decode(codec.encode(ppe)));
+    }
+
+    @Test
+    void decodesAbsentFields() {
+        PPE ppe = new PPE(null, null, null, null, null, "INV-1", null, null, null);
+
+        assertEquals(ppe, codec.decode(codec.encode(ppe)));
+    }
+
+    @Test
+    void keepsBinaryValueWhenBroughtToBinary() {
+        byte[] value = codec.encode(ppe("IN_USE", "2021-03-01"));
+
+        assertArrayEquals(value, codec.toBinary(value));
+    }
+
+    @Test
+    void decodesLegacyJSON() {
+        PPE ppe = ppe("REPAIR", "01.03.2021");
+        byte[] value = GENSON.serialize(ppe).getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(ppe, codec.decode(value));
+        assertEquals(ppe, codec.decode(codec.toBinary(value)));
+    }
+
+    @Test
+    void sharesSubsidiaryOfBinaryAndJSONValues() {
+        PPE ppe = ppe("IN_USE", "2021-03-01");
+        byte[] json = GENSON.serialize(ppe).getBytes(StandardCharsets.UTF_8);
+
+        assertSame(codec.decode(codec.encode(ppe)).getSubsidiary(), codec.decode(json).getSubsidiary());
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] value = codec.encode(ppe("IN_USE", "2021-03-01"));
+        value[0] = 0x7F;
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(value));
+    }
+
+    @Test
+    void scanNamesKeyOfMalformedValue() {
+        PPETransfer contract = new PPETransfer();
+        InMemoryLedger ledger = new InMemoryLedger();
+        PPEFixtures.populate(ledger, 3);
+        PPE ppe = PPEFixtures.ppe(1);
+        InMemoryChaincodeStub stub = ledger.newTransaction("corrupt");
+        String key = PPEKeys.recordKey(stub, ppe);
+        byte[] value = codec.encode(ppe);
+        stub.putState(key, Arrays.copyOf(value, value.length / 2));
+        assertEquals(InMemoryLedger.Validation.VALID, ledger.commit(stub));
+
+        for (String filterJSON: new String[] {"", "{\"subsidiary\":\"" + ppe.getSubsidiary() + "\"}"}) {
+            Context ctx = contract.createContext(ledger.newTransaction("evaluate"));
+            ChaincodeException e = assertThrows(ChaincodeException.class,
+                    () -> contract.scanPPEs(ctx, "inventoryNumber,subsidiary", filterJSON, 10, ""));
+            assertEquals("RECORD_CORRUPTED", new String(e.getPayload(), StandardCharsets.UTF_8));
+            assertTrue(e.getMessage().contains(key));
+        }
+    }
+
+    private static PPE ppe(final String status, final String startUseDate) {
+        return new PPE("Иванов Иван Иванович", "EMP-0000001", "Каска защитная", status, 1500.5f, "INV-00000001",
+                startUseDate, 24, "SUB-001");
+    }
+}
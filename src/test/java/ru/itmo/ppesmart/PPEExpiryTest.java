@@ -0,0 +1,125 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.GenericType;
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pages of the expiring query resumed from their bookmarks read every ppe of the month range exactly once
+ */
+class PPEExpiryTest {
+
+    private static final Genson GENSON = new Genson();
+
+    /**
+     * Five ppes expire in each month from 2023-03 to 2024-02
+     */
+    private static final int RECORDS = 60;
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    @BeforeEach
+    void populate() {
+        PPEFixtures.populate(ledger, RECORDS);
+    }
+
+    @Test
+    void pagesReadEveryExpiringPPEOnce() {
+        Set<PPE> expected = expiring(0, 11);
+
+        // a page of five ends exactly at the end of a month
+        for (int pageSize: new int[] {1, 3, 5, 7, RECORDS}) {
+            assertEquals(expected, readPages("202301", "202412", "", pageSize), "page size " + pageSize);
+        }
+    }
+
+    @Test
+    void readsOnlyTheMonthRange() {
+        assertEquals(expiring(3, 5), readPages("202306", "202308", "", 2));
+        assertEquals(expiring(0, 0), readPages("202201", "202303", "", 2));
+    }
+
+    @Test
+    void filtersBySubsidiary() {
+        assertEquals(new HashSet<>(Arrays.asList(PPEFixtures.ppe(7))),
+                readPages("202301", "202412", PPEFixtures.subsidiary(7), 1));
+    }
+
+    @Test
+    void lastPageOfRangeHasNoBookmark() {
+        Map<String, Object> page = query("202303", "202303", "", 5, "");
+
+        assertEquals(5L, page.get("fetchedRecordsCount"));
+        assertEquals("", page.get("bookmark"));
+    }
+
+    @Test
+    void rejectsBookmarkOutsideTheRange() {
+        String bookmark = (String) query("202303", "202412", "", 3, "").get("bookmark");
+        assertTrue(bookmark.startsWith("202303"));
+
+        assertRejected("202304", "202412", bookmark);
+        assertRejected("202303", "202412", "2099");
+        assertRejected("202412", "202301", "");
+        assertRejected("2023-03", "202412", "");
+    }
+
+    private void assertRejected(final String fromMonth, final String toMonth, final String bookmark) {
+        ChaincodeException e = assertThrows(ChaincodeException.class,
+                () -> query(fromMonth, toMonth, "", 3, bookmark));
+        assertEquals("INVALID_ARGUMENT", new String(e.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return fixture ppes whose life time in months over 24 lies between the bounds
+     */
+    private static Set<PPE> expiring(final int fromMonths, final int toMonths) {
+        Set<PPE> ppes = new HashSet<>();
+        for (int i = 0; i < RECORDS; i++) {
+            if (i % 12 >= fromMonths && i % 12 <= toMonths) {
+                ppes.add(PPEFixtures.ppe(i));
+            }
+        }
+        return ppes;
+    }
+
+    private Set<PPE> readPages(final String fromMonth, final String toMonth, final String subsidiary,
+                               final int pageSize) {
+        Set<PPE> ppes = new HashSet<>();
+        String bookmark = "";
+        do {
+            Map<String, Object> page = query(fromMonth, toMonth, subsidiary, pageSize, bookmark);
+            List<PPE> records = Arrays.asList(GENSON.deserialize(GENSON.serialize(page.get("records")), PPE[].class));
+            assertTrue(records.size() <= pageSize);
+            assertEquals((long) records.size(), page.get("fetchedRecordsCount"));
+            for (PPE ppe: records) {
+                assertTrue(ppes.add(ppe), "ppe read twice: " + ppe);
+            }
+            bookmark = (String) page.get("bookmark");
+        } while (!bookmark.isEmpty());
+        return ppes;
+    }
+
+    private Map<String, Object> query(final String fromMonth, final String toMonth, final String subsidiary,
+                                      final int pageSize, final String bookmark) {
+        Context ctx = contract.createContext(ledger.newTransaction("evaluate"));
+        return GENSON.deserialize(contract.queryExpiringPPEs(ctx, fromMonth, toMonth, subsidiary, pageSize, bookmark),
+                new GenericType<Map<String, Object>>() { });
+    }
+}
@@ -0,0 +1,336 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.GenericType;
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * An export cut into chunks and resumed from any resume key gives the same data as the export in one chunk
+ */
+class PPEExportTest {
+
+    private static final Genson GENSON = new Genson();
+
+    /**
+     * More than two pages of the export, so that chunks end inside pages and on their bounds
+     */
+    private static final int RECORDS = 450;
+
+    private static final int LEGACY_RECORDS = 30;
+
+    private static final int CHUNK_BYTES = 4096;
+
+    /**
+     * Chunk size limit of the contract, the whole export fits one chunk
+     */
+    private static final int ONE_CHUNK_BYTES = 32 * 1024 * 1024;
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    @BeforeEach
+    void populate() {
+        PPEFixtures.populate(ledger, RECORDS);
+
+        InMemoryChaincodeStub stub = ledger.newTransaction("populateLegacy");
+        for (int i = RECORDS; i < RECORDS + LEGACY_RECORDS; i++) {
+            PPE ppe = PPEFixtures.ppe(i);
+            stub.putState(ppe.getInventoryNumber(), GENSON.serialize(ppe).getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(InMemoryLedger.Validation.VALID, ledger.commit(stub));
+    }
+
+    @Test
+    void exportsEveryRecordOnce() {
+        Map<String, Object> oneShot = export("", "", ONE_CHUNK_BYTES, PPEExport.NDJSON);
+
+        assertEquals("", oneShot.get("resumeKey"));
+        assertEquals((long) (RECORDS + LEGACY_RECORDS), oneShot.get("count"));
+        assertEquals(RECORDS + LEGACY_RECORDS, ((String) oneShot.get("data")).split("\n").length);
+    }
+
+    @Test
+    void resumesFromEveryKey() {
+        String oneShot = (String) export("", "", ONE_CHUNK_BYTES, PPEExport.NDJSON).get("data");
+        List<Map<String, Object>> chunks = exportAll("", "", PPEExport.NDJSON);
+        assertTrue(chunks.size() > 10);
+
+        StringBuilder suffix = new StringBuilder();
+        for (int i = chunks.size() - 1; i >= 0; i--) {
+            Map<String, Object> chunk = chunks.get(i);
+            String data = (String) chunk.get("data");
+            assertTrue(data.getBytes(StandardCharsets.UTF_8).length <= CHUNK_BYTES);
+            assertEquals(sha256(data.getBytes(StandardCharsets.UTF_8)), chunk.get("checksum"));
+            suffix.insert(0, data);
+
+            String startKey = i == 0 ? "" : (String) chunks.get(i - 1).get("resumeKey");
+            assertEquals(suffix.toString(), join(exportAll("", startKey, PPEExport.NDJSON)), "resumed from " + startKey);
+        }
+        assertEquals(oneShot, suffix.toString());
+    }
+
+    @Test
+    void resumesAfterWritesBetweenChunks() {
+        Map<String, Object> first = export("", "", CHUNK_BYTES, PPEExport.NDJSON);
+        List<String> exported = inventoryNumbers((String) first.get("data"));
+        assertTrue(exported.size() > 1);
+        String left = PPEFixtures.inventoryNumber(RECORDS - 1);
+        assertFalse(exported.contains(left));
+
+        // the first subsidiary is exported first, the last one at the end of the namespaced records
+        PPE before = new PPE("Петров", "EMP-1", "Каска", "IN_USE", 1500f, "INV-0", "2021-03-01", 24,
+                PPEFixtures.subsidiary(0));
+        PPE after = new PPE("Петров", "EMP-1", "Каска", "IN_USE", 1500f, "INV-99999999", "2021-03-01", 24,
+                PPEFixtures.subsidiary(PPEFixtures.SUBSIDIARIES - 1));
+        submit(ctx -> contract.deletePPE(ctx, exported.get(0)));
+        submit(ctx -> contract.deletePPE(ctx, left));
+        submit(ctx -> contract.createPPE(ctx, before.getOwnerName(), before.getOwnerID(), before.getName(),
+                before.getStatus(), before.getPrice(), before.getInventoryNumber(), before.getStartUseDate(),
+                before.getLifeTime(), before.getSubsidiary()));
+        submit(ctx -> contract.createPPE(ctx, after.getOwnerName(), after.getOwnerID(), after.getName(),
+                after.getStatus(), after.getPrice(), after.getInventoryNumber(), after.getStartUseDate(),
+                after.getLifeTime(), after.getSubsidiary()));
+
+        List<String> resumed = inventoryNumbers(join(exportAll("", (String) first.get("resumeKey"), PPEExport.NDJSON)));
+
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < RECORDS + LEGACY_RECORDS; i++) {
+            expected.add(PPEFixtures.inventoryNumber(i));
+        }
+        expected.remove(left);
+        expected.add(after.getInventoryNumber());
+        List<String> all = new ArrayList<>(exported);
+        all.addAll(resumed);
+        assertEquals(expected.size(), all.size());
+        assertEquals(expected, new HashSet<>(all));
+        assertFalse(resumed.contains(before.getInventoryNumber()));
+    }
+
+    @Test
+    void rejectsKeyOutsideSubsidiary() {
+        // a chunk of a single ppe
+        String resumeKey = (String) export(PPEFixtures.subsidiary(7), "", 1, PPEExport.NDJSON).get("resumeKey");
+        assertFalse(resumeKey.isEmpty());
+
+        assertThrows(ChaincodeException.class,
+                () -> export(PPEFixtures.subsidiary(8), resumeKey, CHUNK_BYTES, PPEExport.NDJSON));
+        assertThrows(ChaincodeException.class, () -> export("", "X" + resumeKey, CHUNK_BYTES, PPEExport.NDJSON));
+    }
+
+    @Test
+    void exportsRangesInParallel() {
+        String oneShot = (String) export("", "", ONE_CHUNK_BYTES, PPEExport.NDJSON).get("data");
+        String firstEnd = getExportKey(PPEFixtures.subsidiary(30), "");
+        String secondEnd = getExportKey(PPEFixtures.subsidiary(60), PPEFixtures.inventoryNumber(160));
+
+        String first = join(exportAll("", "", firstEnd, PPEExport.NDJSON));
+        String second = join(exportAll("", firstEnd, secondEnd, PPEExport.NDJSON));
+        String third = join(exportAll("", secondEnd, "", PPEExport.NDJSON));
+
+        assertEquals(oneShot, first + second + third);
+        assertEquals(PPEFixtures.subsidiary(29), lastOf(first).getSubsidiary());
+        assertEquals(PPEFixtures.inventoryNumber(60), lastOf(second).getInventoryNumber());
+        assertEquals("", export("", firstEnd, firstEnd, ONE_CHUNK_BYTES, PPEExport.NDJSON).get("data"));
+        assertThrows(ChaincodeException.class,
+                () -> export(PPEFixtures.subsidiary(7), "", firstEnd, CHUNK_BYTES, PPEExport.NDJSON));
+    }
+
+    @Test
+    void adjacentRangesResumedAtCutoffsExportEveryRecordOnce() {
+        List<String> expected = inventoryNumbers((String) export("", "", ONE_CHUNK_BYTES, PPEExport.NDJSON).get("data"));
+        List<Map<String, Object>> cutoffs = exportAll("", "", "", CHUNK_BYTES, PPEExport.NDJSON);
+        assertTrue(cutoffs.size() > 3);
+        assertTrue(((String) cutoffs.get(cutoffs.size() - 2).get("resumeKey")).startsWith("L"));
+
+        // the ranges meet at resume keys of maxBytes cutoffs, in the record range and in the legacy range
+        for (int i: new int[] {0, cutoffs.size() / 2, cutoffs.size() - 2}) {
+            String boundary = (String) cutoffs.get(i).get("resumeKey");
+            for (int maxBytes: new int[] {CHUNK_BYTES, 1000}) {
+                List<String> exported = new ArrayList<>();
+                exported.addAll(inventoryNumbers(join(exportAll("", "", boundary, maxBytes, PPEExport.NDJSON))));
+                exported.addAll(inventoryNumbers(join(exportAll("", boundary, "", maxBytes, PPEExport.NDJSON))));
+
+                assertEquals(expected, exported, "boundary " + boundary + ", maxBytes " + maxBytes);
+                assertEquals(expected.size(), new HashSet<>(exported).size());
+            }
+        }
+    }
+
+    @Test
+    void resumesSubsidiaryExport() {
+        String subsidiary = PPEFixtures.subsidiary(7);
+        String oneShot = (String) export(subsidiary, "", ONE_CHUNK_BYTES, PPEExport.NDJSON).get("data");
+        List<Map<String, Object>> chunks = exportAll(subsidiary, "", PPEExport.NDJSON);
+
+        assertEquals(oneShot, join(chunks));
+        assertFalse(oneShot.isEmpty());
+        for (String line: oneShot.split("\n")) {
+            assertEquals(subsidiary, GENSON.deserialize(line, PPE.class).getSubsidiary());
+        }
+        for (int i = 1; i < chunks.size(); i++) {
+            String startKey = (String) chunks.get(i - 1).get("resumeKey");
+            assertEquals(join(chunks.subList(i, chunks.size())), join(exportAll(subsidiary, startKey, PPEExport.NDJSON)));
+        }
+    }
+
+    @Test
+    void boundsDataAsWrittenInResponse() {
+        PPE escaped = new PPE("Иванов \"ст.\"", "OWN-1", "Каска\\щиток\n\tсерая", "IN_USE", 100.5f, "INV-ESCAPED",
+                "2023-01-01", 24, "SUB-001");
+        submit(ctx -> contract.createPPE(ctx, escaped.getOwnerName(), escaped.getOwnerID(), escaped.getName(),
+                escaped.getStatus(), escaped.getPrice(), escaped.getInventoryNumber(), escaped.getStartUseDate(),
+                escaped.getLifeTime(), escaped.getSubsidiary()));
+
+        for (String format: new String[] {PPEExport.NDJSON, PPEExport.COLUMNS}) {
+            for (int maxBytes: new int[] {300, CHUNK_BYTES}) {
+                for (Map<String, Object> chunk: exportAll("", "", "", maxBytes, format)) {
+                    String data = GENSON.serialize(chunk.get("data"));
+                    int written = data.substring(1, data.length() - 1).getBytes(StandardCharsets.UTF_8).length;
+                    assertTrue(written <= maxBytes || (long) chunk.get("count") == 1,
+                            format + " chunk of " + written + " bytes over " + maxBytes);
+                }
+            }
+        }
+    }
+
+    @Test
+    void gzipsSameData() throws IOException {
+        String oneShot = (String) export("", "", ONE_CHUNK_BYTES, PPEExport.NDJSON).get("data");
+
+        StringBuilder data = new StringBuilder();
+        for (Map<String, Object> chunk: exportAll("", "", PPEExport.NDJSON + PPEExport.GZIP_SUFFIX)) {
+            byte[] bytes = gunzip(Base64.getDecoder().decode((String) chunk.get("data")));
+            assertEquals(sha256(bytes), chunk.get("checksum"));
+            data.append(new String(bytes, StandardCharsets.UTF_8));
+        }
+        assertEquals(oneShot, data.toString());
+    }
+
+    @Test
+    void resumesColumnsExport() {
+        List<Map<String, Object>> chunks = exportAll("", "", PPEExport.COLUMNS);
+
+        List<Object> inventoryNumbers = new ArrayList<>();
+        for (Map<String, Object> chunk: chunks) {
+            Map<String, List<Object>> columns = GENSON.deserialize((String) chunk.get("data"),
+                    new GenericType<Map<String, List<Object>>>() { });
+            assertEquals(chunk.get("count"), (long) columns.get("inventoryNumber").size());
+            inventoryNumbers.addAll(columns.get("inventoryNumber"));
+        }
+
+        List<Object> expected = new ArrayList<>();
+        for (String line: ((String) export("", "", ONE_CHUNK_BYTES, PPEExport.NDJSON).get("data")).split("\n")) {
+            expected.add(GENSON.deserialize(line, PPE.class).getInventoryNumber());
+        }
+        assertEquals(expected, inventoryNumbers);
+    }
+
+    private List<Map<String, Object>> exportAll(final String subsidiary, final String startKey, final String format) {
+        return exportAll(subsidiary, startKey, "", format);
+    }
+
+    private List<Map<String, Object>> exportAll(final String subsidiary, final String startKey, final String endKey,
+                                                final String format) {
+        return exportAll(subsidiary, startKey, endKey, CHUNK_BYTES, format);
+    }
+
+    private List<Map<String, Object>> exportAll(final String subsidiary, final String startKey, final String endKey,
+                                                final int maxBytes, final String format) {
+        List<Map<String, Object>> chunks = new ArrayList<>();
+        String resumeKey = startKey;
+        do {
+            Map<String, Object> chunk = export(subsidiary, resumeKey, endKey, maxBytes, format);
+            assertTrue((long) chunk.get("count") > 0);
+            chunks.add(chunk);
+            resumeKey = (String) chunk.get("resumeKey");
+        } while (!resumeKey.isEmpty());
+        return chunks;
+    }
+
+    private Map<String, Object> export(final String subsidiary, final String startKey, final int maxBytes,
+                                       final String format) {
+        return export(subsidiary, startKey, "", maxBytes, format);
+    }
+
+    private Map<String, Object> export(final String subsidiary, final String startKey, final String endKey,
+                                       final int maxBytes, final String format) {
+        String chunk = contract.exportPPEs(contract.createContext(ledger.newTransaction("evaluate")), subsidiary,
+                startKey, endKey, maxBytes, format);
+        return GENSON.deserialize(chunk, new GenericType<Map<String, Object>>() { });
+    }
+
+    private void submit(final Consumer<Context> transaction) {
+        PPEFixtures.submit(contract, ledger, ctx -> {
+            transaction.accept(ctx);
+            return null;
+        });
+    }
+
+    private String getExportKey(final String subsidiary, final String inventoryNumber) {
+        return contract.getExportKey(contract.createContext(ledger.newTransaction("evaluate")), subsidiary,
+                inventoryNumber);
+    }
+
+    private static PPE lastOf(final String data) {
+        String[] lines = data.split("\n");
+        return GENSON.deserialize(lines[lines.length - 1], PPE.class);
+    }
+
+    private static List<String> inventoryNumbers(final String data) {
+        List<String> inventoryNumbers = new ArrayList<>();
+        for (String line: data.split("\n")) {
+            inventoryNumbers.add(GENSON.deserialize(line, PPE.class).getInventoryNumber());
+        }
+        return inventoryNumbers;
+    }
+
+    private static String join(final List<Map<String, Object>> chunks) {
+        StringBuilder data = new StringBuilder();
+        for (Map<String, Object> chunk: chunks) {
+            data.append((String) chunk.get("data"));
+        }
+        return data.toString();
+    }
+
+    private static byte[] gunzip(final byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static String sha256(final byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b: MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+
+import java.util.function.Function;
+
+/**
+ * Deterministic PPE records and transaction runs on the in-memory ledger for tests and benchmarks
+ */
+final class PPEFixtures {
+
+    static final int SUBSIDIARIES = 100;
+
+    static final int PPE_PER_OWNER = 5;
+
+    static final String[] STATUSES = {"IN_USE", "IN_STOCK", "TRANSFER", "WRITTEN_OFF"};
+
+    private PPEFixtures() {
+    }
+
+    static String inventoryNumber(final int i) {
+        return String.format("INV-%08d", i);
+    }
+
+    static String subsidiary(final int i) {
+        return String.format("SUB-%03d", Math.floorMod(i, SUBSIDIARIES));
+    }
+
+    static String ownerID(final int i) {
+        return String.format("EMP-%07d", i / PPE_PER_OWNER);
+    }
+
+    /**
+     * Bookmark of the ppe page starting at the first record of the subsidiary
+     */
+    static String pageBookmark(final int i) {
+        return "R" + new CompositeKey(PPEKeys.RECORD, subsidiary(i));
+    }
+
+    static PPE ppe(final int i) {
+        return new PPE("Иванов Иван Иванович " + i / PPE_PER_OWNER, ownerID(i), "Каска защитная",
+                STATUSES[i % STATUSES.length], 1500.5f + i % 100, inventoryNumber(i),
+                "2021-03-01", 24 + i % 12, subsidiary(i));
+    }
+
+    /**
+     * Runs the transaction function between the contract hooks, as the contract runtime does, without committing it
+     *
+     * @param contract the contract
+     * @param stub the transaction view of the ledger
+     * @param transaction the transaction function
+     * @return result of the transaction function
+     */
+    static <T> T execute(final PPETransfer contract, final InMemoryChaincodeStub stub,
+                         final Function<Context, T> transaction) {
+        Context ctx = contract.createContext(stub);
+        contract.beforeTransaction(ctx);
+        T result = transaction.apply(ctx);
+        contract.afterTransaction(ctx, result);
+        return result;
+    }
+
+    /**
+     * Runs the transaction function in a new transaction and commits it
+     *
+     * @param contract the contract
+     * @param ledger the in-memory ledger
+     * @param transaction the transaction function
+     * @return result of the transaction function
+     * @throws IllegalStateException if the transaction is not valid
+     */
+    static <T> T submit(final PPETransfer contract, final InMemoryLedger ledger, final Function<Context, T> transaction) {
+        return submit(contract, ledger, ledger.newTransaction("submit"), transaction);
+    }
+
+    /**
+     * Runs the transaction function on the transaction view and commits it
+     *
+     * @param contract the contract
+     * @param ledger the in-memory ledger
+     * @param stub the transaction view of the ledger
+     * @param transaction the transaction function
+     * @return result of the transaction function
+     * @throws IllegalStateException if the transaction is not valid
+     */
+    static <T> T submit(final PPETransfer contract, final InMemoryLedger ledger, final InMemoryChaincodeStub stub,
+                        final Function<Context, T> transaction) {
+        T result = execute(contract, stub, transaction);
+        InMemoryLedger.Validation validation = ledger.commit(stub);
+        if (validation != InMemoryLedger.Validation.VALID) {
+            throw new IllegalStateException("transaction " + stub.getTxId() + " is " + validation);
+        }
+        return result;
+    }
+
+    /**
+     * Writes records with their pointers, indexes and aggregates in one transaction, bypassing the contract
+     *
+     * @param ledger the in-memory ledger
+     * @param records number of records
+     */
+    static void populate(final InMemoryLedger ledger, final int records) {
+        PPECodec codec = new PPECodec(new Genson());
+        InMemoryChaincodeStub stub = ledger.newTransaction("populate");
+        for (int i = 0; i < records; i++) {
+            PPE ppe = ppe(i);
+            stub.putState(PPEKeys.recordKey(stub, ppe), codec.encode(ppe));
+            PPEKeys.updatePointer(stub, ppe.getInventoryNumber(), null, PPEKeys.partitionOf(ppe));
+            PPEIndex.update(stub, null, ppe);
+            PPEAggregates.record(stub, null, ppe);
+        }
+        ledger.commit(stub);
+    }
+}
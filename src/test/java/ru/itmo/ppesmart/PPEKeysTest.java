@@ -0,0 +1,58 @@
+package ru.itmo.ppesmart;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * An inventory number is held by one subsidiary at a time, so transactions taking it alone find one record
+ */
+class PPEKeysTest {
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    @BeforeEach
+    void populate() {
+        PPEFixtures.populate(ledger, 4);
+    }
+
+    @Test
+    void rejectsInventoryNumberOfAnotherSubsidiary() {
+        PPE stored = PPEFixtures.ppe(1);
+        PPE duplicate = stored.withStatus(stored.getStatus(), "SUB-900");
+
+        assertRejected(duplicate);
+        assertRejected(stored);
+
+        PPE transferred = PPEFixtures.submit(contract, ledger,
+                ctx -> contract.transferPPE(ctx, stored.getInventoryNumber(), "SUB-900", "TRANSFER"));
+        assertEquals("SUB-900", transferred.getSubsidiary());
+        assertRejected(stored);
+    }
+
+    @Test
+    void rejectsInventoryNumberOfRecordUnderBareKey() {
+        PPE legacy = PPEFixtures.ppe(10);
+        InMemoryChaincodeStub stub = ledger.newTransaction("populateLegacy");
+        stub.putState(legacy.getInventoryNumber(), PPETransfer.CODEC.encode(legacy));
+        assertEquals(InMemoryLedger.Validation.VALID, ledger.commit(stub));
+
+        assertRejected(legacy.withStatus(legacy.getStatus(), "SUB-900"));
+    }
+
+    private void assertRejected(final PPE ppe) {
+        ChaincodeException e = assertThrows(ChaincodeException.class, () -> PPEFixtures.submit(contract, ledger,
+                ctx -> contract.createPPE(ctx, ppe.getOwnerName(), ppe.getOwnerID(), ppe.getName(), ppe.getStatus(),
+                        ppe.getPrice(), ppe.getInventoryNumber(), ppe.getStartUseDate(), ppe.getLifeTime(),
+                        ppe.getSubsidiary())));
+        assertEquals("PPE_ALREADY_EXISTS", new String(e.getPayload(), StandardCharsets.UTF_8));
+    }
+}
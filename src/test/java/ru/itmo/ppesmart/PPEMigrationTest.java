@@ -0,0 +1,245 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.GenericType;
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Scans and index queries return the same ppes before, during and after the move of bare inventory number keys
+ */
+class PPEMigrationTest {
+
+    private static final Genson GENSON = new Genson();
+
+    private static final int RECORDS = 40;
+
+    private static final int LEGACY_RECORDS = 25;
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    private Set<PPE> stored;
+
+    @BeforeEach
+    void populate() {
+        PPEFixtures.populate(ledger, RECORDS);
+
+        // half of the legacy records are JSON written before the codec, half are binary
+        PPECodec codec = new PPECodec(GENSON, true);
+        InMemoryChaincodeStub stub = ledger.newTransaction("populateLegacy");
+        for (int i = RECORDS; i < RECORDS + LEGACY_RECORDS; i++) {
+            PPE ppe = PPEFixtures.ppe(i);
+            byte[] value = i % 2 == 0 ? GENSON.serialize(ppe).getBytes(StandardCharsets.UTF_8) : codec.encode(ppe);
+            stub.putState(ppe.getInventoryNumber(), value);
+        }
+        assertEquals(InMemoryLedger.Validation.VALID, ledger.commit(stub));
+
+        stored = new HashSet<>();
+        for (int i = 0; i < RECORDS + LEGACY_RECORDS; i++) {
+            stored.add(PPEFixtures.ppe(i));
+        }
+    }
+
+    @Test
+    void scansSameRecordsBeforeAndAfterMigration() {
+        assertScansStored();
+
+        migrate(7);
+
+        assertScansStored();
+        assertTrue(legacyKeys().isEmpty());
+        assertTrue(PPEKeys.isLegacyDrained(ledger.newTransaction("check")));
+    }
+
+    @Test
+    void scansSameRecordsDuringMigration() {
+        Map<String, Object> result = migrateKeys("", 10);
+
+        assertEquals(10L, result.get("migrated"));
+        assertEquals(false, result.get("drained"));
+        assertEquals(LEGACY_RECORDS - 10, legacyKeys().size());
+        assertScansStored();
+    }
+
+    @Test
+    void marksDrainedOnlyAfterFullPass() {
+        String bookmark = "";
+        do {
+            Map<String, Object> result = migrateKeys(bookmark, 10);
+            assertEquals(false, result.get("drained"));
+            bookmark = (String) result.get("bookmark");
+        } while (!bookmark.isEmpty());
+        assertFalse(PPEKeys.isLegacyDrained(ledger.newTransaction("check")));
+
+        Map<String, Object> result = migrateKeys("", 10);
+
+        assertEquals(0L, result.get("migrated"));
+        assertEquals(true, result.get("drained"));
+        assertScansStored();
+    }
+
+    @Test
+    void rejectsExpiringQueryUntilMigrated() {
+        ChaincodeException e = assertThrows(ChaincodeException.class, () -> queryExpiring(""));
+        assertEquals("MIGRATION_PENDING", new String(e.getPayload(), StandardCharsets.UTF_8));
+
+        migrateKeys("", 10);
+        assertThrows(ChaincodeException.class, () -> queryExpiring(""));
+
+        migrate(10);
+
+        Set<PPE> expiring = new HashSet<>();
+        String bookmark = "";
+        do {
+            Map<String, Object> page = queryExpiring(bookmark);
+            expiring.addAll(parse(GENSON.serialize(page.get("records"))));
+            bookmark = (String) page.get("bookmark");
+        } while (!bookmark.isEmpty());
+        assertEquals(stored, expiring);
+    }
+
+    @Test
+    void keepsRecordsMigratedByTheirNextWrite() {
+        PPE legacy = PPEFixtures.ppe(RECORDS);
+        submit(ctx -> contract.transferPPE(ctx, legacy.getInventoryNumber(), "SUB-999", "TRANSFER"));
+        stored.remove(legacy);
+        stored.add(legacy.withStatus("TRANSFER", "SUB-999"));
+
+        migrate(4);
+
+        assertScansStored();
+    }
+
+    @Test
+    void countsMigratedRecordsInAggregates() {
+        migrate(10);
+        PPE legacy = PPEFixtures.ppe(RECORDS);
+        submit(ctx -> contract.transferPPE(ctx, legacy.getInventoryNumber(), "SUB-999", "TRANSFER"));
+        stored.remove(legacy);
+        stored.add(legacy.withStatus("TRANSFER", "SUB-999"));
+        PPE retired = PPEFixtures.ppe(RECORDS + 1);
+        submit(ctx -> contract.retirePPE(ctx, retired.getInventoryNumber()));
+        stored.remove(retired);
+
+        Map<String, Long> expected = new HashMap<>();
+        for (PPE ppe: stored) {
+            expected.merge(ppe.getSubsidiary(), 1L, Long::sum);
+        }
+        Map<String, Long> counts = new HashMap<>();
+        Context ctx = contract.createContext(ledger.newTransaction("evaluate"));
+        for (Map<String, Object> aggregate: GENSON.deserialize(
+                contract.getPPEAggregates(ctx, PPEAggregates.SUBSIDIARY, ""),
+                new GenericType<List<Map<String, Object>>>() { })) {
+            if ((Long) aggregate.get("count") != 0) {
+                counts.put((String) aggregate.get("value"), (Long) aggregate.get("count"));
+            }
+        }
+        assertEquals(expected, counts);
+    }
+
+    private void assertScansStored() {
+        Context ctx = contract.createContext(ledger.newTransaction("evaluate"));
+
+        assertEquals(stored, parse(contract.getAllPPEs(ctx)));
+        assertEquals(stored, readPages(3));
+        assertEquals(stored, readPages(RECORDS));
+        assertEquals(stored.size(), contract.countPPEs(ctx, ""));
+
+        String subsidiary = PPEFixtures.subsidiary(RECORDS + 1);
+        Set<PPE> ofSubsidiary = new HashSet<>();
+        for (PPE ppe: stored) {
+            if (subsidiary.equals(ppe.getSubsidiary())) {
+                ofSubsidiary.add(ppe);
+            }
+        }
+        assertEquals(ofSubsidiary, parse(contract.queryPPEsBySubsidiary(ctx, subsidiary)));
+
+        // the owner holds legacy records only, the status both kinds of records
+        String ownerID = PPEFixtures.ownerID(RECORDS);
+        String status = PPEFixtures.STATUSES[1];
+        Set<PPE> ofOwner = new HashSet<>();
+        Set<PPE> inStatus = new HashSet<>();
+        for (PPE ppe: stored) {
+            if (ownerID.equals(ppe.getOwnerID())) {
+                ofOwner.add(ppe);
+            }
+            if (status.equals(ppe.getStatus())) {
+                inStatus.add(ppe);
+            }
+        }
+        assertEquals(ofOwner, parse(contract.queryPPEsByOwner(ctx, ownerID)));
+        assertEquals(inStatus, parse(contract.queryPPEsByStatus(ctx, status)));
+    }
+
+    private Set<PPE> readPages(final int pageSize) {
+        Set<PPE> ppes = new HashSet<>();
+        String bookmark = "";
+        do {
+            Context ctx = contract.createContext(ledger.newTransaction("evaluate"));
+            Map<String, Object> page = GENSON.deserialize(contract.getAllPPEsWithPagination(ctx, pageSize, bookmark),
+                    new GenericType<Map<String, Object>>() { });
+            for (PPE ppe: parse(GENSON.serialize(page.get("records")))) {
+                assertTrue(ppes.add(ppe), "ppe read twice: " + ppe);
+            }
+            bookmark = (String) page.get("bookmark");
+        } while (!bookmark.isEmpty());
+        return ppes;
+    }
+
+    private Map<String, Object> queryExpiring(final String bookmark) {
+        Context ctx = contract.createContext(ledger.newTransaction("evaluate"));
+        return GENSON.deserialize(contract.queryExpiringPPEs(ctx, "202301", "202412", "", 16, bookmark),
+                new GenericType<Map<String, Object>>() { });
+    }
+
+    private void migrate(final int batchSize) {
+        String bookmark = "";
+        do {
+            bookmark = (String) migrateKeys(bookmark, batchSize).get("bookmark");
+        } while (!bookmark.isEmpty());
+        assertEquals(true, migrateKeys("", batchSize).get("drained"));
+    }
+
+    private Map<String, Object> migrateKeys(final String bookmark, final int batchSize) {
+        String result = submit(ctx -> contract.migrateKeys(ctx, bookmark, batchSize));
+        return GENSON.deserialize(result, new GenericType<Map<String, Object>>() { });
+    }
+
+    private List<String> legacyKeys() {
+        List<String> keys = new ArrayList<>();
+        for (String key: ledger.getState().keySet()) {
+            if (!key.startsWith(CompositeKey.NAMESPACE)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private <T> T submit(final Function<Context, T> transaction) {
+        return PPEFixtures.submit(contract, ledger, transaction);
+    }
+
+    private static Set<PPE> parse(final String ppesJSON) {
+        return new HashSet<>(Arrays.asList(GENSON.deserialize(ppesJSON, PPE[].class)));
+    }
+}
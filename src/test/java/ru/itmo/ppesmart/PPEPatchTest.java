@@ -0,0 +1,167 @@
+package ru.itmo.ppesmart;
+
+import com.owlike.genson.GenericType;
+import com.owlike.genson.Genson;
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Patches change only the named fields, and writes leaving a record as it is add nothing to the write set
+ */
+class PPEPatchTest {
+
+    private static final Genson GENSON = new Genson();
+
+    private final PPETransfer contract = new PPETransfer();
+
+    private final InMemoryLedger ledger = new InMemoryLedger();
+
+    private final PPE stored = PPEFixtures.ppe(1);
+
+    private final String inventoryNumber = stored.getInventoryNumber();
+
+    private InMemoryChaincodeStub lastStub;
+
+    @BeforeEach
+    void populate() {
+        PPEFixtures.populate(ledger, 4);
+    }
+
+    @Test
+    void patchChangesOnlyNamedFields() {
+        PPE patched = submit(ctx -> contract.patchPPE(ctx, inventoryNumber, "{\"status\":\"REPAIR\",\"price\":12.5}"));
+
+        assertEquals(new PPE(stored.getOwnerName(), stored.getOwnerID(), stored.getName(), "REPAIR", 12.5f,
+                inventoryNumber, stored.getStartUseDate(), stored.getLifeTime(), stored.getSubsidiary()), patched);
+        assertEquals(patched, read());
+    }
+
+    @Test
+    void patchClearsFieldsSetToNull() {
+        PPE patched = submit(ctx -> contract.patchPPE(ctx, inventoryNumber, "{\"price\":null,\"lifeTime\":null}"));
+
+        assertNull(patched.getPrice());
+        assertNull(patched.getLifeTime());
+        assertEquals(stored.getStatus(), patched.getStatus());
+        assertEquals(patched, read());
+    }
+
+    @Test
+    void patchMovesRecordToAnotherSubsidiary() {
+        PPE patched = submit(ctx -> contract.patchPPE(ctx, inventoryNumber, "{\"subsidiary\":\"SUB-900\"}"));
+
+        assertEquals("SUB-900", patched.getSubsidiary());
+        Context ctx = contract.createContext(ledger.newTransaction("evaluate"));
+        assertEquals(patched, contract.readSubsidiaryPPE(ctx, "SUB-900", inventoryNumber));
+    }
+
+    @Test
+    void rejectsInvalidPatches() {
+        assertRejected("{\"inventoryNumber\":\"INV-OTHER\"}");
+        assertRejected("{\"color\":\"red\"}");
+        assertRejected("{\"price\":\"cheap\"}");
+        assertRejected("{\"lifeTime\":1.5}");
+        assertRejected("{}");
+        assertRejected("[1]");
+        assertEquals(stored, read());
+    }
+
+    @Test
+    void unchangedPatchWritesNothing() {
+        PPE patched = submit(ctx -> contract.patchPPE(ctx, inventoryNumber, "{\"status\":\"" + stored.getStatus() + "\"}"));
+
+        assertEquals(stored, patched);
+        assertTrue(lastStub.getWriteSet().isEmpty());
+        Map<String, Object> event = event();
+        assertEquals(Collections.emptyList(), event.get("changes"));
+        assertEquals(Collections.singletonList(inventoryNumber), event.get("unchanged"));
+    }
+
+    @Test
+    void repeatedUpdateWritesNothing() {
+        PPE updated = submit(ctx -> update(ctx, 99f));
+        assertFalse(lastStub.getWriteSet().isEmpty());
+        assertEquals(1, changes(event()).size());
+
+        assertEquals(updated, submit(ctx -> update(ctx, 99f)));
+        assertTrue(lastStub.getWriteSet().isEmpty());
+        assertEquals(Collections.singletonList(inventoryNumber), event().get("unchanged"));
+    }
+
+    @Test
+    void repeatedTransferAndAcceptanceWriteNothing() {
+        submit(ctx -> contract.transferPPE(ctx, inventoryNumber, "SUB-900", "TRANSFER"));
+        submit(ctx -> contract.transferPPE(ctx, inventoryNumber, "SUB-900", "TRANSFER"));
+        assertTrue(lastStub.getWriteSet().isEmpty());
+
+        submit(ctx -> contract.applyTransferPPE(ctx, inventoryNumber, "IN_USE"));
+        assertFalse(lastStub.getWriteSet().isEmpty());
+        submit(ctx -> contract.applyTransferPPE(ctx, inventoryNumber, "IN_USE"));
+        assertTrue(lastStub.getWriteSet().isEmpty());
+    }
+
+    @Test
+    void batchReportsItemsThatWroteNothing() {
+        String transfers = "[{\"inventoryNumber\":\"" + inventoryNumber + "\",\"transferToSubsidiary\":\"SUB-900\","
+                + "\"transferStatus\":\"TRANSFER\"}]";
+        assertEquals(true, written(submit(ctx -> contract.transferPPEBatch(ctx, transfers, "PER_ITEM"))));
+        assertEquals(false, written(submit(ctx -> contract.transferPPEBatch(ctx, transfers, "PER_ITEM"))));
+
+        String applies = "[{\"inventoryNumber\":\"" + inventoryNumber + "\",\"status\":\"IN_USE\"}]";
+        assertEquals(true, written(submit(ctx -> contract.applyTransferPPEBatch(ctx, applies, "PER_ITEM"))));
+        assertEquals(false, written(submit(ctx -> contract.applyTransferPPEBatch(ctx, applies, "PER_ITEM"))));
+        assertTrue(lastStub.getWriteSet().isEmpty());
+    }
+
+    private PPE update(final Context ctx, final float price) {
+        return contract.updatePPE(ctx, stored.getOwnerName(), stored.getOwnerID(), stored.getName(), stored.getStatus(),
+                price, inventoryNumber, stored.getStartUseDate(), stored.getLifeTime(), stored.getSubsidiary());
+    }
+
+    private void assertRejected(final String patchJSON) {
+        ChaincodeException e = assertThrows(ChaincodeException.class,
+                () -> submit(ctx -> contract.patchPPE(ctx, inventoryNumber, patchJSON)));
+        assertEquals("INVALID_ARGUMENT", new String(e.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    private PPE read() {
+        return contract.readPPE(contract.createContext(ledger.newTransaction("evaluate")), inventoryNumber);
+    }
+
+    private Map<String, Object> event() {
+        assertEquals(PPEChangeEvent.NAME, lastStub.getEvent().getEventName());
+        return GENSON.deserialize(lastStub.getEvent().getPayload().toStringUtf8(),
+                new GenericType<Map<String, Object>>() { });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> changes(final Map<String, Object> event) {
+        return (List<Object>) event.get("changes");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object written(final String batchResult) {
+        Map<String, Object> result = GENSON.deserialize(batchResult, new GenericType<Map<String, Object>>() { });
+        List<Map<String, Object>> items = (List<Map<String, Object>>) result.get("results");
+        return items.get(0).get("written");
+    }
+
+    private <T> T submit(final Function<Context, T> transaction) {
+        lastStub = ledger.newTransaction("submit");
+        return PPEFixtures.submit(contract, ledger, lastStub, transaction);
+    }
+}